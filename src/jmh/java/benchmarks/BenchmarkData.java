@@ -0,0 +1,60 @@
+package benchmarks;
+
+import ca.uhn.fhir.context.FhirContext;
+import com.google.common.collect.ImmutableList;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Patient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * datasets of the benchmarks, the same on every run
+ */
+final class BenchmarkData {
+    static final List<String> LAST_NAMES = ImmutableList.of(
+            "Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia", "Miller", "Davis", "Rodriguez", "Martinez",
+            "Hernandez", "Lopez", "Gonzalez", "Wilson", "Anderson", "Thomas", "Taylor", "Moore", "Jackson", "Martin");
+
+    private BenchmarkData() {
+    }
+
+    static FhirContext context() {
+        try {
+            return (FhirContext) Handles.FHIR_CONTEXT.invokeExact();
+        } catch (final Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    /**
+     * @param size number of patients
+     * @return patients of the names of names.txt in random order, as the results of several searches concatenated before sorting
+     */
+    @SuppressWarnings("unchecked")
+    static List<Patient> patients(final int size) {
+        final int perName = (size + LAST_NAMES.size() - 1) / LAST_NAMES.size();
+        final List<Patient> patients;
+        try {
+            patients = new ArrayList<>((List<Patient>) Handles.GENERATE.invokeExact(42L, LAST_NAMES, perName));
+        } catch (final Throwable t) {
+            throw new IllegalStateException(t);
+        }
+        Collections.shuffle(patients, new Random(42L));
+        return new ArrayList<>(patients.subList(0, size));
+    }
+
+    /**
+     * @param size number of patients
+     * @return json of a search Bundle of size patients, as the server sends it
+     */
+    static String bundleJson(final int size) {
+        final Bundle bundle = new Bundle().setType(Bundle.BundleType.SEARCHSET).setTotal(size);
+        bundle.getMeta().setVersionId("1");
+        bundle.addLink().setRelation(Bundle.LINK_NEXT).setUrl("http://localhost/baseR4?_getpages=1&_getpagesoffset=" + size + "&_count=" + size);
+        patients(size).forEach(p -> bundle.addEntry().setFullUrl("http://localhost/baseR4/Patient/" + p.getIdElement().getIdPart()).setResource(p));
+        return context().newJsonParser().encodeResourceToString(bundle);
+    }
+}
@@ -0,0 +1,50 @@
+package benchmarks;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * parsing a search Bundle of size patients, with the HAPI json parser of the FULL and ELEMENTS fetch modes and the streaming parser of LEAN
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BundleParseBenchmark {
+
+    @Param({"10", "100", "1000"})
+    int size;
+
+    private String json;
+
+    @Setup
+    public void setUp() {
+        json = BenchmarkData.bundleJson(size);
+    }
+
+    @Benchmark
+    public Bundle parseHapi() {
+        return BenchmarkData.context().newJsonParser().parseResource(Bundle.class, json);
+    }
+
+    @Benchmark
+    public Object parseLean() throws Throwable {
+        return (Object) Handles.PARSE_LEAN.invokeExact((Reader) new StringReader(json));
+    }
+}
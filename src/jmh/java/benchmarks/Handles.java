@@ -0,0 +1,68 @@
+package benchmarks;
+
+import org.hl7.fhir.r4.model.Patient;
+
+import java.io.Reader;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * the code under benchmark lives in the unnamed package, which Java code of a named package cannot refer to,
+ * while JMH requires benchmarks in a named package. the benchmarks reach it through these method handles instead:
+ * held in static final fields and called with invokeExact, they are constants the JIT inlines like a direct call.
+ */
+final class Handles {
+    static final MethodHandle EXTRACT_FIRST_NAME = find("Util", "extractFirstName", Patient.class);
+    static final MethodHandle EXTRACT_LAST_NAME = find("Util", "extractLastName", Patient.class);
+    static final MethodHandle EXTRACT_DOB = find("Util", "extractDob", Patient.class);
+    static final MethodHandle EXTRACT_BIRTH_EPOCH_DAY = find("Util", "extractBirthEpochDay", Patient.class);
+    static final MethodHandle SORT_BY_FIRST_NAME = find("PatientSortKey", "sortByFirstName", Collection.class);
+    static final MethodHandle SORT_BY_LAST_NAME = find("PatientSortKey", "sortByLastName", Collection.class);
+    static final MethodHandle MERGE_BY_LAST_NAME = find("PatientSortKey", "mergeByLastName", List.class);
+    static final MethodHandle GENERATE = find("FhirStubServer", "generate", long.class, List.class, int.class);
+    static final MethodHandle FHIR_CONTEXT = find("FhirClients", "context");
+    static final MethodHandle PARSE_LEAN = find("LeanPatientSearch", "parse", Reader.class).asType(
+            MethodType.methodType(Object.class, Reader.class));
+
+    private Handles() {
+    }
+
+    private static MethodHandle find(final String className, final String methodName, final Class<?>... parameterTypes) {
+        try {
+            final Method method = Class.forName(className).getDeclaredMethod(methodName, parameterTypes);
+            // some of the methods are package private
+            method.setAccessible(true);
+            return MethodHandles.lookup().unreflect(method);
+        } catch (final ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String firstName(final Patient patient) {
+        try {
+            return (String) EXTRACT_FIRST_NAME.invokeExact(patient);
+        } catch (final Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    static String lastName(final Patient patient) {
+        try {
+            return (String) EXTRACT_LAST_NAME.invokeExact(patient);
+        } catch (final Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    static String dob(final Patient patient) {
+        try {
+            return (String) EXTRACT_DOB.invokeExact(patient);
+        } catch (final Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package benchmarks;
+
+import org.hl7.fhir.r4.model.Patient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * sorting search results by first name, as within a search, and by last then first name, as cacheLoadPatientsFromFile does:
+ * with the comparator chains extracting the names on every comparison, with PatientSortKey extracting them once per patient,
+ * and merging the per last name results already sorted by first name
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SortBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    int size;
+
+    private List<Patient> patients;
+    /**
+     * patients of each last name sorted by first name, as cacheLoadPatientsFromFile finds them in the cache
+     */
+    private List<List<Patient>> byLastName;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Throwable {
+        patients = BenchmarkData.patients(size);
+        byLastName = new ArrayList<>();
+        for (final List<Patient> family : patients.stream().collect(Collectors.groupingBy(Handles::lastName)).values()) {
+            byLastName.add((List<Patient>) Handles.SORT_BY_FIRST_NAME.invokeExact((Collection<Patient>) family));
+        }
+    }
+
+    @Benchmark
+    public List<Patient> sortByFirstName() {
+        return patients.stream()
+                .sorted(Comparator.comparing(Handles::firstName))
+                .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<Patient> sortByLastNameThenFirstName() {
+        return patients.stream()
+                .sorted(Comparator.comparing(Handles::lastName).thenComparing(Handles::firstName))
+                .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public List<Patient> sortKeysByFirstName() throws Throwable {
+        return (List<Patient>) Handles.SORT_BY_FIRST_NAME.invokeExact((Collection<Patient>) patients);
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public List<Patient> sortKeysByLastName() throws Throwable {
+        return (List<Patient>) Handles.SORT_BY_LAST_NAME.invokeExact((Collection<Patient>) patients);
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public List<Patient> mergeByLastName() throws Throwable {
+        return ((Stream<Patient>) Handles.MERGE_BY_LAST_NAME.invokeExact((List) byLastName)).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public List<Patient> mergeByLastNameFirst20() throws Throwable {
+        return ((Stream<Patient>) Handles.MERGE_BY_LAST_NAME.invokeExact((List) byLastName)).limit(20L).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,68 @@
+package benchmarks;
+
+import org.hl7.fhir.r4.model.Patient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * the per patient extractors of Util, each operation extracts from every patient of the dataset
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UtilBenchmark {
+
+    @Param({"1000"})
+    int size;
+
+    private List<Patient> patients;
+
+    @Setup
+    public void setUp() {
+        patients = BenchmarkData.patients(size);
+    }
+
+    @Benchmark
+    public void extractFirstName(final Blackhole blackhole) throws Throwable {
+        for (final Patient patient : patients) {
+            blackhole.consume((String) Handles.EXTRACT_FIRST_NAME.invokeExact(patient));
+        }
+    }
+
+    @Benchmark
+    public void extractLastName(final Blackhole blackhole) throws Throwable {
+        for (final Patient patient : patients) {
+            blackhole.consume((String) Handles.EXTRACT_LAST_NAME.invokeExact(patient));
+        }
+    }
+
+    @Benchmark
+    public void extractDob(final Blackhole blackhole) throws Throwable {
+        for (final Patient patient : patients) {
+            blackhole.consume((String) Handles.EXTRACT_DOB.invokeExact(patient));
+        }
+    }
+
+    @Benchmark
+    public void extractBirthEpochDay(final Blackhole blackhole) throws Throwable {
+        for (final Patient patient : patients) {
+            blackhole.consume((int) Handles.EXTRACT_BIRTH_EPOCH_DAY.invokeExact(patient));
+        }
+    }
+}
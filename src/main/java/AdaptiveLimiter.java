@@ -0,0 +1,195 @@
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * limit of the requests in flight to a server, adjusted from their latency and outcome with additive increase, multiplicative decrease:
+ * a request slower than latencyTolerance times the lowest recent latency, failing to connect, or answered 429 or 5xx,
+ * cuts the limit by backoffRatio, while a fast request completing with at least half of the limit in use raises it by one.
+ * <p>
+ * callers over the limit wait for a free slot for at most maxQueueWait, and are rejected at once when maxQueue callers already wait.
+ * one limiter can be shared by every client of the same server.
+ */
+@Slf4j
+public class AdaptiveLimiter {
+    private final static int MIN_RTT_WINDOW = 1000;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueue;
+    private final long maxQueueWaitNanos;
+    private final double backoffRatio;
+    private final double latencyTolerance;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final LongAdder rejectedAdder = new LongAdder();
+    private final LongAdder droppedAdder = new LongAdder();
+    private volatile double limit;
+    private volatile int inFlight;
+    private volatile int queued;
+    private long minRttNanos = Long.MAX_VALUE;
+    private long windowMinRttNanos = Long.MAX_VALUE;
+    private int windowSamples;
+
+    public AdaptiveLimiter(final int initialLimit, final int maxLimit, final int maxQueue, @NonNull final Duration maxQueueWait) {
+        this(initialLimit, 1, maxLimit, maxQueue, maxQueueWait, 0.9d, 2.0d);
+    }
+
+    /**
+     * @param initialLimit     limit before any request completed
+     * @param minLimit         lowest limit
+     * @param maxLimit         highest limit
+     * @param maxQueue         number of callers allowed to wait for a slot
+     * @param maxQueueWait     time a caller waits for a slot before being rejected
+     * @param backoffRatio     factor applied to the limit on an overloaded request
+     * @param latencyTolerance multiple of the lowest recent latency above which a request counts as overloaded
+     */
+    public AdaptiveLimiter(final int initialLimit, final int minLimit, final int maxLimit, final int maxQueue, @NonNull final Duration maxQueueWait,
+                           final double backoffRatio, final double latencyTolerance) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.maxQueue = Math.max(0, maxQueue);
+        this.maxQueueWaitNanos = maxQueueWait.toNanos();
+        this.backoffRatio = backoffRatio;
+        this.latencyTolerance = latencyTolerance;
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+    }
+
+    /**
+     * run a request within the limit
+     *
+     * @param request request to send
+     * @return result of request
+     * @throws RejectedExecutionException when no slot frees up in time or the queue is full
+     */
+    public <T> T call(@NonNull final Callable<T> request) throws Exception {
+        acquire();
+        final long start = System.nanoTime();
+        boolean overloaded = true;
+        try {
+            final T result = request.call();
+            overloaded = false;
+            return result;
+        } catch (final BaseServerResponseException e) {
+            overloaded = isOverload(e.getStatusCode());
+            throw e;
+        } finally {
+            // a request its caller cancelled, as a hedge does with the losing one, tells nothing about the server
+            if (Thread.currentThread().isInterrupted()) {
+                release();
+            } else {
+                release(System.nanoTime() - start, overloaded);
+            }
+        }
+    }
+
+    static boolean isOverload(final int statusCode) {
+        return statusCode == 429 || statusCode >= 500;
+    }
+
+    private void acquire() {
+        lock.lock();
+        try {
+            if (inFlight < (int) limit) {
+                inFlight++;
+                return;
+            }
+            if (queued >= maxQueue) {
+                rejectedAdder.increment();
+                throw new RejectedExecutionException("limit of " + (int) limit + " requests in flight reached, " + queued + " requests queued");
+            }
+            queued++;
+            try {
+                long nanos = maxQueueWaitNanos;
+                while (inFlight >= (int) limit) {
+                    if (nanos <= 0L) {
+                        rejectedAdder.increment();
+                        throw new RejectedExecutionException("no request slot freed up within " + TimeUnit.NANOSECONDS.toMillis(maxQueueWaitNanos) + " millis");
+                    }
+                    nanos = available.awaitNanos(nanos);
+                }
+                inFlight++;
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("interrupted while waiting for a request slot", e);
+            } finally {
+                queued--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(final long rttNanos, final boolean overloaded) {
+        lock.lock();
+        try {
+            final int used = inFlight;
+            inFlight--;
+            windowMinRttNanos = Math.min(windowMinRttNanos, rttNanos);
+            minRttNanos = Math.min(minRttNanos, rttNanos);
+            if (++windowSamples >= MIN_RTT_WINDOW) {
+                // forget the lowest latency from time to time, so the baseline can follow a server that became slower for good
+                minRttNanos = windowMinRttNanos;
+                windowMinRttNanos = Long.MAX_VALUE;
+                windowSamples = 0;
+            }
+
+            if (overloaded || rttNanos > minRttNanos * latencyTolerance) {
+                droppedAdder.increment();
+                limit = Math.max(minLimit, limit * backoffRatio);
+            } else if (used * 2 >= (int) limit) {
+                limit = Math.min(maxLimit, limit + 1d);
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of requests currently allowed in flight
+     */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return number of callers waiting for a slot
+     */
+    public int getQueueDepth() {
+        return queued;
+    }
+
+    public long getRejectedCount() {
+        return rejectedAdder.sum();
+    }
+
+    /**
+     * @return number of requests that were slow or failed with an overload status and made the limit decrease
+     */
+    public long getOverloadCount() {
+        return droppedAdder.sum();
+    }
+}
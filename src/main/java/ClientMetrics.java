@@ -0,0 +1,177 @@
+import com.google.common.collect.ImmutableList;
+import io.vavr.control.Try;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMX view of a SampleClient, every attribute read from the client's counters when scraped.
+ * {@link #register(String, SampleClient, Duration)} publishes it as SampleClient:type=Client,name=[name],
+ * with an {@link OperationMetrics} per operation as SampleClient:type=Operation,client=[name],name=[operation].
+ */
+@Slf4j
+public class ClientMetrics implements ClientMetricsMBean {
+    public final static String DOMAIN = "SampleClient";
+
+    private final SampleClient client;
+
+    public ClientMetrics(@NonNull final SampleClient client) {
+        this.client = client;
+    }
+
+    /**
+     * register the MBeans of client in the platform MBean server, a name already taken is logged and skipped
+     *
+     * @param name   name of the client in the object names
+     * @param client client to publish
+     * @param window shortest time the operation latencies are computed over
+     * @return names of the MBeans registered, to unregister them
+     */
+    public static List<ObjectName> register(@NonNull final String name, @NonNull final SampleClient client, @NonNull final Duration window) {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ImmutableList.Builder<ObjectName> registered = ImmutableList.builder();
+        final String quoted = ObjectName.quote(name);
+        Try.of(() -> server.registerMBean(new ClientMetrics(client), new ObjectName(DOMAIN + ":type=Client,name=" + quoted)).getObjectName())
+                .onSuccess(registered::add)
+                .onFailure(e -> log.warn("failed to register the metrics of client {}", name, e));
+        for (final RequestMetrics.Operation operation : RequestMetrics.Operation.values()) {
+            final String objectName = DOMAIN + ":type=Operation,client=" + quoted + ",name=" + operation.name().toLowerCase(Locale.ROOT);
+            Try.of(() -> server.registerMBean(new OperationMetrics(client.getRequestMetrics(), operation, window), new ObjectName(objectName)).getObjectName())
+                    .onSuccess(registered::add)
+                    .onFailure(e -> log.warn("failed to register the metrics of {}", objectName, e));
+        }
+        return registered.build();
+    }
+
+    public static void unregister(@NonNull final List<ObjectName> names) {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        names.forEach(name -> Try.run(() -> server.unregisterMBean(name)).onFailure(e -> log.warn("failed to unregister {}", name, e)));
+    }
+
+    @Override
+    public long getRequestCount() {
+        return client.getRequestMetrics().getRequestCount();
+    }
+
+    @Override
+    public long getInFlight() {
+        return client.getRequestMetrics().getInFlight();
+    }
+
+    @Override
+    public long getNoResponseCount() {
+        return client.getRequestMetrics().getNoResponseCount();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return client.getRequestMetrics().getBytesReceived();
+    }
+
+    @Override
+    public long getStatus2xxCount() {
+        return client.getRequestMetrics().getStatusClassCount(2);
+    }
+
+    @Override
+    public long getStatus3xxCount() {
+        return client.getRequestMetrics().getStatusClassCount(3);
+    }
+
+    @Override
+    public long getStatus4xxCount() {
+        return client.getRequestMetrics().getStatusClassCount(4);
+    }
+
+    @Override
+    public long getStatus5xxCount() {
+        return client.getRequestMetrics().getStatusClassCount(5);
+    }
+
+    @Override
+    public long getCacheSize() {
+        return client.getCacheSize();
+    }
+
+    @Override
+    public long getCacheWeight() {
+        return client.getCacheWeight();
+    }
+
+    @Override
+    public double getCacheHitRate() {
+        return client.getCacheStats().hitRate();
+    }
+
+    @Override
+    public long getCacheHitCount() {
+        return client.getCacheStats().hitCount();
+    }
+
+    @Override
+    public long getCacheMissCount() {
+        return client.getCacheStats().missCount();
+    }
+
+    @Override
+    public long getCacheLoadCount() {
+        return client.getCacheStats().loadCount();
+    }
+
+    @Override
+    public long getCacheLoadExceptionCount() {
+        return client.getCacheStats().loadExceptionCount();
+    }
+
+    @Override
+    public double getCacheAverageLoadMillis() {
+        return client.getCacheStats().averageLoadPenalty() / TimeUnit.MILLISECONDS.toNanos(1L);
+    }
+
+    @Override
+    public long getCacheEvictionCount() {
+        return client.getCacheStats().evictionCount();
+    }
+
+    @Override
+    public long getCacheSizeEvictionCount() {
+        return client.getSizeEvictionCount();
+    }
+
+    @Override
+    public long getAdmissionRejectedCount() {
+        return client.getAdmissionRejectedCount();
+    }
+
+    @Override
+    public double getNegativeCacheHitRate() {
+        return client.getNegativeCacheStats().hitRate();
+    }
+
+    @Override
+    public long getRefreshCount() {
+        return client.getRefreshCount();
+    }
+
+    @Override
+    public long getNotModifiedCount() {
+        return client.getNotModifiedCount();
+    }
+
+    @Override
+    public long getHedgedCount() {
+        return client.getHedgedCount();
+    }
+
+    @Override
+    public long getCoalescedCount() {
+        return client.getCoalescedCount();
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * JMX view of a SampleClient: its requests to the server and its cache, see {@link ClientMetrics}
+ */
+public interface ClientMetricsMBean {
+    long getRequestCount();
+
+    long getInFlight();
+
+    /**
+     * @return number of requests that never got a response
+     */
+    long getNoResponseCount();
+
+    long getBytesReceived();
+
+    long getStatus2xxCount();
+
+    long getStatus3xxCount();
+
+    long getStatus4xxCount();
+
+    long getStatus5xxCount();
+
+    long getCacheSize();
+
+    long getCacheWeight();
+
+    double getCacheHitRate();
+
+    long getCacheHitCount();
+
+    long getCacheMissCount();
+
+    long getCacheLoadCount();
+
+    long getCacheLoadExceptionCount();
+
+    double getCacheAverageLoadMillis();
+
+    long getCacheEvictionCount();
+
+    long getCacheSizeEvictionCount();
+
+    long getAdmissionRejectedCount();
+
+    double getNegativeCacheHitRate();
+
+    long getRefreshCount();
+
+    long getNotModifiedCount();
+
+    long getHedgedCount();
+
+    long getCoalescedCount();
+}
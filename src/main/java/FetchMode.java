@@ -0,0 +1,18 @@
+/**
+ * how much of each Patient a search downloads and parses
+ */
+public enum FetchMode {
+    /**
+     * complete resources parsed into the HAPI model
+     */
+    FULL,
+    /**
+     * only id, name and birthDate requested from the server (_elements), parsed into the HAPI model
+     */
+    ELEMENTS,
+    /**
+     * only id, name and birthDate requested from the server (_elements), streamed from the json response straight into slim Patients
+     * without building the Bundle model
+     */
+    LEAN
+}
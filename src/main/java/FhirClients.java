@@ -0,0 +1,160 @@
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.api.EncodingEnum;
+import ca.uhn.fhir.rest.api.RequestTypeEnum;
+import ca.uhn.fhir.rest.client.api.Header;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.api.IHttpRequest;
+import ca.uhn.fhir.rest.client.api.IHttpResponse;
+import ca.uhn.fhir.rest.client.api.IRestfulClientFactory;
+import ca.uhn.fhir.rest.client.api.ServerValidationModeEnum;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.DateType;
+import org.hl7.fhir.r4.model.Patient;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * registry of the R4 FhirContext shared by every client of the JVM.
+ * building a context scans the model classes of every resource it meets by reflection, which is the bulk of the cost of a cold start,
+ * so the context is built once and reused. a FhirContext is thread safe once configured, and so are the clients it creates.
+ * <p>
+ * {@link #warmUp()} pays the remaining first use costs up front: the Patient and Bundle definitions, the json parser, and the http client.
+ */
+@Slf4j
+public class FhirClients {
+    private final static Supplier<Duration> WARM_UP = Suppliers.memoize(FhirClients::doWarmUp);
+
+    private FhirClients() {
+    }
+
+    private static class Holder {
+        private final static FhirContext CONTEXT = newContext();
+    }
+
+    private static FhirContext newContext() {
+        final Stopwatch stopwatch = Stopwatch.createStarted();
+        final FhirContext context = FhirContext.forR4();
+        // the generic client would otherwise fetch the server's CapabilityStatement before its first request
+        context.getRestfulClientFactory().setServerValidationMode(ServerValidationModeEnum.NEVER);
+        log.info("R4 FhirContext created in {} millis", stopwatch.elapsed().toMillis());
+        return context;
+    }
+
+    /**
+     * @return the R4 context shared by the JVM
+     */
+    public static FhirContext context() {
+        return Holder.CONTEXT;
+    }
+
+    /**
+     * create a client of serverBase on the shared context.
+     * the clients share the context's connection pool, which is widened to at least concurrency connections per route and in total.
+     *
+     * @param serverBase  base url of the FHIR server
+     * @param concurrency number of requests the caller sends at once
+     * @return new client, without interceptors
+     */
+    public static IGenericClient newClient(@NonNull final String serverBase, final int concurrency) {
+        final IRestfulClientFactory factory = context().getRestfulClientFactory();
+        if (concurrency > 1) {
+            synchronized (factory) {
+                // setting the pool size drops the pooled http client, so only touch it when it has to grow
+                if (factory.getPoolMaxPerRoute() < concurrency) {
+                    factory.setPoolMaxPerRoute(concurrency);
+                }
+                if (factory.getPoolMaxTotal() < concurrency) {
+                    factory.setPoolMaxTotal(concurrency);
+                }
+            }
+        }
+        return context().newRestfulGenericClient(serverBase);
+    }
+
+    /**
+     * send a GET to url with the http client of fhirContext, for the requests the generic client does not model.
+     * interceptor is notified of the request and the response as the generic client would notify it, and of a request left without a response
+     *
+     * @param fhirContext context providing the http client
+     * @param interceptor interceptor of the client
+     * @param url         absolute url to get
+     * @param accept      Accept header
+     * @param headers     additional request headers
+     * @return 2xx response, to be closed by the caller
+     * @throws BaseServerResponseException when the server does not answer 2xx, NotModifiedException for 304
+     */
+    public static IHttpResponse get(@NonNull final FhirContext fhirContext, @NonNull final TimeCostInterceptor interceptor, @NonNull final String url,
+                                    @NonNull final String accept, @NonNull final Map<String, String> headers) throws IOException {
+        log.info("get, url: {}", url);
+
+        final List<Header> requestHeaders = headers.entrySet().stream().map(e -> new Header(e.getKey(), e.getValue())).collect(Collectors.toList());
+        final IHttpRequest request = fhirContext.getRestfulClientFactory()
+                .getHttpClient(new StringBuilder(url), null, null, RequestTypeEnum.GET, requestHeaders)
+                .createGetRequest(fhirContext, EncodingEnum.JSON);
+        request.addHeader(Constants.HEADER_ACCEPT, accept);
+        interceptor.interceptRequest(request);
+        final IHttpResponse response;
+        try {
+            response = request.execute();
+        } catch (final IOException | RuntimeException e) {
+            interceptor.requestFailed();
+            throw e;
+        }
+        try {
+            interceptor.interceptResponse(response);
+        } catch (final IOException | RuntimeException e) {
+            response.close();
+            throw e;
+        }
+        if (response.getStatus() < 200 || response.getStatus() > 299) {
+            response.close();
+            throw BaseServerResponseException.newInstance(response.getStatus(), response.getStatusInfo());
+        }
+        return response;
+    }
+
+    /**
+     * build the shared context, scan the Patient and Bundle definitions, and round trip a search Bundle through the json parser,
+     * so the first search does not pay for class loading and reflection. only the first call does the work.
+     *
+     * @return time the warm up took
+     */
+    public static Duration warmUp() {
+        return WARM_UP.get();
+    }
+
+    private static Duration doWarmUp() {
+        final Stopwatch stopwatch = Stopwatch.createStarted();
+        final FhirContext context = context();
+        context.getResourceDefinition(Patient.class);
+        context.getResourceDefinition(Bundle.class);
+
+        final Patient patient = new Patient();
+        patient.setId("warm-up");
+        patient.addName().setFamily("WarmUp").addGiven("Warm");
+        patient.setBirthDateElement(new DateType("2000-01-01"));
+        final Bundle bundle = new Bundle().setType(Bundle.BundleType.SEARCHSET);
+        bundle.addLink().setRelation(Bundle.LINK_NEXT).setUrl("http://localhost/baseR4?_getpages=warm-up");
+        bundle.addEntry().setResource(patient);
+        final String json = context.newJsonParser().encodeResourceToString(bundle);
+        context.newJsonParser().parseResource(Bundle.class, json);
+
+        // creates the pooled http client the generic clients share
+        context.getRestfulClientFactory().getHttpClient(new StringBuilder("http://localhost/baseR4"), null, null, null, null);
+
+        final Duration elapsed = stopwatch.elapsed();
+        log.info("FHIR warm up done in {} millis", elapsed.toMillis());
+        return elapsed;
+    }
+}
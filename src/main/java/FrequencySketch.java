@@ -0,0 +1,98 @@
+import lombok.NonNull;
+
+/**
+ * approximate count of how often each key was seen recently, in a count-min sketch of 4 bit counters.
+ * each key maps to one counter in each of 4 rows, its frequency being the smallest of them, so collisions can only overestimate it.
+ * counters saturate at 15, and all of them are halved once 10 increments per table slot were recorded,
+ * so keys that stopped being seen fade out instead of staying frequent forever.
+ * <p>
+ * used by SampleClient to admit a last name into a memory bounded cache only once it was looked up a few times,
+ * so a scan of names looked up once does not evict the names looked up all the time.
+ */
+public class FrequencySketch {
+    private final static long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private final static long RESET_MASK = 0x7777777777777777L;
+    public final static int MAX_FREQUENCY = 15;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int size;
+
+    /**
+     * @param expectedKeys number of distinct keys expected to be counted at once, the sketch takes 8 bytes per key
+     */
+    public FrequencySketch(final int expectedKeys) {
+        final int length = Integer.highestOneBit(Math.max(16, Math.min(expectedKeys, 1 << 26) - 1) << 1);
+        table = new long[length];
+        tableMask = length - 1;
+        sampleSize = 10 * length;
+    }
+
+    /**
+     * @param key key seen once more
+     */
+    public synchronized void increment(@NonNull final Object key) {
+        final int hash = spread(key.hashCode());
+        // each long holds 16 counters, a key uses the same group of 4 of them in every row
+        final int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            added |= incrementAt(indexOf(hash, i), (start + i) << 2);
+        }
+        if (added && ++size == sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * @return estimated number of times key was seen recently, at most MAX_FREQUENCY
+     */
+    public synchronized int frequency(@NonNull final Object key) {
+        final int hash = spread(key.hashCode());
+        final int start = (hash & 3) << 2;
+        int frequency = MAX_FREQUENCY;
+        for (int i = 0; i < SEEDS.length; i++) {
+            frequency = Math.min(frequency, (int) ((table[indexOf(hash, i)] >>> ((start + i) << 2)) & 0xfL));
+        }
+        return frequency;
+    }
+
+    /**
+     * @return number of increments recorded since the counters were last halved
+     */
+    public synchronized int getSize() {
+        return size;
+    }
+
+    private boolean incrementAt(final int index, final int offset) {
+        final long mask = 0xfL << offset;
+        if ((table[index] & mask) != mask) {
+            table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    private int indexOf(final int hash, final int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return ((int) h) & tableMask;
+    }
+
+    /**
+     * halve every counter, the low bit of each counter is shifted into the high bit of the counter below it and masked away
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size /= 2;
+    }
+
+    private static int spread(final int hashCode) {
+        int h = ((hashCode >>> 16) ^ hashCode) * 0x45d9f3b;
+        h = ((h >>> 16) ^ h) * 0x45d9f3b;
+        return (h >>> 16) ^ h;
+    }
+}
@@ -0,0 +1,131 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * fixed memory histogram of non negative latencies, recorded without locks or allocation.
+ * values are counted in log-linear buckets: exact below 64, above that 32 buckets per power of two,
+ * so a reported percentile is within about 3% of the recorded value.
+ * snapshotAndReset hands over to a second set of buckets and waits for the writers still recording into the first one,
+ * so every value is reported in exactly one snapshot, the same technique as HdrHistogram's WriterReaderPhaser.
+ */
+public class LatencyHistogram {
+    private final static int SUB_BUCKET_BITS = 5;
+    private final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private final static int LINEAR_BUCKETS = SUB_BUCKETS << 1;
+    final static int BUCKETS = LINEAR_BUCKETS + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+    private final AtomicLong startEpoch = new AtomicLong(0L);
+    private final AtomicLong evenEndEpoch = new AtomicLong(0L);
+    private final AtomicLong oddEndEpoch = new AtomicLong(Long.MIN_VALUE);
+    private volatile Counts active = new Counts();
+    private Counts inactive = new Counts();
+
+    static int bucketOf(final long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) Math.max(0L, value);
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    static long highestValueOf(final int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        final int shift = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+        final long mantissa = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((mantissa + 1L) << shift) - 1L;
+    }
+
+    public void record(final long value) {
+        final long epoch = startEpoch.getAndIncrement();
+        try {
+            active.record(Math.max(0L, value));
+        } finally {
+            (epoch < 0 ? oddEndEpoch : evenEndEpoch).getAndIncrement();
+        }
+    }
+
+    public long getCount() {
+        return active.count.sum();
+    }
+
+    /**
+     * @return mean of the values recorded since the last reset, 0 if nothing was recorded
+     */
+    public double getMean() {
+        final Counts counts = active;
+        final long count = counts.count.sum();
+        return count == 0L ? 0d : (double) counts.sum.sum() / count;
+    }
+
+    /**
+     * @return a copy of the values recorded since the last reset, values recorded while copying may be partly included
+     */
+    public LatencySnapshot snapshot() {
+        return active.toSnapshot();
+    }
+
+    /**
+     * atomically take the values recorded since the last reset and start over with an empty histogram
+     *
+     * @return the values recorded since the last reset
+     */
+    public synchronized LatencySnapshot snapshotAndReset() {
+        final Counts recorded = active;
+        inactive.reset();
+        active = inactive;
+
+        final boolean nextPhaseIsEven = startEpoch.get() < 0;
+        final long initialStartValue = nextPhaseIsEven ? 0L : Long.MIN_VALUE;
+        (nextPhaseIsEven ? evenEndEpoch : oddEndEpoch).set(initialStartValue);
+        final long startValueAtFlip = startEpoch.getAndSet(initialStartValue);
+        final AtomicLong endEpoch = nextPhaseIsEven ? oddEndEpoch : evenEndEpoch;
+        while (endEpoch.get() != startValueAtFlip) {
+            Thread.yield();
+        }
+
+        inactive = recorded;
+        return recorded.toSnapshot();
+    }
+
+    private final static class Counts {
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+        private final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+        private void record(final long value) {
+            buckets.getAndIncrement(bucketOf(value));
+            count.increment();
+            sum.add(value);
+            min.accumulate(value);
+            max.accumulate(value);
+        }
+
+        private void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0L);
+            }
+            count.reset();
+            sum.reset();
+            min.reset();
+            max.reset();
+        }
+
+        private LatencySnapshot toSnapshot() {
+            final long[] copy = new long[BUCKETS];
+            long total = 0L;
+            for (int i = 0; i < BUCKETS; i++) {
+                copy[i] = buckets.get(i);
+                total += copy[i];
+            }
+            return total == 0L
+                    ? LatencySnapshot.EMPTY
+                    : new LatencySnapshot(copy, total, sum.sum(), min.get(), max.get());
+        }
+    }
+}
@@ -0,0 +1,117 @@
+import lombok.Getter;
+
+/**
+ * immutable copy of the values recorded by a LatencyHistogram
+ */
+public class LatencySnapshot {
+    public final static LatencySnapshot EMPTY = new LatencySnapshot(new long[LatencyHistogram.BUCKETS], 0L, 0L, 0L, 0L);
+
+    private final long[] buckets;
+    @Getter
+    private final long count;
+    @Getter
+    private final long sum;
+    @Getter
+    private final long min;
+    @Getter
+    private final long max;
+
+    LatencySnapshot(final long[] buckets, final long count, final long sum, final long min, final long max) {
+        this.buckets = buckets;
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+    }
+
+    public double getMean() {
+        return count == 0L ? 0d : (double) sum / count;
+    }
+
+    /**
+     * @param percentile percentile between 0 and 100
+     * @return highest value of the bucket holding the given percentile, capped by max, 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(final double percentile) {
+        if (count == 0L) {
+            return 0L;
+        }
+        final long rank = Math.max(1L, (long) Math.ceil(Math.min(100d, Math.max(0d, percentile)) / 100d * count));
+        long seen = 0L;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.max(min, Math.min(max, LatencyHistogram.highestValueOf(i)));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * values recorded between an earlier snapshot of the same histogram and this one.
+     * min and max of the difference are not known exactly, they are taken from the lowest and highest non empty buckets
+     *
+     * @param earlier snapshot taken before this one, without a reset in between
+     * @return snapshot of the values recorded since earlier
+     */
+    public LatencySnapshot minus(final LatencySnapshot earlier) {
+        final long[] difference = new long[buckets.length];
+        int lowest = -1;
+        int highest = -1;
+        for (int i = 0; i < buckets.length; i++) {
+            difference[i] = Math.max(0L, buckets[i] - earlier.buckets[i]);
+            if (difference[i] > 0L) {
+                lowest = lowest < 0 ? i : lowest;
+                highest = i;
+            }
+        }
+        if (lowest < 0) {
+            return EMPTY;
+        }
+        final long differenceMin = Math.max(min, lowest == 0 ? 0L : LatencyHistogram.highestValueOf(lowest - 1) + 1L);
+        final long differenceMax = Math.min(max, LatencyHistogram.highestValueOf(highest));
+        return new LatencySnapshot(difference, Math.max(0L, count - earlier.count), Math.max(0L, sum - earlier.sum), differenceMin, differenceMax);
+    }
+
+    /**
+     * values of this snapshot and of other together, e.g. of two successive snapshotAndReset of the same histogram
+     *
+     * @param other snapshot of other values
+     * @return snapshot of the values of both
+     */
+    public LatencySnapshot plus(final LatencySnapshot other) {
+        if (other.count == 0L) {
+            return this;
+        }
+        if (count == 0L) {
+            return other;
+        }
+        final long[] total = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            total[i] = buckets[i] + other.buckets[i];
+        }
+        return new LatencySnapshot(total, count + other.count, sum + other.sum, Math.min(min, other.min), Math.max(max, other.max));
+    }
+
+    public long getP50() {
+        return getValueAtPercentile(50d);
+    }
+
+    public long getP90() {
+        return getValueAtPercentile(90d);
+    }
+
+    public long getP99() {
+        return getValueAtPercentile(99d);
+    }
+
+    public long getP999() {
+        return getValueAtPercentile(99.9d);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count: %d, mean: %.2f, min: %d, p50: %d, p90: %d, p99: %d, p999: %d, max: %d",
+                count, getMean(), min, getP50(), getP90(), getP99(), getP999(), max);
+    }
+}
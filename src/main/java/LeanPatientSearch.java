@@ -0,0 +1,264 @@
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.client.api.IHttpResponse;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.r4.model.DateType;
+import org.hl7.fhir.r4.model.HumanName;
+import org.hl7.fhir.r4.model.InstantType;
+import org.hl7.fhir.r4.model.Meta;
+import org.hl7.fhir.r4.model.Patient;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Patient search asking the server for id, name and birthDate only, and reading the json response with a streaming parser
+ * straight into slim Patients holding p.id, p.meta, p.name[0].given[0], p.name[*].family and p.birthDate.
+ * everything else in the response, the Bundle model included, is skipped without being built.
+ */
+@Slf4j
+public class LeanPatientSearch {
+    public final static String ELEMENTS = "id,name,birthDate";
+
+    private final FhirContext fhirContext;
+    private final String serverBase;
+    private final TimeCostInterceptor interceptor;
+
+    /**
+     * @param fhirContext context providing the http client
+     * @param serverBase  base url of the FHIR server
+     * @param interceptor interceptor notified of every request and response, as the generic client does, and of every request left without a response
+     */
+    public LeanPatientSearch(@NonNull final FhirContext fhirContext, @NonNull final String serverBase, @NonNull final TimeCostInterceptor interceptor) {
+        this.fhirContext = fhirContext;
+        this.serverBase = serverBase.endsWith("/") ? serverBase.substring(0, serverBase.length() - 1) : serverBase;
+        this.interceptor = interceptor;
+    }
+
+    /**
+     * search the first page of the patients of lastNames, family=lastName1,lastName2,...
+     *
+     * @param lastNames non blank last names to search
+     * @param pageSize  number of patients per page, 0 leaves it to the server
+     * @param headers   additional request headers
+     * @return first page of the result
+     * @throws BaseServerResponseException when the server does not answer 2xx, NotModifiedException for 304
+     */
+    public Page search(final List<String> lastNames, final int pageSize, final Map<String, String> headers) throws IOException {
+        final StringBuilder url = new StringBuilder(serverBase)
+                .append("/Patient?family=").append(encode(String.join(",", lastNames)))
+                .append("&_elements=").append(encode(ELEMENTS));
+        if (pageSize > 0) {
+            url.append("&_count=").append(pageSize);
+        }
+        return get(url.toString(), headers);
+    }
+
+    /**
+     * @param page page of a result
+     * @return the page following page, null if it is the last one
+     */
+    public Page next(@NonNull final Page page) throws IOException {
+        return Objects.nonNull(page.getNextUrl()) ? get(page.getNextUrl(), ImmutableMap.of()) : null;
+    }
+
+    private Page get(final String url, final Map<String, String> headers) throws IOException {
+        final IHttpResponse response = FhirClients.get(fhirContext, interceptor, url, Constants.CT_FHIR_JSON_NEW, headers);
+        try (final Reader reader = response.createReader()) {
+            return parse(reader);
+        } finally {
+            response.close();
+        }
+    }
+
+    private static String encode(final String s) throws UnsupportedEncodingException {
+        return URLEncoder.encode(s, StandardCharsets.UTF_8.name());
+    }
+
+    /**
+     * read a searchset Bundle in json, keeping Bundle.meta.versionId, the next link and the slim patients of the entries
+     *
+     * @param reader json of the Bundle
+     * @return page read from reader
+     */
+    static Page parse(final Reader reader) throws IOException {
+        final JsonReader json = new JsonReader(reader);
+        final List<Patient> patients = new ArrayList<>();
+        String versionId = null;
+        String nextUrl = null;
+
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "meta":
+                    versionId = readMeta(json, null).getVersionId();
+                    break;
+                case "link":
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        final String[] link = readLink(json);
+                        if (Constants.LINK_NEXT.equals(link[0])) {
+                            nextUrl = link[1];
+                        }
+                    }
+                    json.endArray();
+                    break;
+                case "entry":
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        final Patient patient = readEntry(json);
+                        if (Objects.nonNull(patient)) {
+                            patients.add(patient);
+                        }
+                    }
+                    json.endArray();
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+        return new Page(patients, versionId, nextUrl);
+    }
+
+    private static String[] readLink(final JsonReader json) throws IOException {
+        final String[] link = new String[2];
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "relation":
+                    link[0] = json.nextString();
+                    break;
+                case "url":
+                    link[1] = json.nextString();
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+        return link;
+    }
+
+    private static Patient readEntry(final JsonReader json) throws IOException {
+        Patient patient = null;
+        json.beginObject();
+        while (json.hasNext()) {
+            if ("resource".equals(json.nextName())) {
+                patient = readPatient(json);
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        return patient;
+    }
+
+    private static Patient readPatient(final JsonReader json) throws IOException {
+        final Patient patient = new Patient();
+        boolean isPatient = false;
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "resourceType":
+                    isPatient = "Patient".equals(json.nextString());
+                    break;
+                case "id":
+                    patient.setId(json.nextString());
+                    break;
+                case "meta":
+                    readMeta(json, patient);
+                    break;
+                case "name":
+                    // the first name is the one read, the family of the others still lets a batch tell whose search matched it
+                    json.beginArray();
+                    for (boolean first = true; json.hasNext(); first = false) {
+                        patient.addName(readName(json, first));
+                    }
+                    json.endArray();
+                    break;
+                case "birthDate":
+                    patient.setBirthDateElement(new DateType(json.nextString()));
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+        return isPatient ? patient : null;
+    }
+
+    private static Meta readMeta(final JsonReader json, final Patient patient) throws IOException {
+        final Meta meta = Objects.nonNull(patient) ? patient.getMeta() : new Meta();
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "versionId":
+                    meta.setVersionId(json.nextString());
+                    break;
+                case "lastUpdated":
+                    meta.setLastUpdatedElement(new InstantType(json.nextString()));
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+        return meta;
+    }
+
+    private static HumanName readName(final JsonReader json, final boolean withGiven) throws IOException {
+        final HumanName name = new HumanName();
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "family":
+                    name.setFamily(json.nextString());
+                    break;
+                case "given":
+                    json.beginArray();
+                    if (withGiven && json.hasNext() && json.peek() == JsonToken.STRING) {
+                        name.addGiven(json.nextString());
+                    }
+                    while (json.hasNext()) {
+                        json.skipValue();
+                    }
+                    json.endArray();
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+        return name;
+    }
+
+    /**
+     * one page of a lean search result
+     */
+    @Value
+    public static class Page {
+        List<Patient> patients;
+        /**
+         * meta.versionId of the Bundle, null if not versioned
+         */
+        String versionId;
+        /**
+         * url of the next page, null for the last page
+         */
+        String nextUrl;
+    }
+}
@@ -0,0 +1,282 @@
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.vavr.control.Try;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * end to end load of a SampleClient: lookups of names drawn from a distribution, run by concurrent workers in a closed loop,
+ * or started at a fixed rate in an open loop. reports the throughput, the latency percentiles and the cache hit rate
+ * of every report interval, and of the whole run.
+ * <p>
+ * in a closed loop a slow operation delays the next ones, which are then never measured, so the percentiles look better than
+ * what the callers would see (coordinated omission). the open loop avoids it: each operation has an intended start time,
+ * fixed by the rate, and its latency is measured from there, including the time it waited for a worker.
+ * <p>
+ * LoadGeneratorMain, with the tests, runs a load against a FhirStubServer in the same JVM, so results can be reproduced anywhere.
+ */
+@Slf4j
+public class LoadGenerator {
+    private final SampleClient client;
+    private final LoadGeneratorOptions options;
+    private final LatencyHistogram intervalLatencies;
+    private final LongAdder emptyAdder;
+    private final List<Interval> intervals;
+    private long measuredAt;
+    private long reportedAt;
+    private CacheStats measuredCacheStats;
+    private CacheStats reportedCacheStats;
+    private long measuredRequests;
+    private long reportedRequests;
+    /**
+     * sum of the intervals reported, a single histogram is recorded so that an operation is in exactly one interval and in the total
+     */
+    private LatencySnapshot measuredLatencies = LatencySnapshot.EMPTY;
+
+    /**
+     * results of one report interval
+     */
+    @Value
+    public static class Interval {
+        /**
+         * time from the start of the measure to the end of the interval
+         */
+        Duration elapsed;
+        long operations;
+        double operationsPerSecond;
+        /**
+         * latencies in millis of the operations ended in the interval
+         */
+        LatencySnapshot latencies;
+        double cacheHitRate;
+        /**
+         * number of requests sent to the server
+         */
+        long requests;
+
+        @Override
+        public String toString() {
+            return String.format("%6.1fs %8.1f op/s, hit rate: %.3f, requests: %d, millis: %s",
+                    elapsed.toMillis() / 1000d, operationsPerSecond, cacheHitRate, requests, latencies);
+        }
+    }
+
+    /**
+     * results of a whole run, warm up excluded
+     */
+    @Value
+    public static class Result {
+        Duration duration;
+        long operations;
+        double operationsPerSecond;
+        LatencySnapshot latencies;
+        double cacheHitRate;
+        long requests;
+        /**
+         * number of operations that found no patient, failed searches included
+         */
+        long emptyResults;
+        List<Interval> intervals;
+
+        @Override
+        public String toString() {
+            return String.format("%d operations in %.1fs, %.1f op/s, hit rate: %.3f, requests: %d, empty: %d, millis: %s",
+                    operations, duration.toMillis() / 1000d, operationsPerSecond, cacheHitRate, requests, emptyResults, latencies);
+        }
+    }
+
+    public LoadGenerator(@NonNull final SampleClient client, @NonNull final LoadGeneratorOptions options) {
+        this.client = client;
+        this.options = options;
+        intervalLatencies = new LatencyHistogram();
+        emptyAdder = new LongAdder();
+        intervals = new ArrayList<>();
+    }
+
+    /**
+     * run the load for options.warmUp then options.duration, and wait for the operations started meanwhile
+     *
+     * @return throughput and latencies measured after the warm up
+     */
+    public Result run() throws IOException, InterruptedException {
+        final List<Path> files = options.getWorkload() == LoadGeneratorOptions.Workload.FILE ? writeFiles() : ImmutableList.of();
+        final ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, options.getWorkers()),
+                new ThreadFactoryBuilder().setNameFormat("load-generator-%d").setDaemon(true).build());
+        final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("load-generator-report-%d").setDaemon(true).build());
+        final long startedAt = System.nanoTime();
+        final long warmUpNanos = options.getWarmUp().toNanos();
+        final long endsAt = startedAt + warmUpNanos + options.getDuration().toNanos();
+        final long intervalNanos = Math.max(1L, options.getReportInterval().toNanos());
+        try {
+            if (warmUpNanos > 0L) {
+                reporter.schedule(this::measure, warmUpNanos, TimeUnit.NANOSECONDS);
+            } else {
+                measure();
+            }
+            reporter.scheduleAtFixedRate(() -> Try.run(this::report).onFailure(e -> log.warn("failed to report", e)),
+                    warmUpNanos + intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+
+            if (options.getRatePerSecond() > 0d) {
+                runOpenLoop(workers, files, startedAt, endsAt);
+            } else {
+                runClosedLoop(workers, files, endsAt);
+            }
+            workers.shutdown();
+            // the operations started before the end are measured, however long they take
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } finally {
+            workers.shutdownNow();
+            reporter.shutdownNow();
+            reporter.awaitTermination(1L, TimeUnit.MINUTES);
+        }
+        return result();
+    }
+
+    private void runClosedLoop(final ExecutorService workers, final List<Path> files, final long endsAt) {
+        for (int i = 0; i < Math.max(1, options.getWorkers()); i++) {
+            final Random random = new Random(options.getSeed() + i);
+            workers.execute(() -> {
+                while (System.nanoTime() < endsAt) {
+                    final Object target = next(random, files);
+                    final long start = System.nanoTime();
+                    execute(target);
+                    record(System.nanoTime() - start);
+                }
+            });
+        }
+    }
+
+    /**
+     * start the operations at their intended time from this thread, drawing the names here so a seed always gives the same sequence
+     */
+    private void runOpenLoop(final ExecutorService workers, final List<Path> files, final long startedAt, final long endsAt) {
+        final Random random = new Random(options.getSeed());
+        final double periodNanos = TimeUnit.SECONDS.toNanos(1L) / options.getRatePerSecond();
+        for (long i = 0L; ; i++) {
+            final long intendedAt = startedAt + (long) (i * periodNanos);
+            if (intendedAt >= endsAt) {
+                return;
+            }
+            // parkNanos may return early
+            for (long wait = intendedAt - System.nanoTime(); wait > 0L; wait = intendedAt - System.nanoTime()) {
+                LockSupport.parkNanos(wait);
+            }
+            final Object target = next(random, files);
+            workers.execute(() -> {
+                execute(target);
+                record(System.nanoTime() - intendedAt);
+            });
+        }
+    }
+
+    private Object next(final Random random, final List<Path> files) {
+        return files.isEmpty() ? options.getNames().next(random) : files.get(random.nextInt(files.size()));
+    }
+
+    private void execute(final Object target) {
+        final int found = Try.of(() -> target instanceof Path
+                ? client.cacheLoadPatientsFromFile(target.toString()).size()
+                : client.cacheLoadPatients((String) target).size())
+                .onFailure(e -> log.warn("failed to load {}", target, e))
+                .getOrElse(0);
+        if (found == 0) {
+            emptyAdder.increment();
+        }
+    }
+
+    private void record(final long nanos) {
+        final long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        intervalLatencies.record(millis);
+    }
+
+    /**
+     * files of names drawn from the distribution, deleted on exit
+     */
+    private List<Path> writeFiles() throws IOException {
+        final Random random = new Random(options.getSeed());
+        final List<Path> files = new ArrayList<>();
+        for (int i = 0; i < Math.max(1, options.getFiles()); i++) {
+            final Path file = Files.createTempFile("load-generator-", ".txt");
+            file.toFile().deleteOnExit();
+            final List<String> names = IntStream.range(0, Math.max(1, options.getNamesPerFile()))
+                    .mapToObj(n -> options.getNames().next(random))
+                    .collect(Collectors.toList());
+            Files.write(file, names, StandardCharsets.UTF_8);
+            files.add(file);
+        }
+        return files;
+    }
+
+    /**
+     * end of the warm up, the counters start from here
+     */
+    private synchronized void measure() {
+        intervalLatencies.snapshotAndReset();
+        measuredLatencies = LatencySnapshot.EMPTY;
+        emptyAdder.reset();
+        measuredAt = System.nanoTime();
+        reportedAt = measuredAt;
+        measuredCacheStats = client.getCacheStats();
+        reportedCacheStats = measuredCacheStats;
+        measuredRequests = client.getRequestMetrics().getRequestCount();
+        reportedRequests = measuredRequests;
+    }
+
+    private synchronized void report() {
+        final long now = System.nanoTime();
+        final LatencySnapshot latencies = intervalLatencies.snapshotAndReset();
+        measuredLatencies = measuredLatencies.plus(latencies);
+        final CacheStats cacheStats = client.getCacheStats();
+        final long requests = client.getRequestMetrics().getRequestCount();
+        final Interval interval = new Interval(Duration.ofNanos(now - measuredAt), latencies.getCount(),
+                perSecond(latencies.getCount(), now - reportedAt), latencies,
+                cacheStats.minus(reportedCacheStats).hitRate(), requests - reportedRequests);
+        intervals.add(interval);
+        log.info("{}", interval);
+        reportedAt = now;
+        reportedCacheStats = cacheStats;
+        reportedRequests = requests;
+    }
+
+    private synchronized Result result() {
+        if (Objects.isNull(measuredCacheStats)) {
+            measure();
+        }
+        // the operations ended since the last report
+        if (intervalLatencies.getCount() > 0L) {
+            report();
+        }
+        final long now = System.nanoTime();
+        final LatencySnapshot latencies = measuredLatencies;
+        final Result result = new Result(Duration.ofNanos(now - measuredAt), latencies.getCount(), perSecond(latencies.getCount(), now - measuredAt),
+                latencies, client.getCacheStats().minus(measuredCacheStats).hitRate(),
+                client.getRequestMetrics().getRequestCount() - measuredRequests, emptyAdder.sum(), ImmutableList.copyOf(intervals));
+        log.info("{}", result);
+        return result;
+    }
+
+    private static double perSecond(final long count, final long nanos) {
+        return nanos <= 0L ? 0d : count * (double) TimeUnit.SECONDS.toNanos(1L) / nanos;
+    }
+}
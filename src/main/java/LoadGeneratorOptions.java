@@ -0,0 +1,82 @@
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+
+import java.time.Duration;
+
+@Value
+@Builder(toBuilder = true)
+public class LoadGeneratorOptions {
+
+    /**
+     * what one operation of the load does
+     */
+    public enum Workload {
+        /**
+         * SampleClient.cacheLoadPatients of one name drawn from the distribution
+         */
+        LAST_NAME,
+        /**
+         * SampleClient.cacheLoadPatientsFromFile of a file of namesPerFile names drawn from the distribution
+         */
+        FILE
+    }
+
+    /**
+     * last names looked up
+     */
+    @NonNull
+    NameDistribution names;
+
+    @Builder.Default
+    Workload workload = Workload.LAST_NAME;
+
+    /**
+     * number of threads running the operations, in a closed loop each starts its next operation as soon as the previous one ends
+     */
+    @Builder.Default
+    int workers = 4;
+
+    /**
+     * operations started per second whatever the time they take (open loop), 0 runs a closed loop.
+     * in an open loop the latency of an operation runs from the time it should have started, so waiting for a busy worker counts
+     */
+    @Builder.Default
+    double ratePerSecond = 0d;
+
+    /**
+     * time the load runs before being measured, letting the cache fill up
+     */
+    @Builder.Default
+    Duration warmUp = Duration.ZERO;
+
+    /**
+     * time the load is measured
+     */
+    @Builder.Default
+    Duration duration = Duration.ofSeconds(10L);
+
+    /**
+     * interval of the intermediate reports
+     */
+    @Builder.Default
+    Duration reportInterval = Duration.ofSeconds(1L);
+
+    /**
+     * number of names in each file of the FILE workload
+     */
+    @Builder.Default
+    int namesPerFile = 20;
+
+    /**
+     * number of different files the FILE workload draws from
+     */
+    @Builder.Default
+    int files = 8;
+
+    /**
+     * seed of the random sources, the same seed drawing the same names
+     */
+    @Builder.Default
+    long seed = 42L;
+}
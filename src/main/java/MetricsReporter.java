@@ -0,0 +1,128 @@
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.vavr.control.Try;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * periodic report of the requests and the cache of a SampleClient, logged and optionally appended to a CSV file.
+ * each report covers the interval since the previous one: the cumulative counters are read and the previous values subtracted,
+ * so reporting never resets what the JMX views read.
+ * <p>
+ * one CSV row per operation that got responses in the interval:
+ * time,operation,count,errors,mean_millis,p50_millis,p90_millis,p99_millis,max_millis,in_flight,bytes_received,cache_hit_rate,cache_evictions
+ */
+@Slf4j
+public class MetricsReporter implements AutoCloseable {
+    public final static String CSV_HEADER = "time,operation,count,errors,mean_millis,p50_millis,p90_millis,p99_millis,max_millis,in_flight,bytes_received,cache_hit_rate,cache_evictions";
+
+    private final SampleClient client;
+    private final Path csvPath;
+    private final ScheduledExecutorService scheduler;
+    private final Map<RequestMetrics.Operation, LatencySnapshot> previousLatencies;
+    private final Map<RequestMetrics.Operation, Long> previousErrors;
+    private long previousBytes;
+    private CacheStats previousCacheStats;
+
+    /**
+     * @param client  client to report on
+     * @param csvPath file the rows are appended to, created with a header if missing, null to only log them
+     */
+    public MetricsReporter(@NonNull final SampleClient client, final String csvPath) {
+        this.client = client;
+        this.csvPath = Objects.nonNull(csvPath) ? Paths.get(csvPath) : null;
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("sample-client-metrics-%d").setDaemon(true).build());
+        previousLatencies = new EnumMap<>(RequestMetrics.Operation.class);
+        previousErrors = new EnumMap<>(RequestMetrics.Operation.class);
+        for (final RequestMetrics.Operation operation : RequestMetrics.Operation.values()) {
+            previousLatencies.put(operation, LatencySnapshot.EMPTY);
+            previousErrors.put(operation, 0L);
+        }
+        previousCacheStats = new CacheStats(0L, 0L, 0L, 0L, 0L, 0L);
+    }
+
+    /**
+     * report every interval until closed
+     *
+     * @return this reporter
+     */
+    public MetricsReporter start(@NonNull final Duration interval) {
+        final long millis = Math.max(1L, interval.toMillis());
+        scheduler.scheduleAtFixedRate(() -> Try.run(this::report).onFailure(e -> log.warn("failed to report metrics", e)), millis, millis, TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    /**
+     * report the interval since the previous report
+     *
+     * @return CSV rows of the report, without the header
+     */
+    public synchronized List<String> report() {
+        final RequestMetrics metrics = client.getRequestMetrics();
+        final String time = Instant.now().toString();
+        final long bytes = metrics.getBytesReceived();
+        final CacheStats cacheStats = client.getCacheStats();
+        final CacheStats cacheInterval = cacheStats.minus(previousCacheStats);
+        final long inFlight = metrics.getInFlight();
+
+        final ImmutableList.Builder<String> rows = ImmutableList.builder();
+        for (final RequestMetrics.Operation operation : RequestMetrics.Operation.values()) {
+            final LatencySnapshot latencies = metrics.getLatencies(operation);
+            final LatencySnapshot interval = latencies.minus(previousLatencies.get(operation));
+            final long errors = metrics.getErrorCount(operation);
+            final long intervalErrors = errors - previousErrors.get(operation);
+            previousLatencies.put(operation, latencies);
+            previousErrors.put(operation, errors);
+            if (interval.getCount() == 0L && intervalErrors == 0L) {
+                continue;
+            }
+            log.info("{}: {}, errors: {}, in flight: {}, cache hit rate: {}", operation, interval, intervalErrors, inFlight, cacheInterval.hitRate());
+            rows.add(String.format(Locale.ROOT, "%s,%s,%d,%d,%.2f,%d,%d,%d,%d,%d,%d,%.4f,%d",
+                    time, operation.name().toLowerCase(Locale.ROOT), interval.getCount(), intervalErrors, interval.getMean(),
+                    interval.getP50(), interval.getP90(), interval.getP99(), interval.getMax(),
+                    inFlight, bytes - previousBytes, cacheInterval.hitRate(), cacheInterval.evictionCount()));
+        }
+        previousBytes = bytes;
+        previousCacheStats = cacheStats;
+
+        final List<String> report = rows.build();
+        if (Objects.nonNull(csvPath) && !report.isEmpty()) {
+            Try.run(() -> append(report)).onFailure(e -> log.warn("failed to append metrics to {}", csvPath, e));
+        }
+        return report;
+    }
+
+    private void append(final List<String> rows) throws IOException {
+        if (!Files.exists(csvPath) || Files.size(csvPath) == 0L) {
+            Files.write(csvPath, ImmutableList.of(CSV_HEADER), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        Files.write(csvPath, rows, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * stop reporting, after a last report of what was recorded since the previous one
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        Try.run(this::report).onFailure(e -> log.warn("failed to report metrics", e));
+    }
+}
@@ -0,0 +1,57 @@
+import com.google.common.collect.ImmutableList;
+import lombok.NonNull;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * distribution of the last names looked up by a LoadGenerator
+ */
+@FunctionalInterface
+public interface NameDistribution {
+
+    /**
+     * @param random random source of the caller, not shared between threads
+     * @return next last name to look up
+     */
+    String next(Random random);
+
+    /**
+     * @param names names drawn with the same probability
+     */
+    static NameDistribution uniform(@NonNull final List<String> names) {
+        final List<String> copy = ImmutableList.copyOf(names);
+        if (copy.isEmpty()) {
+            throw new IllegalArgumentException("no names to draw from");
+        }
+        return random -> copy.get(random.nextInt(copy.size()));
+    }
+
+    /**
+     * the skewed popularity of real lookups: the name of rank k (from 0) is drawn with a probability proportional to 1 / (k + 1)^exponent.
+     * with an exponent of 1 and 1000 names, the first 10 names get about 39% of the lookups and the last 500 about 9%
+     *
+     * @param names    names by decreasing popularity
+     * @param exponent skew of the distribution, 0 is uniform, around 1 for most real workloads
+     */
+    static NameDistribution zipfian(@NonNull final List<String> names, final double exponent) {
+        final List<String> copy = ImmutableList.copyOf(names);
+        if (copy.isEmpty()) {
+            throw new IllegalArgumentException("no names to draw from");
+        }
+        final double[] cumulative = new double[copy.size()];
+        double total = 0d;
+        for (int k = 0; k < cumulative.length; k++) {
+            total += 1d / Math.pow(k + 1, exponent);
+            cumulative[k] = total;
+        }
+        for (int k = 0; k < cumulative.length; k++) {
+            cumulative[k] /= total;
+        }
+        return random -> {
+            final int i = Arrays.binarySearch(cumulative, random.nextDouble());
+            return copy.get(Math.min(cumulative.length - 1, i >= 0 ? i : -i - 1));
+        };
+    }
+}
@@ -0,0 +1,383 @@
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.client.api.IHttpResponse;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterators;
+import com.google.gson.stream.JsonReader;
+import io.vavr.control.Try;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.r4.model.HumanName;
+import org.hl7.fhir.r4.model.Patient;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.time.Duration;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * bulk load of patients from FHIR Bulk Data NDJSON, one Patient resource per line: the files of an export on disk,
+ * or the output files of a server's Patient/$export operation.
+ * <p>
+ * the lines are read on the caller thread and parsed in batches of BATCH_LINES on an executor, with at most window batches in flight,
+ * so reading waits for the parsing and the lines held in memory do not grow with the files. each line is parsed on its own,
+ * a malformed line or a resource of another type is skipped without failing the load. the parsed patients are grouped
+ * by the cache key of each of their family names as the batches complete.
+ * <p>
+ * every patient of a load is held in heap until the load completes, as the entry of a last name needs the patients of all the
+ * family names it is a prefix of, and those can be anywhere in the files. {@link #drainByPrefix(NavigableMap, BiConsumer)} then
+ * hands the entries out one at a time while releasing the patients it no longer needs, so they are never held twice.
+ */
+@Slf4j
+public class NdjsonPatientLoader {
+    final static int BATCH_LINES = 1000;
+    private final static int READ_BUFFER_CHARS = 64 * 1024;
+
+    private final FhirContext fhirContext;
+    private final TimeCostInterceptor interceptor;
+    private final ExecutorService executor;
+    private final int window;
+    private final boolean slim;
+
+    /**
+     * patients of a bulk load
+     */
+    @Value
+    public static class Result {
+        /**
+         * patients by cache key of their family names, see {@link Util#lastNameKey(String)}, in the order of the files.
+         * a patient with several family names is under each of their keys
+         */
+        NavigableMap<String, List<Patient>> byKey;
+        /**
+         * number of non blank lines read
+         */
+        long lines;
+        long patients;
+        /**
+         * number of lines that could not be parsed or are not a Patient
+         */
+        long skipped;
+    }
+
+    /**
+     * the patients parsed from one batch of lines
+     */
+    @Value
+    private static class Batch {
+        Map<String, List<Patient>> byKey;
+        long patients;
+        long skipped;
+    }
+
+    /**
+     * a file or url opened as a stream of lines, closed by the caller
+     */
+    @FunctionalInterface
+    private interface LineSource {
+        Stream<String> open(String source) throws IOException;
+    }
+
+    /**
+     * @param fhirContext context providing the json parsers and the http client
+     * @param interceptor interceptor notified of every request and response, as the generic client does, and of every request left without a response
+     * @param executor    executor parsing the batches, null to parse them on the caller thread
+     * @param window      number of batches parsed at the same time at most
+     * @param slim        keep only id, meta, name and birthDate of each patient, what a search with _elements returns
+     */
+    public NdjsonPatientLoader(@NonNull final FhirContext fhirContext, @NonNull final TimeCostInterceptor interceptor,
+                               final ExecutorService executor, final int window, final boolean slim) {
+        this.fhirContext = fhirContext;
+        this.interceptor = interceptor;
+        this.executor = executor;
+        this.window = Math.max(1, window);
+        this.slim = slim;
+    }
+
+    /**
+     * @param files paths of NDJSON files or names of class path resources, see {@link Util#streamLines(String)}
+     * @return patients of all the files
+     */
+    public Result loadFiles(@NonNull final List<String> files) throws IOException {
+        return load(files, Util::streamLines);
+    }
+
+    /**
+     * @param urls urls of NDJSON files, e.g. the output of {@link #export(String, Duration, Duration)}
+     * @return patients of all the files
+     * @throws BaseServerResponseException when a file is not answered 2xx
+     */
+    public Result loadUrls(@NonNull final List<String> urls) throws IOException {
+        return load(urls, this::openUrl);
+    }
+
+    /**
+     * run a Bulk Data export of the patients of a server: kick-off of [base]/Patient/$export with Prefer: respond-async,
+     * then polls of the status url until the export completes
+     *
+     * @param serverBase   base url of the FHIR server
+     * @param pollInterval time between two polls, unless the server asks for another one with Retry-After
+     * @param timeout      time after which the export is given up
+     * @return urls of the NDJSON files of the Patient resources
+     * @throws BaseServerResponseException when the kick-off is not answered 202 or a poll neither 200 nor 202
+     */
+    public List<String> export(@NonNull final String serverBase, @NonNull final Duration pollInterval, @NonNull final Duration timeout)
+            throws IOException, InterruptedException, TimeoutException {
+        final String base = serverBase.endsWith("/") ? serverBase.substring(0, serverBase.length() - 1) : serverBase;
+        final String kickOff = base + "/Patient/$export?_type=Patient";
+        log.info("export, url: {}", kickOff);
+
+        final long deadline = System.nanoTime() + timeout.toNanos();
+        final String status;
+        final IHttpResponse accepted = FhirClients.get(fhirContext, interceptor, kickOff, Constants.CT_FHIR_JSON_NEW,
+                ImmutableMap.of(Constants.HEADER_PREFER, Constants.HEADER_PREFER_RESPOND_ASYNC));
+        try {
+            if (accepted.getStatus() != 202) {
+                throw BaseServerResponseException.newInstance(accepted.getStatus(), accepted.getStatusInfo());
+            }
+            status = firstHeader(accepted, Constants.HEADER_CONTENT_LOCATION);
+            if (Objects.isNull(status)) {
+                throw new IOException("no " + Constants.HEADER_CONTENT_LOCATION + " in the answer to " + kickOff);
+            }
+        } finally {
+            accepted.close();
+        }
+
+        while (true) {
+            final Duration wait;
+            final IHttpResponse poll = FhirClients.get(fhirContext, interceptor, status, Constants.CT_JSON, ImmutableMap.of());
+            try {
+                if (poll.getStatus() == 200) {
+                    try (final Reader reader = poll.createReader()) {
+                        return readManifest(reader);
+                    }
+                }
+                if (poll.getStatus() != 202) {
+                    throw BaseServerResponseException.newInstance(poll.getStatus(), poll.getStatusInfo());
+                }
+                log.info("export in progress: {}", firstHeader(poll, Constants.HEADER_X_PROGRESS));
+                wait = Try.of(() -> Duration.ofSeconds(Long.parseLong(firstHeader(poll, Constants.HEADER_RETRY_AFTER).trim()))).getOrElse(pollInterval);
+            } finally {
+                poll.close();
+            }
+            if (System.nanoTime() + wait.toNanos() - deadline > 0L) {
+                throw new TimeoutException("export not complete after " + timeout + ": " + status);
+            }
+            TimeUnit.NANOSECONDS.sleep(wait.toNanos());
+        }
+    }
+
+    /**
+     * close the patients of each cache key over the keys it is a prefix of, as a search of family matches the family names
+     * starting with it: the patients of "smith" then include those of "smithson"
+     *
+     * @param byKey patients by cache key, see {@link Result#getByKey()}
+     * @return patients sorted by first name for each key of byKey, each patient once
+     */
+    public static Map<String, List<Patient>> byPrefix(@NonNull final Map<String, List<Patient>> byKey) {
+        final Map<String, List<Patient>> byPrefix = new TreeMap<>();
+        drainByPrefix(new TreeMap<>(byKey), byPrefix::put);
+        return byPrefix;
+    }
+
+    /**
+     * {@link #byPrefix(Map)} handing out the patients of each key as soon as they are complete, in descending key order,
+     * and removing the keys from byKey as it goes. the patients of a key are kept only while a key still to come is a prefix of it
+     *
+     * @param byKey patients by cache key, emptied
+     * @param sink  receives each key with its patients sorted by first name, each patient once
+     */
+    public static void drainByPrefix(@NonNull final NavigableMap<String, List<Patient>> byKey, @NonNull final BiConsumer<String, List<Patient>> sink) {
+        // patients of the keys handed out that a key still in byKey is a prefix of, the last handed out on top
+        final Deque<Map.Entry<String, List<Patient>>> open = new ArrayDeque<>();
+        for (Map.Entry<String, List<Patient>> last = byKey.pollLastEntry(); Objects.nonNull(last); last = byKey.pollLastEntry()) {
+            final String key = last.getKey();
+            final Set<Patient> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+            final List<Patient> found = new ArrayList<>();
+            last.getValue().stream().filter(seen::add).forEach(found::add);
+            // the keys key is a prefix of directly follow it, so they are the last handed out
+            while (!open.isEmpty() && open.peek().getKey().startsWith(key)) {
+                open.pop().getValue().stream().filter(seen::add).forEach(found::add);
+            }
+            final List<Patient> patients = PatientSortKey.sortByFirstName(found);
+            if (hasPrefixIn(key, byKey)) {
+                open.push(new AbstractMap.SimpleImmutableEntry<>(key, patients));
+            }
+            sink.accept(key, patients);
+        }
+    }
+
+    private static boolean hasPrefixIn(final String key, final NavigableMap<String, ?> keys) {
+        for (int end = key.length() - 1; end > 0; end--) {
+            if (keys.containsKey(key.substring(0, end))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Result load(final List<String> sources, final LineSource lineSource) throws IOException {
+        final NavigableMap<String, List<Patient>> byKey = new TreeMap<>();
+        final Deque<CompletableFuture<Batch>> pending = new ArrayDeque<>();
+        final long[] counts = new long[3];
+        for (final String source : sources) {
+            log.info("load, source: {}", source);
+            try (final Stream<String> lines = lineSource.open(source)) {
+                final Iterator<List<String>> batches = Iterators.partition(lines.filter(line -> !line.trim().isEmpty()).iterator(), BATCH_LINES);
+                while (batches.hasNext()) {
+                    final List<String> batch = batches.next();
+                    counts[0] += batch.size();
+                    if (Objects.isNull(executor)) {
+                        merge(parse(batch), byKey, counts);
+                        continue;
+                    }
+                    pending.add(CompletableFuture.supplyAsync(() -> parse(batch), executor));
+                    if (pending.size() >= window) {
+                        merge(pending.poll().join(), byKey, counts);
+                    }
+                }
+            }
+        }
+        while (!pending.isEmpty()) {
+            merge(pending.poll().join(), byKey, counts);
+        }
+        return new Result(byKey, counts[0], counts[1], counts[2]);
+    }
+
+    private static void merge(final Batch batch, final Map<String, List<Patient>> byKey, final long[] counts) {
+        batch.getByKey().forEach((key, patients) -> byKey.computeIfAbsent(key, k -> new ArrayList<>()).addAll(patients));
+        counts[1] += batch.getPatients();
+        counts[2] += batch.getSkipped();
+    }
+
+    /**
+     * parse a batch of lines with a parser of its own, parsers are not thread safe
+     */
+    private Batch parse(final List<String> lines) {
+        final IParser parser = fhirContext.newJsonParser();
+        final Map<String, List<Patient>> byKey = new LinkedHashMap<>();
+        long patients = 0L;
+        long skipped = 0L;
+        for (final String line : lines) {
+            final Patient patient = Try.of(() -> parser.parseResource(Patient.class, line))
+                    .onFailure(e -> log.debug("skipped line: {}", e.getMessage()))
+                    .getOrNull();
+            if (Objects.isNull(patient)) {
+                skipped++;
+                continue;
+            }
+            patients++;
+            final Patient kept = slim ? subset(patient) : patient;
+            // the same key once even if two names of the patient share it
+            final Set<String> keys = patient.getName().stream()
+                    .filter(HumanName::hasFamily)
+                    .map(name -> Util.lastNameKey(name.getFamily()))
+                    .filter(key -> !key.isEmpty())
+                    .collect(Collectors.toCollection(LinkedHashSet::new));
+            keys.forEach(key -> byKey.computeIfAbsent(key, k -> new ArrayList<>()).add(kept));
+        }
+        return new Batch(byKey, patients, skipped);
+    }
+
+    private static Patient subset(final Patient patient) {
+        final Patient subset = new Patient();
+        subset.setIdElement(patient.getIdElement());
+        subset.setMeta(patient.getMeta());
+        subset.setName(patient.getName());
+        subset.setBirthDateElement(patient.getBirthDateElement());
+        return subset;
+    }
+
+    /**
+     * @return the urls of the Patient files of a completed export's manifest
+     */
+    static List<String> readManifest(final Reader reader) throws IOException {
+        final JsonReader json = new JsonReader(reader);
+        final List<String> urls = new ArrayList<>();
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "output":
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        final String[] output = readOutput(json);
+                        if ("Patient".equals(output[0]) && Objects.nonNull(output[1])) {
+                            urls.add(output[1]);
+                        }
+                    }
+                    json.endArray();
+                    break;
+                case "error":
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        final String[] error = readOutput(json);
+                        log.warn("export error file: {}", error[1]);
+                    }
+                    json.endArray();
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+        return urls;
+    }
+
+    private static String[] readOutput(final JsonReader json) throws IOException {
+        final String[] output = new String[2];
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "type":
+                    output[0] = json.nextString();
+                    break;
+                case "url":
+                    output[1] = json.nextString();
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+        return output;
+    }
+
+    private Stream<String> openUrl(final String url) throws IOException {
+        final IHttpResponse response = FhirClients.get(fhirContext, interceptor, url, Constants.CT_FHIR_NDJSON, ImmutableMap.of());
+        final BufferedReader reader = new BufferedReader(response.createReader(), READ_BUFFER_CHARS);
+        return reader.lines().onClose(() -> {
+            Try.run(reader::close);
+            response.close();
+        });
+    }
+
+    private static String firstHeader(final IHttpResponse response, final String name) {
+        final List<String> values = response.getHeaders(name);
+        return Objects.nonNull(values) && !values.isEmpty() ? values.get(0) : null;
+    }
+}
@@ -0,0 +1,90 @@
+import lombok.NonNull;
+
+import java.time.Duration;
+
+/**
+ * JMX view of the requests of one operation: cumulative counts, and latencies over a recent window.
+ * the window rolls when read at least window after the previous roll, subtracting the cumulative histogram from the one taken then,
+ * so the recording side keeps a single histogram and scrapes take no lock it uses.
+ */
+public class OperationMetrics implements OperationMetricsMBean {
+    private final RequestMetrics metrics;
+    private final RequestMetrics.Operation operation;
+    private final long windowNanos;
+    private LatencySnapshot rolledAt;
+    private long rolledAtNanos;
+    private LatencySnapshot window;
+    private boolean rolled;
+
+    /**
+     * @param window shortest time the latencies are computed over
+     */
+    public OperationMetrics(@NonNull final RequestMetrics metrics, @NonNull final RequestMetrics.Operation operation, @NonNull final Duration window) {
+        this.metrics = metrics;
+        this.operation = operation;
+        windowNanos = window.toNanos();
+        rolledAt = LatencySnapshot.EMPTY;
+        rolledAtNanos = System.nanoTime();
+        this.window = LatencySnapshot.EMPTY;
+    }
+
+    /**
+     * @return latencies recorded between the two last rolls, or since the view was created until a first window is complete
+     */
+    private synchronized LatencySnapshot window() {
+        final long now = System.nanoTime();
+        if (now - rolledAtNanos >= windowNanos) {
+            final LatencySnapshot latest = metrics.getLatencies(operation);
+            window = latest.minus(rolledAt);
+            rolledAt = latest;
+            rolledAtNanos = now;
+            rolled = true;
+        }
+        return rolled ? window : metrics.getLatencies(operation).minus(rolledAt);
+    }
+
+    @Override
+    public long getCount() {
+        return metrics.getCount(operation);
+    }
+
+    @Override
+    public long getErrorCount() {
+        return metrics.getErrorCount(operation);
+    }
+
+    @Override
+    public long getWindowCount() {
+        return window().getCount();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return window().getMean();
+    }
+
+    @Override
+    public long getP50Millis() {
+        return window().getP50();
+    }
+
+    @Override
+    public long getP90Millis() {
+        return window().getP90();
+    }
+
+    @Override
+    public long getP99Millis() {
+        return window().getP99();
+    }
+
+    @Override
+    public long getP999Millis() {
+        return window().getP999();
+    }
+
+    @Override
+    public long getMaxMillis() {
+        return window().getMax();
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * JMX view of the requests of one operation of a SampleClient, see {@link OperationMetrics}
+ */
+public interface OperationMetricsMBean {
+    /**
+     * @return number of responses since the client was created
+     */
+    long getCount();
+
+    /**
+     * @return number of 4xx and 5xx responses since the client was created
+     */
+    long getErrorCount();
+
+    /**
+     * @return number of responses of the last window, the one the latencies are computed over
+     */
+    long getWindowCount();
+
+    double getMeanMillis();
+
+    long getP50Millis();
+
+    long getP90Millis();
+
+    long getP99Millis();
+
+    long getP999Millis();
+
+    long getMaxMillis();
+}
@@ -0,0 +1,321 @@
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import io.vavr.control.Try;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Patient;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+/**
+ * second level cache of patient search results in a local file, surviving restarts of the client.
+ * results are appended to a single segment file as records of
+ * [int payload length][int crc32 of payload][payload: int key length, key, long expiry millis, json Bundle of the patients],
+ * the latest record of every key is indexed in memory and read back through a memory mapping of the file.
+ * records are written through the file channel, the mapping is only renewed once the file has doubled since it was mapped,
+ * and the records appended in between are read through the channel.
+ * the file is rewritten with the live records only once it grows beyond maxBytes, and never grows beyond 2 GiB,
+ * the most a mapping can address.
+ * <p>
+ * all clients using the same file in a JVM share one instance through {@link #open(Path, long)},
+ * appends and compactions are serialized on it while reads go through the mapping without locking.
+ */
+@Slf4j
+public class PatientDiskCache {
+    private final static Map<Path, PatientDiskCache> OPEN = new ConcurrentHashMap<>();
+    private final static FhirContext FHIR_CONTEXT = FhirClients.context();
+    private final static int HEADER_BYTES = Integer.BYTES * 2;
+    private final static long MAX_SEGMENT_BYTES = Integer.MAX_VALUE;
+
+    private final Path path;
+    private final long maxBytes;
+    private volatile Segment segment;
+
+    private PatientDiskCache(final Path path, final long maxBytes) throws IOException {
+        this.path = path;
+        this.maxBytes = Math.min(maxBytes, MAX_SEGMENT_BYTES);
+        this.segment = Segment.open(path);
+    }
+
+    /**
+     * open the cache file at path, or return the instance already opened for it in this JVM
+     *
+     * @param path     cache file, created if it does not exist
+     * @param maxBytes size of the file above which it is compacted, at most 2 GiB
+     * @return cache stored in path
+     * @throws IllegalArgumentException if path is already open with another maxBytes
+     */
+    public static PatientDiskCache open(@NonNull final Path path, final long maxBytes) {
+        final PatientDiskCache cache = OPEN.computeIfAbsent(path.toAbsolutePath().normalize(), p -> Try.of(() -> new PatientDiskCache(p, maxBytes)).get());
+        if (cache.maxBytes != Math.min(maxBytes, MAX_SEGMENT_BYTES)) {
+            throw new IllegalArgumentException(String.format("%s is already open with maxBytes %d, not %d", cache.path, cache.maxBytes, maxBytes));
+        }
+        return cache;
+    }
+
+    /**
+     * open the cache file at path as a new JVM would, without sharing the instance
+     */
+    static PatientDiskCache openUnshared(@NonNull final Path path, final long maxBytes) throws IOException {
+        return new PatientDiskCache(path.toAbsolutePath().normalize(), maxBytes);
+    }
+
+    public static String normalizeKey(final String lastName) {
+        return Util.normalizeSearchString(lastName);
+    }
+
+    /**
+     * @param lastName last name of the search
+     * @return the stored result of lastName if it is not expired
+     */
+    public Optional<PatientSearchResult> get(final String lastName) {
+        final String key = normalizeKey(lastName);
+        final Segment current = segment;
+        final Entry entry = current.index.get(key);
+        if (Objects.isNull(entry) || entry.expiresAt <= System.currentTimeMillis()) {
+            return Optional.empty();
+        }
+        return Try.of(() -> current.read(entry))
+                .map(PatientDiskCache::decode)
+                .onFailure(t -> log.error("unable to read cached patients of last name: {} from: {}", lastName, path, t))
+                .toJavaOptional();
+    }
+
+    /**
+     * store the result of lastName for timeToLive, replacing any stored result of the same last name
+     *
+     * @param lastName   last name of the search
+     * @param result     result to store
+     * @param timeToLive time the stored result stays valid
+     */
+    public synchronized void put(final String lastName, @NonNull final PatientSearchResult result, @NonNull final Duration timeToLive) {
+        final String key = normalizeKey(lastName);
+        final long expiresAt = System.currentTimeMillis() + timeToLive.toMillis();
+        Try.run(() -> {
+            final byte[] value = encode(result);
+            if (!segment.fits(key, value)) {
+                compact();
+            }
+            segment.append(key, expiresAt, value);
+            if (segment.size() > maxBytes) {
+                compact();
+            }
+        }).onFailure(t -> log.error("unable to cache patients of last name: {} into: {}", lastName, path, t));
+    }
+
+    public int size() {
+        return segment.index.size();
+    }
+
+    public long sizeInBytes() {
+        return segment.size();
+    }
+
+    /**
+     * rewrite the file with the unexpired records only, keeping the records expiring last that fit into half of maxBytes
+     */
+    synchronized void compact() throws IOException {
+        final long now = System.currentTimeMillis();
+        final Segment current = segment;
+        final List<Map.Entry<String, Entry>> live = current.index.entrySet().stream()
+                .filter(e -> e.getValue().expiresAt > now)
+                .sorted(Comparator.<Map.Entry<String, Entry>>comparingLong(e -> e.getValue().expiresAt).reversed())
+                .collect(Collectors.toList());
+
+        final Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+        Files.deleteIfExists(compacted);
+        final Segment next = Segment.open(compacted);
+        for (final Map.Entry<String, Entry> e : live) {
+            if (next.size() + e.getValue().length + HEADER_BYTES > maxBytes / 2) {
+                // too large to fit next to the records kept so far, smaller ones expiring earlier still may
+                continue;
+            }
+            next.appendRecord(e.getKey(), e.getValue().expiresAt, current.readRecord(e.getValue()));
+        }
+        next.channel.close();
+        Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        segment = Segment.open(path);
+        current.channel.close();
+        log.info("compact, path: {}, entries: {} -> {}, bytes: {}", path, current.index.size(), segment.index.size(), segment.size());
+    }
+
+    private static byte[] encode(final PatientSearchResult result) {
+        final Bundle bundle = new Bundle().setType(Bundle.BundleType.COLLECTION);
+        if (Objects.nonNull(result.getVersionId())) {
+            bundle.getMeta().setVersionId(result.getVersionId());
+        }
+        result.toPatients().forEach(p -> bundle.addEntry().setResource(p));
+        return parser().encodeResourceToString(bundle).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static PatientSearchResult decode(final byte[] json) {
+        final Bundle bundle = parser().parseResource(Bundle.class, new String(json, StandardCharsets.UTF_8));
+        final List<Patient> patients = bundle.getEntry().stream()
+                .filter(c -> c.getResource() instanceof Patient)
+                .map(c -> (Patient) c.getResource())
+                .collect(Collectors.toList());
+        return PatientSearchResult.of(bundle, patients);
+    }
+
+    private static IParser parser() {
+        return FHIR_CONTEXT.newJsonParser();
+    }
+
+    private final static class Entry {
+        private final long offset;
+        private final int length;
+        private final long expiresAt;
+
+        private Entry(final long offset, final int length, final long expiresAt) {
+            this.offset = offset;
+            this.length = length;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * one generation of the cache file with its index, replaced as a whole by compaction
+     */
+    private final static class Segment {
+        private final FileChannel channel;
+        private final Map<String, Entry> index = new ConcurrentHashMap<>();
+        private volatile MappedByteBuffer mapped;
+        private volatile long size;
+
+        private Segment(final FileChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * open the file and index its records, a torn record at the end of the file left by a crash is cut off,
+         * as is anything beyond 2 GiB
+         */
+        private static Segment open(final Path path) throws IOException {
+            if (Objects.nonNull(path.getParent())) {
+                Files.createDirectories(path.getParent());
+            }
+            final Segment segment = new Segment(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+            final long fileSize = Math.min(segment.channel.size(), MAX_SEGMENT_BYTES);
+            segment.size = fileSize;
+            segment.remap();
+            long offset = 0L;
+            while (offset + HEADER_BYTES <= fileSize) {
+                final int length = segment.mapped.getInt((int) offset);
+                if (length <= 0 || offset + HEADER_BYTES + length > fileSize) {
+                    break;
+                }
+                final byte[] payload = new byte[length];
+                final ByteBuffer view = segment.mapped.duplicate();
+                view.position((int) offset + HEADER_BYTES);
+                view.get(payload);
+                if (crc(payload) != segment.mapped.getInt((int) offset + Integer.BYTES)) {
+                    break;
+                }
+                final ByteBuffer record = ByteBuffer.wrap(payload);
+                final byte[] key = new byte[record.getInt()];
+                record.get(key);
+                segment.index.put(new String(key, StandardCharsets.UTF_8), new Entry(offset, length, record.getLong()));
+                offset += HEADER_BYTES + length;
+            }
+            if (offset < segment.channel.size()) {
+                log.warn("open, path: {}, dropping {} bytes of a torn record", path, segment.channel.size() - offset);
+                segment.channel.truncate(offset);
+                segment.size = offset;
+                segment.remap();
+            }
+            return segment;
+        }
+
+        private static int crc(final byte[] payload) {
+            final CRC32 crc = new CRC32();
+            crc.update(payload, 0, payload.length);
+            return (int) crc.getValue();
+        }
+
+        private long size() {
+            return size;
+        }
+
+        private void remap() throws IOException {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+        }
+
+        /**
+         * @return whether a record of key and value can be appended without the segment growing beyond 2 GiB
+         */
+        private boolean fits(final String key, final byte[] value) {
+            return size + HEADER_BYTES + Integer.BYTES + key.getBytes(StandardCharsets.UTF_8).length + Long.BYTES + value.length <= MAX_SEGMENT_BYTES;
+        }
+
+        private void append(final String key, final long expiresAt, final byte[] value) throws IOException {
+            final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            final ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + keyBytes.length + Long.BYTES + value.length);
+            record.putInt(keyBytes.length).put(keyBytes).putLong(expiresAt).put(value);
+            appendRecord(key, expiresAt, record.array());
+        }
+
+        private void appendRecord(final String key, final long expiresAt, final byte[] payload) throws IOException {
+            final long offset = size;
+            if (offset + HEADER_BYTES + payload.length > MAX_SEGMENT_BYTES) {
+                throw new IOException(String.format("a record of %d bytes does not fit after %d bytes into a segment of at most %d", payload.length, offset, MAX_SEGMENT_BYTES));
+            }
+            final ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+            buffer.putInt(payload.length).putInt(crc(payload)).put(payload).flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, offset + buffer.position());
+            }
+            size = offset + buffer.limit();
+            // a mapping is only released when collected, so renew it once per doubling rather than on every append
+            if (size > 2L * mapped.capacity()) {
+                remap();
+            }
+            index.put(key, new Entry(offset, payload.length, expiresAt));
+        }
+
+        private byte[] readRecord(final Entry entry) throws IOException {
+            final byte[] payload = new byte[entry.length];
+            final MappedByteBuffer current = mapped;
+            if (entry.offset + HEADER_BYTES + entry.length <= current.capacity()) {
+                final ByteBuffer view = current.duplicate();
+                view.position((int) entry.offset + HEADER_BYTES);
+                view.get(payload);
+                return payload;
+            }
+            // appended since the file was last mapped
+            final ByteBuffer buffer = ByteBuffer.wrap(payload);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, entry.offset + HEADER_BYTES + buffer.position()) < 0) {
+                    throw new EOFException("record at " + entry.offset + " is cut short");
+                }
+            }
+            return payload;
+        }
+
+        private byte[] read(final Entry entry) throws IOException {
+            final ByteBuffer record = ByteBuffer.wrap(readRecord(entry));
+            record.position(Integer.BYTES + record.getInt() + Long.BYTES);
+            final byte[] value = new byte[record.remaining()];
+            record.get(value);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+import lombok.NonNull;
+import org.hl7.fhir.r4.model.Patient;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * secondary index of the patients held by a cache of search results, answering queries of another shape than the searches
+ * without going to the server: first or last name prefix, and birth date range.
+ * <p>
+ * the index is made of one immutable segment per cached search result, built when the result is put and dropped when it is removed,
+ * so it follows the loads, refreshes and evictions of the cache without any global rebuild.
+ * a segment sorts the normalized names and the birth dates of its patients once, the dates packed with the patient position in a long[],
+ * and a query binary searches every segment. names are matched ignoring case and accents, as the server would.
+ */
+public class PatientIndex {
+    /**
+     * rough heap size of the index entries of one patient: its normalized first and last names, their positions and its birth date
+     */
+    private final static int ENTRY_BYTES = 160;
+    /**
+     * rough heap size of the summary of a patient of a result that is not projected, which the segment holds on its own
+     */
+    private final static int SUMMARY_BYTES = 192;
+    private final static int SEGMENT_BYTES = 128;
+
+    private final ConcurrentMap<String, Segment> segments;
+
+    public PatientIndex() {
+        segments = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * index the patients of result under key, replacing those indexed under key before. an empty result only removes them
+     */
+    public void put(@NonNull final String key, @NonNull final PatientSearchResult result) {
+        final List<PatientSummary> summaries = result.getSummaries();
+        if (summaries.isEmpty()) {
+            segments.remove(key);
+        } else {
+            segments.put(key, new Segment(result, summaries));
+        }
+    }
+
+    /**
+     * estimate the heap taken by the segment of result once put, to be added to the weight of its cache entry.
+     * computed from the number of patients only, so it is cheap and the same on every call for the same result
+     *
+     * @return estimated bytes, 0 for an empty result, which is not indexed
+     */
+    public static int estimateBytes(@NonNull final PatientSearchResult result) {
+        final int patients = result.isProjected() ? result.getSummaries().size() : result.getPatients().size();
+        if (patients == 0) {
+            return 0;
+        }
+        final long bytes = SEGMENT_BYTES + (long) patients * (result.isProjected() ? ENTRY_BYTES : ENTRY_BYTES + SUMMARY_BYTES);
+        return (int) Math.min(Integer.MAX_VALUE, bytes);
+    }
+
+    /**
+     * remove the patients indexed under key, only if they are the ones of result, a newer result may have replaced them meanwhile
+     */
+    public void remove(@NonNull final String key, final PatientSearchResult result) {
+        segments.computeIfPresent(key, (k, segment) -> segment.result == result ? null : segment);
+    }
+
+    public void clear() {
+        segments.clear();
+    }
+
+    /**
+     * @return number of search results indexed
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * @return number of patients indexed, a patient found by several searches being counted once for each
+     */
+    public int size() {
+        return segments.values().stream().mapToInt(segment -> segment.summaries.size()).sum();
+    }
+
+    /**
+     * @param prefix start of the first name, matched ignoring case and accents, an empty prefix matching every patient with a first name
+     * @return indexed patients whose p.name[0].given[0] starts with prefix, sorted by last name, first name and birth date
+     */
+    public List<Patient> findByFirstNamePrefix(@NonNull final String prefix) {
+        final String normalized = Util.normalizeSearchString(prefix);
+        return collect(segment -> segment.firstNames.find(normalized));
+    }
+
+    /**
+     * @param prefix start of the last name, matched ignoring case and accents
+     * @return indexed patients whose p.name[0].family starts with prefix, sorted by last name, first name and birth date
+     */
+    public List<Patient> findByLastNamePrefix(@NonNull final String prefix) {
+        final String normalized = Util.normalizeSearchString(prefix);
+        return collect(segment -> segment.lastNames.find(normalized));
+    }
+
+    /**
+     * @param from first birth date, as days since 1970-01-01
+     * @param to   last birth date, included
+     * @return indexed patients born between from and to, sorted by last name, first name and birth date
+     */
+    public List<Patient> findBornBetween(final int from, final int to) {
+        return collect(segment -> segment.findBornBetween(from, to));
+    }
+
+    /**
+     * @return indexed patients born in year, sorted by last name, first name and birth date
+     */
+    public List<Patient> findBornIn(final int year) {
+        return findBornBetween((int) LocalDate.of(year, 1, 1).toEpochDay(), (int) LocalDate.of(year, 12, 31).toEpochDay());
+    }
+
+    /**
+     * run a query on every segment, a patient found in several segments being kept once
+     */
+    private List<Patient> collect(final Function<Segment, List<Patient>> query) {
+        final Map<Object, Patient> found = new LinkedHashMap<>();
+        for (final Segment segment : segments.values()) {
+            for (final Patient p : query.apply(segment)) {
+                final String id = p.hasIdElement() ? p.getIdElement().getIdPart() : null;
+                found.putIfAbsent(Objects.nonNull(id) ? id : new Object(), p);
+            }
+        }
+        return PatientSortKey.sortByLastName(found.values());
+    }
+
+    /**
+     * the patients of one search result, with their positions sorted by first name, last name and birth date
+     */
+    private static class Segment {
+        private final PatientSearchResult result;
+        private final List<PatientSummary> summaries;
+        private final SortedNames firstNames;
+        private final SortedNames lastNames;
+        /**
+         * birth date in the high 32 bits, position in the low ones, sorted, patients without a birth date left out
+         */
+        private final long[] birthDates;
+
+        private Segment(final PatientSearchResult result, final List<PatientSummary> summaries) {
+            this.result = result;
+            this.summaries = summaries;
+            firstNames = new SortedNames(summaries, PatientSummary::getFirstName);
+            lastNames = new SortedNames(summaries, PatientSummary::getLastName);
+            int count = 0;
+            final long[] dates = new long[summaries.size()];
+            for (int i = 0; i < summaries.size(); i++) {
+                final PatientSummary summary = summaries.get(i);
+                if (summary.hasBirthDate()) {
+                    dates[count++] = ((long) summary.getBirthDate() << 32) | i;
+                }
+            }
+            birthDates = Arrays.copyOf(dates, count);
+            Arrays.sort(birthDates);
+        }
+
+        private List<Patient> findBornBetween(final int from, final int to) {
+            if (from > to) {
+                return new ArrayList<>();
+            }
+            final int start = lowerBound(birthDates, (long) from << 32);
+            final List<Patient> found = new ArrayList<>();
+            for (int i = start; i < birthDates.length && (int) (birthDates[i] >> 32) <= to; i++) {
+                found.add(patient((int) birthDates[i]));
+            }
+            return found;
+        }
+
+        /**
+         * @return the full patient at position, or one rebuilt from its summary if the result is projected
+         */
+        private Patient patient(final int position) {
+            return result.isProjected() ? summaries.get(position).toPatient() : result.getPatients().get(position);
+        }
+
+        /**
+         * normalized names of the patients, sorted, with the position of each in the result
+         */
+        private class SortedNames {
+            private final String[] names;
+            private final int[] positions;
+
+            private SortedNames(final List<PatientSummary> summaries, final Function<PatientSummary, String> name) {
+                final String[] normalized = summaries.stream().map(name).map(Util::normalizeSearchString).toArray(String[]::new);
+                final Integer[] order = new Integer[normalized.length];
+                Arrays.setAll(order, i -> i);
+                Arrays.sort(order, Comparator.comparing(i -> normalized[i]));
+                names = new String[order.length];
+                positions = new int[order.length];
+                for (int i = 0; i < order.length; i++) {
+                    names[i] = normalized[order[i]];
+                    positions[i] = order[i];
+                }
+            }
+
+            private List<Patient> find(final String prefix) {
+                final List<Patient> found = new ArrayList<>();
+                for (int i = lowerBound(names, prefix); i < names.length && names[i].startsWith(prefix); i++) {
+                    // an empty prefix matches the patients with a name only
+                    if (!names[i].isEmpty()) {
+                        found.add(patient(positions[i]));
+                    }
+                }
+                return found;
+            }
+        }
+    }
+
+    private static int lowerBound(final long[] values, final long value) {
+        final int i = Arrays.binarySearch(values, value);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    /**
+     * @return index of the first of the sorted values not less than value
+     */
+    private static int lowerBound(final String[] values, final String value) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (values[mid].compareTo(value) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,120 @@
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.instance.model.api.IBaseBundle;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Patient;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * iterate the Patient entries of a search result page by page, following Bundle.link[next] lazily.
+ * up to prefetchPages pages after the current one are loaded in the background while the current page is consumed,
+ * so at most prefetchPages + 1 pages are held in memory at any time.
+ */
+@Slf4j
+public class PatientPageIterator implements Iterator<Patient>, AutoCloseable {
+    private final UnaryOperator<Bundle> pageLoader;
+    private final Executor executor;
+    private final int prefetchPages;
+    private final Deque<CompletableFuture<Bundle>> ahead;
+    private Iterator<Bundle.BundleEntryComponent> entries;
+    private Bundle current;
+    private Patient next;
+
+    /**
+     * @param pageLoader    loader of the page linked as next from a given page
+     * @param firstPage     first page of the search result
+     * @param executor      executor loading the next pages in the background
+     * @param prefetchPages number of pages loaded ahead of the current one, 0 to load each page only when it is reached
+     */
+    public PatientPageIterator(@NonNull final UnaryOperator<Bundle> pageLoader, final Bundle firstPage, @NonNull final Executor executor, final int prefetchPages) {
+        this.pageLoader = pageLoader;
+        this.executor = executor;
+        this.prefetchPages = Math.max(0, prefetchPages);
+        this.ahead = new ArrayDeque<>();
+        this.current = firstPage;
+        this.entries = Objects.nonNull(firstPage) ? firstPage.getEntry().iterator() : null;
+        prefetch();
+    }
+
+    public static Stream<Patient> stream(@NonNull final IGenericClient client, final Bundle firstPage, @NonNull final Executor executor, final int prefetchPages) {
+        return stream(page -> client.loadPage().next(page).execute(), firstPage, executor, prefetchPages);
+    }
+
+    public static Stream<Patient> stream(@NonNull final UnaryOperator<Bundle> pageLoader, final Bundle firstPage, @NonNull final Executor executor, final int prefetchPages) {
+        final PatientPageIterator iterator = new PatientPageIterator(pageLoader, firstPage, executor, prefetchPages);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(iterator::close);
+    }
+
+    private Bundle loadNext(final Bundle page) {
+        if (Objects.isNull(page) || Objects.isNull(page.getLink(IBaseBundle.LINK_NEXT))) {
+            return null;
+        }
+        log.info("loadNext, url: {}", page.getLink(IBaseBundle.LINK_NEXT).getUrl());
+        return pageLoader.apply(page);
+    }
+
+    private void prefetch() {
+        while (ahead.size() < prefetchPages) {
+            final CompletableFuture<Bundle> last = ahead.isEmpty() ? CompletableFuture.completedFuture(current) : ahead.peekLast();
+            if (last.isDone() && Objects.isNull(last.join())) {
+                return;
+            }
+            ahead.addLast(last.thenApplyAsync(this::loadNext, executor));
+        }
+    }
+
+    private Bundle nextPage() {
+        final Bundle page = ahead.isEmpty() ? loadNext(current) : ahead.pollFirst().join();
+        current = page;
+        prefetch();
+        return page;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (Objects.isNull(next) && Objects.nonNull(entries)) {
+            if (entries.hasNext()) {
+                final Bundle.BundleEntryComponent entry = entries.next();
+                if (Objects.nonNull(entry) && entry.getResource() instanceof Patient) {
+                    next = (Patient) entry.getResource();
+                }
+            } else {
+                final Bundle page = nextPage();
+                entries = Objects.nonNull(page) ? page.getEntry().iterator() : null;
+            }
+        }
+        return Objects.nonNull(next);
+    }
+
+    @Override
+    public Patient next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final Patient patient = next;
+        next = null;
+        return patient;
+    }
+
+    @Override
+    public void close() {
+        ahead.forEach(f -> f.cancel(false));
+        ahead.clear();
+        entries = null;
+        current = null;
+    }
+}
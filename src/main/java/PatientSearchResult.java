@@ -0,0 +1,106 @@
+import com.google.common.collect.ImmutableList;
+import lombok.Value;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Patient;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * patients found for one last name, together with the version information used to revalidate them with a conditional search.
+ * a projected result keeps only the summaries of the patients, computed once when it is projected.
+ */
+@Value
+public class PatientSearchResult {
+    public final static PatientSearchResult EMPTY = new PatientSearchResult(ImmutableList.of(), ImmutableList.of(), null, null);
+    /**
+     * rough heap size of a parsed Patient holding an id, a meta, a name and a birth date, its narrative and other elements not counted
+     */
+    public final static int PATIENT_BYTES = 2048;
+    private final static int SUMMARY_BYTES = 128;
+    private final static int RESULT_BYTES = 128;
+
+    /**
+     * full patients, empty if the result is projected
+     */
+    List<Patient> patients;
+    /**
+     * summaries of the patients, in the same order, empty unless the result is projected
+     */
+    List<PatientSummary> summaries;
+    /**
+     * meta.versionId of the search Bundle, sent back as If-None-Match, null if the server did not version the Bundle
+     */
+    String versionId;
+    /**
+     * latest meta.lastUpdated of the patients, sent back as If-Modified-Since, null if no patient has one
+     */
+    Date lastUpdated;
+
+    public static PatientSearchResult of(final Bundle bundle, final List<Patient> patients) {
+        return of(Objects.nonNull(bundle) && bundle.hasMeta() ? bundle.getMeta().getVersionId() : null, patients);
+    }
+
+    public static PatientSearchResult of(final String versionId, final List<Patient> patients) {
+        final Date lastUpdated = patients.stream()
+                .filter(p -> p.hasMeta() && Objects.nonNull(p.getMeta().getLastUpdated()))
+                .map(p -> p.getMeta().getLastUpdated())
+                .max(Date::compareTo)
+                .orElse(null);
+        return new PatientSearchResult(patients, ImmutableList.of(), versionId, lastUpdated);
+    }
+
+    public boolean isProjected() {
+        return patients.isEmpty() && !summaries.isEmpty();
+    }
+
+    /**
+     * @return this result without its full patients
+     */
+    public PatientSearchResult projected() {
+        return patients.isEmpty() ? this : new PatientSearchResult(ImmutableList.of(), summarize(patients), versionId, lastUpdated);
+    }
+
+    /**
+     * @return summaries of the patients, in the same order: those kept by a projected result, otherwise computed from the full
+     * patients on every call
+     */
+    public List<PatientSummary> getSummaries() {
+        return summaries.isEmpty() ? summarize(patients) : summaries;
+    }
+
+    private static List<PatientSummary> summarize(final List<Patient> patients) {
+        return patients.stream().map(PatientSummary::of).collect(ImmutableList.toImmutableList());
+    }
+
+    /**
+     * estimate the heap taken by this result, from the number of full patients and the length of the kept summaries' strings.
+     * used to weigh the entries of a cache bounded by memory, so it only has to be cheap and roughly proportional
+     *
+     * @return estimated bytes, at most Integer.MAX_VALUE
+     */
+    public int estimateBytes() {
+        long bytes = RESULT_BYTES + (long) patients.size() * PATIENT_BYTES;
+        for (final PatientSummary summary : summaries) {
+            bytes += SUMMARY_BYTES + 2L * (length(summary.getId()) + summary.getFirstName().length() + summary.getLastName().length());
+        }
+        return (int) Math.min(Integer.MAX_VALUE, bytes);
+    }
+
+    private static int length(final String s) {
+        return Objects.nonNull(s) ? s.length() : 0;
+    }
+
+    /**
+     * the Patients handed out by the public lookups. a projected result rebuilds them from its summaries on every call, so the
+     * client itself sorts, merges and indexes the summaries, see {@link #getSummaries()}, and calls this last
+     *
+     * @return the full patients, shared with the cache, or new patients rebuilt from the summaries if the result is projected.
+     * either way their lists are the mutable lists of HAPI
+     */
+    public List<Patient> toPatients() {
+        return isProjected() ? summaries.stream().map(PatientSummary::toPatient).collect(Collectors.toList()) : patients;
+    }
+}
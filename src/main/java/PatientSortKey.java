@@ -0,0 +1,189 @@
+import lombok.Value;
+import org.hl7.fhir.r4.model.Patient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * sort key of a Patient: p.name[0].family, p.name[0].given[0] and birth date, extracted once per patient.
+ * sorting with Comparator.comparing(Util::extractLastName) extracts both names of both patients on every comparison,
+ * that is O(n log n) times, sorting the keys extracts them n times.
+ */
+@Value
+public class PatientSortKey {
+    /**
+     * first name, then birth date
+     */
+    public final static Comparator<PatientSortKey> BY_FIRST_NAME = (a, b) -> {
+        final int byFirstName = a.firstName.compareTo(b.firstName);
+        return byFirstName != 0 ? byFirstName : Integer.compare(a.birthDate, b.birthDate);
+    };
+
+    /**
+     * last name, then first name, then birth date
+     */
+    public final static Comparator<PatientSortKey> BY_LAST_NAME = (a, b) -> {
+        final int byLastName = a.lastName.compareTo(b.lastName);
+        return byLastName != 0 ? byLastName : BY_FIRST_NAME.compare(a, b);
+    };
+
+    /**
+     * last name, then first name, then birth date, the order of BY_LAST_NAME on the keys of the patients summarized
+     */
+    public final static Comparator<PatientSummary> SUMMARY_BY_LAST_NAME = (a, b) -> {
+        final int byLastName = a.getLastName().compareTo(b.getLastName());
+        if (byLastName != 0) {
+            return byLastName;
+        }
+        final int byFirstName = a.getFirstName().compareTo(b.getFirstName());
+        return byFirstName != 0 ? byFirstName : Integer.compare(a.getBirthDate(), b.getBirthDate());
+    };
+
+    String lastName;
+    String firstName;
+    /**
+     * birth date as days since 1970-01-01, PatientSummary.NO_BIRTH_DATE if unknown, which sorts first
+     */
+    int birthDate;
+    Patient patient;
+
+    public static PatientSortKey of(final Patient p) {
+        return new PatientSortKey(Util.extractLastName(p), Util.extractFirstName(p), Util.extractBirthEpochDay(p), p);
+    }
+
+    /**
+     * @param patients patients to sort
+     * @return patients sorted by first name then birth date, patients equal on both keep their order
+     */
+    public static List<Patient> sortByFirstName(final Collection<Patient> patients) {
+        return sort(patients, BY_FIRST_NAME);
+    }
+
+    /**
+     * @param patients patients to sort
+     * @return patients sorted by last name, first name then birth date, patients equal on all three keep their order
+     */
+    public static List<Patient> sortByLastName(final Collection<Patient> patients) {
+        return sort(patients, BY_LAST_NAME);
+    }
+
+    /**
+     * merge lists of patients into one stream sorted by last name, first name then birth date, the same order as
+     * sortByLastName of the lists concatenated, without concatenating or sorting them as a whole.
+     * a list whose patients all share their last name, as the result of a search usually does, only has to be sorted by first name,
+     * which it is when it comes from the cache, and is then merged as is. a list mixing last names, as a prefix search can return,
+     * e.g. Martin and Martinez for Martin, is sorted first.
+     * telling whether a list is sorted takes the keys of all its patients, so the keys of all n patients are built up front, O(n),
+     * plus O(m log m) for each unsorted list of m patients. the lists are then merged lazily through a heap of their heads,
+     * taking the first k patients costs O(k log(lists)) on top, instead of sorting all n.
+     *
+     * @param lists lists of patients, e.g. the results of the searches of several last names
+     * @return patients of all lists, sorted by last name, patients equal on all keys in the order of the lists
+     */
+    public static Stream<Patient> mergeByLastName(final List<? extends List<Patient>> lists) {
+        return merge(lists, PatientSortKey::of, BY_LAST_NAME).map(PatientSortKey::getPatient);
+    }
+
+    /**
+     * merge lists of summaries as {@link #mergeByLastName(List)} merges lists of patients, a summary being its own sort key,
+     * so that the cached summaries of a projected result are merged without any key to build or Patient to rebuild
+     *
+     * @param lists lists of summaries, e.g. the projected results of the searches of several last names
+     * @return summaries of all lists, sorted by last name, summaries equal on all keys in the order of the lists
+     */
+    public static Stream<PatientSummary> mergeSummariesByLastName(final List<? extends List<PatientSummary>> lists) {
+        return merge(lists, Function.identity(), SUMMARY_BY_LAST_NAME);
+    }
+
+    private static <T, K> Stream<K> merge(final List<? extends List<T>> lists, final Function<T, K> keyOf, final Comparator<K> order) {
+        final PriorityQueue<Run<K>> heads = new PriorityQueue<>(Math.max(1, lists.size()), Run.order(order));
+        long size = 0L;
+        for (int i = 0; i < lists.size(); i++) {
+            final List<T> values = lists.get(i);
+            if (Objects.isNull(values) || values.isEmpty()) {
+                continue;
+            }
+            final List<K> keys = new ArrayList<>(values.size());
+            boolean sorted = true;
+            for (final T value : values) {
+                final K key = keyOf.apply(value);
+                sorted = sorted && (keys.isEmpty() || order.compare(keys.get(keys.size() - 1), key) <= 0);
+                keys.add(key);
+            }
+            if (!sorted) {
+                keys.sort(order);
+            }
+            heads.add(new Run<>(keys, i));
+            size += keys.size();
+        }
+
+        final Iterator<K> merged = new Iterator<K>() {
+            @Override
+            public boolean hasNext() {
+                return !heads.isEmpty();
+            }
+
+            @Override
+            public K next() {
+                final Run<K> run = heads.poll();
+                if (Objects.isNull(run)) {
+                    throw new NoSuchElementException();
+                }
+                final K next = run.keys.get(run.position++);
+                if (run.position < run.keys.size()) {
+                    heads.add(run);
+                }
+                return next;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliterator(merged, size, Spliterator.ORDERED), false);
+    }
+
+    /**
+     * the sorted keys of one list being merged, and the position of its head
+     */
+    private static class Run<K> {
+        private final List<K> keys;
+        private final int index;
+        private int position;
+
+        private Run(final List<K> keys, final int index) {
+            this.keys = keys;
+            this.index = index;
+        }
+
+        private static <K> Comparator<Run<K>> order(final Comparator<K> order) {
+            return (a, b) -> {
+                final int byKey = order.compare(a.keys.get(a.position), b.keys.get(b.position));
+                return byKey != 0 ? byKey : Integer.compare(a.index, b.index);
+            };
+        }
+    }
+
+    private static List<Patient> sort(final Collection<Patient> patients, final Comparator<PatientSortKey> order) {
+        final PatientSortKey[] keys = new PatientSortKey[patients.size()];
+        int i = 0;
+        for (final Patient p : patients) {
+            keys[i++] = of(p);
+        }
+        // a stable merge sort, as Stream.sorted is
+        Arrays.sort(keys, order);
+        final List<Patient> sorted = new ArrayList<>(keys.length);
+        for (final PatientSortKey key : keys) {
+            sorted.add(key.patient);
+        }
+        return sorted;
+    }
+}
@@ -0,0 +1,62 @@
+import lombok.Value;
+import org.hl7.fhir.r4.model.HumanName;
+import org.hl7.fhir.r4.model.Patient;
+
+import java.time.LocalDate;
+import java.util.Objects;
+
+/**
+ * compact projection of a Patient to the fields read by the lookups: id, p.name[0].given[0], p.name[0].family and birth date
+ */
+@Value
+public class PatientSummary {
+    public final static int NO_BIRTH_DATE = Integer.MIN_VALUE;
+
+    String id;
+    String firstName;
+    String lastName;
+    /**
+     * birth date as days since 1970-01-01, NO_BIRTH_DATE if unknown
+     */
+    int birthDate;
+
+    public static PatientSummary of(final Patient p) {
+        final String id = Objects.nonNull(p) && p.hasIdElement() ? p.getIdElement().getIdPart() : null;
+        return new PatientSummary(id, Util.extractFirstName(p), Util.extractLastName(p), Util.extractBirthEpochDay(p));
+    }
+
+    public boolean hasBirthDate() {
+        return birthDate != NO_BIRTH_DATE;
+    }
+
+    /**
+     * @return birth date formatted as yyyy-MM-dd, empty string if unknown
+     */
+    public String getDob() {
+        return Util.formatEpochDay(birthDate);
+    }
+
+    /**
+     * @return a new Patient holding only the fields of this summary, its lists as mutable as those of a parsed one
+     */
+    public Patient toPatient() {
+        final Patient p = new Patient();
+        if (Objects.nonNull(id)) {
+            p.setId(id);
+        }
+        final HumanName name = new HumanName();
+        if (!firstName.isEmpty()) {
+            name.addGiven(firstName);
+        }
+        if (!lastName.isEmpty()) {
+            name.setFamily(lastName);
+        }
+        if (name.hasGiven() || name.hasFamily()) {
+            p.addName(name);
+        }
+        if (hasBirthDate()) {
+            p.setBirthDate(Util.localDateToDate(LocalDate.ofEpochDay(birthDate)));
+        }
+        return p;
+    }
+}
@@ -0,0 +1,278 @@
+import io.vavr.control.Try;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * send a duplicate of a request that has not answered within a percentile of the recent latencies, and use whichever answers first.
+ * hedges are kept within budget, a fraction of the requests sent, so a slow server is never flooded with duplicates.
+ * the losing request is cancelled: its thread is interrupted and the http request it sent, registered through {@link #onCancel(Runnable)},
+ * is aborted, so it gives its connection and its limiter slot back instead of running to completion.
+ * <p>
+ * the latencies are read from a cumulative histogram of the requests hedged, and only the difference with a snapshot taken one
+ * to two windows ago is used, so the delay follows the server as it is now rather than since the client started.
+ */
+@Slf4j
+public class RequestHedger {
+    final static long MIN_SAMPLES = 20L;
+    private final static long DELAY_REFRESH_NANOS = TimeUnit.MILLISECONDS.toNanos(100L);
+    private final static Duration WINDOW = Duration.ofSeconds(30L);
+    private final static ThreadLocal<Attempt<?>> ATTEMPT = new ThreadLocal<>();
+
+    private final double percentile;
+    private final double budget;
+    private final Supplier<LatencySnapshot> latencies;
+    private final Executor executor;
+    private final long windowNanos;
+    private final LongAdder requestAdder = new LongAdder();
+    private final AtomicLong hedgeCount = new AtomicLong();
+    private final LongAdder wonAdder = new LongAdder();
+    private final LongAdder wastedAdder = new LongAdder();
+    private volatile long delayMillis = -1L;
+    private volatile long delayComputedAt;
+    private LatencySnapshot windowStart = LatencySnapshot.EMPTY;
+    private LatencySnapshot nextWindowStart = LatencySnapshot.EMPTY;
+    private long windowRolledAt;
+
+    /**
+     * @param percentile percentile of the recent latencies after which a request is hedged, e.g. 95
+     * @param budget     highest ratio of hedges to requests, e.g. 0.05 for at most 5% extra load
+     * @param latencies  latencies in millis of the kind of request hedged, cumulative and never reset,
+     *                   e.g. {@link RequestMetrics#getLatencies(RequestMetrics.Operation)}
+     * @param executor   executor sending the requests, the caller thread waits for the first answer
+     */
+    public RequestHedger(final double percentile, final double budget, @NonNull final Supplier<LatencySnapshot> latencies, @NonNull final Executor executor) {
+        this(percentile, budget, latencies, executor, WINDOW);
+    }
+
+    RequestHedger(final double percentile, final double budget, @NonNull final Supplier<LatencySnapshot> latencies, @NonNull final Executor executor, @NonNull final Duration window) {
+        this.percentile = percentile;
+        this.budget = budget;
+        this.latencies = latencies;
+        this.executor = executor;
+        this.windowNanos = window.toNanos();
+        this.delayComputedAt = System.nanoTime() - 2L * DELAY_REFRESH_NANOS;
+        this.windowRolledAt = System.nanoTime();
+    }
+
+    /**
+     * @return millis after which a request is hedged, -1 while too few latencies are known for the last one to two windows
+     */
+    long getDelayMillis() {
+        final long now = System.nanoTime();
+        if (now - delayComputedAt > DELAY_REFRESH_NANOS) {
+            synchronized (this) {
+                if (now - delayComputedAt > DELAY_REFRESH_NANOS) {
+                    final LatencySnapshot snapshot = latencies.get();
+                    if (now - windowRolledAt > windowNanos) {
+                        windowStart = nextWindowStart;
+                        nextWindowStart = snapshot;
+                        windowRolledAt = now;
+                    }
+                    final LatencySnapshot recent = snapshot.minus(windowStart);
+                    delayMillis = recent.getCount() < MIN_SAMPLES ? -1L : Math.max(1L, recent.getValueAtPercentile(percentile));
+                    delayComputedAt = now;
+                }
+            }
+        }
+        return delayMillis;
+    }
+
+    private boolean tryAcquireBudget() {
+        final long allowed = (long) (requestAdder.sum() * budget);
+        long hedges;
+        do {
+            hedges = hedgeCount.get();
+            if (hedges >= allowed) {
+                return false;
+            }
+        } while (!hedgeCount.compareAndSet(hedges, hedges + 1L));
+        return true;
+    }
+
+    /**
+     * send request, and a duplicate of it if it is slow and the budget allows
+     *
+     * @param request request to send
+     * @return the first answer
+     */
+    public <T> T call(@NonNull final Callable<T> request) throws Exception {
+        requestAdder.increment();
+        final long delay = getDelayMillis();
+        if (delay < 0L) {
+            return request.call();
+        }
+
+        final CompletableFuture<T> primary = submit(request);
+        try {
+            return primary.get(delay, TimeUnit.MILLISECONDS);
+        } catch (final TimeoutException e) {
+            if (!tryAcquireBudget()) {
+                return await(primary);
+            }
+        } catch (final ExecutionException e) {
+            throw unwrap(e);
+        }
+
+        log.info("call, hedging a request still running after {} millis", delay);
+        final CompletableFuture<T> hedge = submit(request);
+        // the first answer, or nothing once both requests failed
+        final CompletableFuture<T> first = new CompletableFuture<>();
+        primary.thenAccept(first::complete);
+        hedge.thenAccept(first::complete);
+        CompletableFuture.allOf(primary, hedge).whenComplete((v, t) -> first.complete(null));
+        first.join();
+        if (answered(hedge) && !answered(primary)) {
+            wonAdder.increment();
+            primary.cancel(true);
+            return hedge.join();
+        }
+        // the primary answered first, or both failed and the failure of the primary is the one thrown
+        wastedAdder.increment();
+        hedge.cancel(true);
+        return await(primary);
+    }
+
+    private static boolean answered(final CompletableFuture<?> future) {
+        return future.isDone() && !future.isCompletedExceptionally();
+    }
+
+    private <T> CompletableFuture<T> submit(final Callable<T> request) {
+        final Attempt<T> attempt = new Attempt<>(request);
+        executor.execute(attempt);
+        return attempt;
+    }
+
+    /**
+     * register how to abort the request the current thread is sending, run if the hedger cancels it as the losing one.
+     * does nothing outside of a request sent by a hedger
+     *
+     * @param abort abort of the request sent, e.g. closing its connection
+     */
+    public static void onCancel(@NonNull final Runnable abort) {
+        final Attempt<?> attempt = ATTEMPT.get();
+        if (Objects.nonNull(attempt)) {
+            attempt.onCancel(abort);
+        }
+    }
+
+    private static <T> T await(final CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (final ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private static Exception unwrap(final ExecutionException e) {
+        if (e.getCause() instanceof Exception) {
+            return (Exception) e.getCause();
+        }
+        if (e.getCause() instanceof Error) {
+            throw (Error) e.getCause();
+        }
+        return e;
+    }
+
+    public long getRequestCount() {
+        return requestAdder.sum();
+    }
+
+    /**
+     * @return number of duplicate requests sent
+     */
+    public long getHedgedCount() {
+        return hedgeCount.get();
+    }
+
+    /**
+     * @return number of duplicate requests that answered before the original one
+     */
+    public long getWonCount() {
+        return wonAdder.sum();
+    }
+
+    /**
+     * @return number of duplicate requests that were sent for nothing, as the original one answered first
+     */
+    public long getWastedCount() {
+        return wastedAdder.sum();
+    }
+
+    /**
+     * a request sent by the hedger, cancelled by interrupting its thread and aborting what it registered through onCancel
+     */
+    private static class Attempt<T> extends CompletableFuture<T> implements Runnable {
+        private final Callable<T> request;
+        private Thread thread;
+        private Runnable abort;
+
+        Attempt(final Callable<T> request) {
+            this.request = request;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (isDone()) {
+                    return;
+                }
+                thread = Thread.currentThread();
+            }
+            ATTEMPT.set(this);
+            try {
+                complete(request.call());
+            } catch (final Throwable t) {
+                completeExceptionally(t);
+            } finally {
+                ATTEMPT.remove();
+                synchronized (this) {
+                    thread = null;
+                    abort = null;
+                }
+                // an interrupt of the cancelled request is not left to the next task of the thread
+                Thread.interrupted();
+            }
+        }
+
+        void onCancel(final Runnable abort) {
+            synchronized (this) {
+                if (!isCancelled()) {
+                    this.abort = abort;
+                    return;
+                }
+            }
+            abort.run();
+        }
+
+        @Override
+        public boolean cancel(final boolean mayInterruptIfRunning) {
+            final boolean cancelled = super.cancel(mayInterruptIfRunning);
+            final Runnable aborting;
+            synchronized (this) {
+                if (!cancelled || Objects.isNull(thread)) {
+                    return cancelled;
+                }
+                aborting = abort;
+                if (mayInterruptIfRunning) {
+                    thread.interrupt();
+                }
+            }
+            if (Objects.nonNull(aborting)) {
+                Try.run(aborting::run).onFailure(e -> log.warn("cancel, failed to abort the request", e));
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * counters of the requests sent to the FHIR server, by operation: count and latency histogram, http status, bytes received
+ * and requests in flight. every counter is a LongAdder, an AtomicLongArray or a LatencyHistogram, so recording takes no lock
+ * and allocates nothing, the reading side paying for the copies.
+ * <p>
+ * the counters are cumulative since the client was created, readers wanting an interval take snapshots and subtract them,
+ * see {@link LatencySnapshot#minus(LatencySnapshot)}.
+ */
+public class RequestMetrics {
+    private final static int STATUSES = 600;
+
+    /**
+     * kind of request, told from its url
+     */
+    public enum Operation {
+        /**
+         * first page of a search, GET [base]/Patient?... or POST [base]/Patient/_search
+         */
+        SEARCH,
+        /**
+         * following page of a search, GET [base]?_getpages=...
+         */
+        PAGE,
+        /**
+         * read of a resource by id, GET [base]/Patient/[id]
+         */
+        READ,
+        OTHER;
+
+        /**
+         * @param uri url of the request
+         * @return operation of the request, looking at the url without copying it
+         */
+        public static Operation of(final String uri) {
+            if (Objects.isNull(uri)) {
+                return OTHER;
+            }
+            if (uri.contains("_getpages=")) {
+                return PAGE;
+            }
+            final int query = uri.indexOf('?');
+            final int end = query < 0 ? uri.length() : query;
+            final int patient = uri.lastIndexOf("/Patient", end);
+            if (patient < 0) {
+                return OTHER;
+            }
+            final int after = patient + "/Patient".length();
+            if (after == end || uri.startsWith("/_search", after)) {
+                return SEARCH;
+            }
+            // [base]/Patient/$operation is not a read
+            return uri.charAt(after) == '/' && !uri.startsWith("/$", after) ? READ : OTHER;
+        }
+    }
+
+    private final Map<Operation, LatencyHistogram> latencies;
+    private final Map<Operation, LongAdder> errors;
+    private final AtomicLongArray statuses;
+    private final LongAdder requests;
+    private final LongAdder responses;
+    private final LongAdder noResponses;
+    private final LongAdder bytesReceived;
+
+    public RequestMetrics() {
+        latencies = new EnumMap<>(Operation.class);
+        errors = new EnumMap<>(Operation.class);
+        for (final Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+            errors.put(operation, new LongAdder());
+        }
+        statuses = new AtomicLongArray(STATUSES);
+        requests = new LongAdder();
+        responses = new LongAdder();
+        noResponses = new LongAdder();
+        bytesReceived = new LongAdder();
+    }
+
+    public void requestSent() {
+        requests.increment();
+    }
+
+    /**
+     * count a request that never got a response, the connection failing or timing out
+     */
+    public void requestFailed() {
+        noResponses.increment();
+    }
+
+    /**
+     * count body bytes read from a response whose length was not known when it was received, see {@link #responseReceived}
+     */
+    public void bytesReceived(final long bytes) {
+        if (bytes > 0L) {
+            bytesReceived.add(bytes);
+        }
+    }
+
+    /**
+     * @param operation kind of request
+     * @param status    http status of the response
+     * @param millis    time from sending the request to receiving the response headers, negative if unknown
+     * @param bytes     length of the response body, negative if unknown, the body is then counted through bytesReceived as it is read
+     */
+    public void responseReceived(final Operation operation, final int status, final long millis, final long bytes) {
+        responses.increment();
+        if (status >= 0 && status < STATUSES) {
+            statuses.getAndIncrement(status);
+        }
+        if (status >= 400) {
+            errors.get(operation).increment();
+        }
+        if (millis >= 0L) {
+            latencies.get(operation).record(millis);
+        }
+        if (bytes > 0L) {
+            bytesReceived.add(bytes);
+        }
+    }
+
+    /**
+     * @return latencies in millis of the responses to operation
+     */
+    public LatencySnapshot getLatencies(final Operation operation) {
+        return latencies.get(operation).snapshot();
+    }
+
+    /**
+     * @return number of responses to operation
+     */
+    public long getCount(final Operation operation) {
+        return latencies.get(operation).getCount();
+    }
+
+    /**
+     * @return number of responses to operation with a 4xx or 5xx status
+     */
+    public long getErrorCount(final Operation operation) {
+        return errors.get(operation).sum();
+    }
+
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    public long getResponseCount() {
+        return responses.sum();
+    }
+
+    /**
+     * @return number of requests that never got a response
+     */
+    public long getNoResponseCount() {
+        return noResponses.sum();
+    }
+
+    /**
+     * @return number of requests sent and still waiting for their response
+     */
+    public long getInFlight() {
+        // read in this order, a request answered meanwhile is then at worst counted as in flight, never below 0
+        final long done = responses.sum() + noResponses.sum();
+        return Math.max(0L, requests.sum() - done);
+    }
+
+    /**
+     * @return number of response body bytes received, as announced by their Content-Length
+     */
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    /**
+     * @return number of responses with the given http status
+     */
+    public long getStatusCount(final int status) {
+        return status >= 0 && status < STATUSES ? statuses.get(status) : 0L;
+    }
+
+    /**
+     * @param statusClass first digit of the statuses, e.g. 5 for 5xx
+     * @return number of responses with a status of that class
+     */
+    public long getStatusClassCount(final int statusClass) {
+        long count = 0L;
+        for (int status = Math.max(0, statusClass * 100); status < Math.min(STATUSES, (statusClass + 1) * 100); status++) {
+            count += statuses.get(status);
+        }
+        return count;
+    }
+
+    /**
+     * @return number of responses by http status, statuses never received left out
+     */
+    public Map<Integer, Long> getStatusCounts() {
+        final Map<Integer, Long> counts = new LinkedHashMap<>();
+        for (int status = 0; status < STATUSES; status++) {
+            final long count = statuses.get(status);
+            if (count > 0L) {
+                counts.put(status, count);
+            }
+        }
+        return counts;
+    }
+}
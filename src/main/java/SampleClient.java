@@ -1,117 +1,1272 @@
-import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.rest.api.CacheControlDirective;
+import ca.uhn.fhir.rest.api.Constants;
 import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.gclient.ICriterion;
+import ca.uhn.fhir.rest.gclient.IQuery;
+import ca.uhn.fhir.rest.server.exceptions.NotModifiedException;
+import ca.uhn.fhir.util.DateUtils;
+import com.google.common.cache.AbstractCache;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import io.vavr.Tuple;
+import io.vavr.Tuple2;
 import io.vavr.control.Try;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.Patient;
 
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.Duration;
-import java.util.Comparator;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Slf4j
-public class SampleClient {
-    private final LoadingCache<String, List<Patient>> patientCache;
+public class SampleClient implements AutoCloseable {
+    /**
+     * number of recent lookups of a last name after which it is cached even when the cache is more than half full
+     */
+    private final static int ADMISSION_FREQUENCY = 2;
+
+    private final CacheLoader<String, PatientSearchResult> patientLoader;
+    private final PatientIndex patientIndex;
+    private final LoadingCache<String, PatientSearchResult> patientCache;
+    private final Cache<String, PatientSearchResult> negativeCache;
     private final IGenericClient client;
     private final TimeCostInterceptor timeCostInterceptor;
+    private final SampleClientOptions options;
+    private final ExecutorService executor;
+    private final ExecutorService asyncExecutor;
+    private final ScheduledExecutorService timeoutScheduler;
+    private final ConcurrentMap<String, CompletableFuture<PatientSearchResult>> inFlight;
+    private final ExecutorService backgroundExecutor;
+    private final PatientDiskCache diskCache;
+    private final LeanPatientSearch leanSearch;
+    private final RequestHedger hedger;
+    private final LongAdder refreshAdder;
+    private final LongAdder notModifiedAdder;
+    private final LongAdder fullReloadAdder;
+    private final LongAdder coalescedAdder;
+    private final FrequencySketch frequencySketch;
+    private final AtomicLong cacheWeight;
+    private final LongAdder sizeEvictionAdder;
+    private final LongAdder admissionRejectedAdder;
+    /**
+     * misses and loads of the lookups loading outside of patientCache, which guava does not see
+     */
+    private final AbstractCache.StatsCounter uncachedStats;
+    private final List<ObjectName> mbeanNames;
+    private final MetricsReporter metricsReporter;
+    private final long createdAt;
+    private final AtomicLong firstSearchAt;
 
     public SampleClient() {
-        final FhirContext fhirContext = FhirContext.forR4();
-        client = fhirContext.newRestfulGenericClient("http://hapi.fhir.org/baseR4");
+        this(SampleClientOptions.DEFAULT);
+    }
+
+    public SampleClient(@NonNull final SampleClientOptions options) {
+        this.options = options;
+        createdAt = System.nanoTime();
+        firstSearchAt = new AtomicLong();
+        // runs the parallel sync lookups when concurrency > 1
+        executor = Executors.newFixedThreadPool(Math.max(1, options.getConcurrency()), new ThreadFactoryBuilder().setNameFormat("sample-client-%d").setDaemon(true).build());
+        // runs the async misses, sized apart so that the default sequential client still loads them in parallel
+        asyncExecutor = Executors.newFixedThreadPool(Math.max(1, options.getAsyncThreads()), new ThreadFactoryBuilder().setNameFormat("sample-client-async-%d").setDaemon(true).build());
+        timeoutScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("sample-client-timeout-%d").setDaemon(true).build());
+        inFlight = new ConcurrentHashMap<>();
+        // a pool of its own for page prefetches and cache refreshes, so they never wait behind the lookups waiting for them
+        backgroundExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("sample-client-background-%d").setDaemon(true).build());
+        diskCache = Objects.nonNull(options.getDiskCachePath()) ? PatientDiskCache.open(options.getDiskCachePath(), options.getDiskCacheMaxBytes()) : null;
+        refreshAdder = new LongAdder();
+        notModifiedAdder = new LongAdder();
+        fullReloadAdder = new LongAdder();
+        coalescedAdder = new LongAdder();
+        cacheWeight = new AtomicLong();
+        sizeEvictionAdder = new LongAdder();
+        admissionRejectedAdder = new LongAdder();
+        uncachedStats = new AbstractCache.SimpleStatsCounter();
+        patientIndex = new PatientIndex();
+        // let every lookup thread hold its own connection instead of queueing on the http pool
+        client = FhirClients.newClient(options.getServerBase(), Math.max(options.getConcurrency(), options.getAsyncThreads()));
         timeCostInterceptor = new TimeCostInterceptor(false);
         client.registerInterceptor(timeCostInterceptor);
-        patientCache = CacheBuilder.newBuilder()
-                .expireAfterWrite(Duration.ofSeconds(30L))
-                .build(new CacheLoader<String, List<Patient>>() {
-                    @Override
-                    public List<Patient> load(final String lastName) throws Exception {
-                        return searchPatientsByLastName(client, lastName);
+        leanSearch = new LeanPatientSearch(FhirClients.context(), client.getServerBase(), timeCostInterceptor);
+        hedger = options.getHedgePercentile() > 0d
+                ? new RequestHedger(options.getHedgePercentile(), options.getHedgeBudget(),
+                        () -> timeCostInterceptor.getRequestMetrics().getLatencies(RequestMetrics.Operation.SEARCH), backgroundExecutor)
+                : null;
+        negativeCache = Objects.nonNull(options.getNegativeTimeToLive()) && !options.getNegativeTimeToLive().isZero()
+                ? CacheBuilder.newBuilder().expireAfterWrite(options.getNegativeTimeToLive()).recordStats().build()
+                : null;
+        final CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder().expireAfterWrite(options.getExpireAfterWrite()).recordStats();
+        if (Objects.nonNull(options.getRefreshAfterWrite())) {
+            cacheBuilder.refreshAfterWrite(options.getRefreshAfterWrite());
+        }
+        final boolean bounded = options.getCacheMaxBytes() > 0L;
+        // called once for each value removed, whatever the cause, a replaced value being indexed again by whatever replaced it
+        cacheBuilder.removalListener((final RemovalNotification<String, PatientSearchResult> removal) -> {
+            if (removal.getCause() != RemovalCause.REPLACED) {
+                patientIndex.remove(removal.getKey(), removal.getValue());
+            }
+            if (bounded) {
+                cacheWeight.addAndGet(-weigh(removal.getValue()));
+                if (removal.getCause() == RemovalCause.SIZE) {
+                    sizeEvictionAdder.increment();
+                }
+            }
+        });
+        if (bounded) {
+            // the weigher is called once for each value stored.
+            // guava splits the budget between its segments and evicts from a segment as soon as its share is full,
+            // one segment keeps the budget and the LRU order global, reads take no lock either way
+            cacheBuilder.concurrencyLevel(1)
+                    .maximumWeight(options.getCacheMaxBytes())
+                    .weigher((final String key, final PatientSearchResult result) -> {
+                        final int bytes = weigh(result);
+                        cacheWeight.addAndGet(bytes);
+                        return bytes;
+                    });
+            // one slot for each patient fitting in the budget, more than the number of names it can hold
+            frequencySketch = new FrequencySketch((int) Math.min(Integer.MAX_VALUE, options.getCacheMaxBytes() / PatientSearchResult.PATIENT_BYTES));
+        } else {
+            frequencySketch = null;
+        }
+        patientLoader = new CacheLoader<String, PatientSearchResult>() {
+            @Override
+            public PatientSearchResult load(final String lastName) throws Exception {
+                final Optional<PatientSearchResult> stored = loadFromDisk(lastName);
+                return stored.isPresent() ? stored.get() : storeToDisk(lastName, searchPatientsByLastName(lastName, null));
+            }
+
+            @Override
+            public Map<String, PatientSearchResult> loadAll(final Iterable<? extends String> lastNames) throws Exception {
+                final Map<String, PatientSearchResult> loaded = new LinkedHashMap<>();
+                final List<String> missing = new ArrayList<>();
+                lastNames.forEach(name -> {
+                    final Optional<PatientSearchResult> stored = loadFromDisk(name);
+                    if (stored.isPresent()) {
+                        loaded.put(name, stored.get());
+                    } else {
+                        missing.add(name);
                     }
                 });
+                searchPatientsInBatches(missing).forEach((name, result) -> loaded.put(name, storeToDisk(name, result)));
+                return loaded;
+            }
+
+            /**
+             * revalidate an entry older than options.refreshAfterWrite in the background, the old entry keeps being served meanwhile
+             */
+            @Override
+            public ListenableFuture<PatientSearchResult> reload(final String lastName, final PatientSearchResult oldValue) {
+                refreshAdder.increment();
+                final ListenableFutureTask<PatientSearchResult> task = ListenableFutureTask.create(() -> storeToDisk(lastName, searchPatientsByLastName(lastName, oldValue)));
+                backgroundExecutor.execute(task);
+                return task;
+            }
+        };
+        // results are indexed before guava stores them, so an immediate eviction removes them from the index as well
+        patientCache = cacheBuilder.build(new CacheLoader<String, PatientSearchResult>() {
+            @Override
+            public PatientSearchResult load(final String key) throws Exception {
+                return index(key, patientLoader.load(key));
+            }
+
+            @Override
+            public Map<String, PatientSearchResult> loadAll(final Iterable<? extends String> keys) throws Exception {
+                final Map<String, PatientSearchResult> loaded = patientLoader.loadAll(keys);
+                loaded.forEach(SampleClient.this::index);
+                return loaded;
+            }
+
+            @Override
+            public ListenableFuture<PatientSearchResult> reload(final String key, final PatientSearchResult oldValue) throws Exception {
+                return Futures.transform(patientLoader.reload(key, oldValue), result -> index(key, result), MoreExecutors.directExecutor());
+            }
+        });
+        // last, the views read the client as soon as they are published
+        mbeanNames = Objects.nonNull(options.getJmxName())
+                ? ClientMetrics.register(options.getJmxName(), this, options.getMetricsWindow())
+                : ImmutableList.of();
+        metricsReporter = Objects.nonNull(options.getMetricsReportInterval())
+                ? new MetricsReporter(this, options.getMetricsCsvPath()).start(options.getMetricsReportInterval())
+                : null;
+    }
+
+    /**
+     * weight of a cache entry: the result itself and its segment of patientIndex, every cached result being indexed
+     */
+    private static int weigh(final PatientSearchResult result) {
+        return (int) Math.min(Integer.MAX_VALUE, (long) result.estimateBytes() + PatientIndex.estimateBytes(result));
+    }
+
+    private PatientSearchResult index(final String key, final PatientSearchResult result) {
+        patientIndex.put(key, result);
+        return result;
     }
 
-    private static List<Patient> searchPatientsByLastName(@NonNull final IGenericClient client, final String lastName) {
+    private Optional<PatientSearchResult> loadFromDisk(final String lastName) {
+        if (Objects.isNull(diskCache) || Objects.isNull(lastName) || lastName.trim().isEmpty()) {
+            return Optional.empty();
+        }
+        return diskCache.get(lastName).map(this::project);
+    }
+
+    /**
+     * turn a fresh search result into the cache entry of lastName: projected to summaries in projection mode, and written to the disk cache.
+     * an empty result is written for options.negativeTimeToLive at most when negative caching is on, so it expires from disk with the negative cache
+     */
+    private PatientSearchResult storeToDisk(final String lastName, final PatientSearchResult result) {
+        final PatientSearchResult entry = project(result);
+        if (Objects.nonNull(diskCache) && Objects.nonNull(lastName) && !lastName.trim().isEmpty()) {
+            final Duration negativeTimeToLive = options.getNegativeTimeToLive();
+            final boolean negative = Objects.nonNull(negativeTimeToLive) && entry.getPatients().isEmpty() && entry.getSummaries().isEmpty();
+            diskCache.put(lastName, entry, negative && negativeTimeToLive.compareTo(options.getDiskCacheTimeToLive()) < 0
+                    ? negativeTimeToLive : options.getDiskCacheTimeToLive());
+        }
+        return entry;
+    }
+
+    private PatientSearchResult project(final PatientSearchResult result) {
+        return options.isProjection() ? result.projected() : result;
+    }
+
+    private IQuery<Bundle> searchPatients(final ICriterion<?> criterion) {
+        IQuery<Bundle> query = client
+                .search()
+                .forResource("Patient")
+                .where(criterion)
+                .returnBundle(Bundle.class)
+                .cacheControl(new CacheControlDirective().setMaxResults(999).setNoCache(false).setNoStore(false));
+        if (options.getFetchMode() != FetchMode.FULL) {
+            query = query.elementsSubset(LeanPatientSearch.ELEMENTS.split(","));
+        }
+        return options.getPageSize() > 0 ? query.count(options.getPageSize()) : query;
+    }
+
+    /**
+     * send a request to the server within options.limiter, if any
+     *
+     * @param request request to send
+     * @return result of request
+     * @throws java.util.concurrent.RejectedExecutionException when the limiter has no slot for the request
+     */
+    private <T> T limited(final Callable<T> request) {
+        final AdaptiveLimiter limiter = options.getLimiter();
+        try {
+            return Objects.isNull(limiter) ? unchecked(request) : unchecked(() -> limiter.call(request));
+        } catch (final RuntimeException e) {
+            // the generic client throws on the thread that sent the request, without a response if the connection failed
+            timeCostInterceptor.requestFailed();
+            throw e;
+        }
+    }
+
+    /**
+     * send the first request of a search through the hedger, if any
+     */
+    private <T> T hedged(final Callable<T> request) {
+        return Objects.isNull(hedger) ? unchecked(request) : unchecked(() -> hedger.call(request));
+    }
+
+    private static <T> T unchecked(final Callable<T> request) {
+        try {
+            return request.call();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (final RuntimeException e) {
+            throw e;
+        } catch (final Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * record the time of the first search answered by the server, counted from the creation of the client
+     */
+    private void searched() {
+        if (firstSearchAt.get() == 0L && firstSearchAt.compareAndSet(0L, Math.max(1L, System.nanoTime() - createdAt))) {
+            log.info("time to first search: {} millis", TimeUnit.NANOSECONDS.toMillis(firstSearchAt.get()));
+        }
+    }
+
+    private Bundle loadNextPage(final Bundle page) {
+        return limited(() -> client.loadPage().next(page).execute());
+    }
+
+    private LeanPatientSearch.Page nextLeanPage(final LeanPatientSearch.Page page) {
+        return limited(() -> leanSearch.next(page));
+    }
+
+    /**
+     * search the patients of lastNames, family=lastName1,lastName2,..., reading every page of the result in the configured fetch mode
+     *
+     * @param lastNames non blank last names to search
+     * @param headers   additional request headers
+     * @return meta.versionId of the search Bundle and the patients of lastNames in server order
+     * @throws NotModifiedException when the server answers 304 to a conditional search
+     */
+    private Tuple2<String, List<Patient>> searchPatientPages(final List<String> lastNames, final Map<String, String> headers) {
+        if (options.getFetchMode() == FetchMode.LEAN) {
+            final LeanPatientSearch.Page first = hedged(() -> limited(() -> leanSearch.search(lastNames, options.getPageSize(), headers)));
+            final List<Patient> patients = new ArrayList<>(first.getPatients());
+            for (LeanPatientSearch.Page page = nextLeanPage(first); Objects.nonNull(page); page = nextLeanPage(page)) {
+                patients.addAll(page.getPatients());
+            }
+            searched();
+            return Tuple.of(first.getVersionId(), patients);
+        }
+
+        IQuery<Bundle> query = searchPatients(Patient.FAMILY.matches().values(lastNames));
+        for (final Map.Entry<String, String> header : headers.entrySet()) {
+            query = query.withAdditionalHeader(header.getKey(), header.getValue());
+        }
+        final IQuery<Bundle> search = query;
+        final Bundle response = hedged(() -> limited(search::execute));
+        searched();
+        try (final Stream<Patient> pages = PatientPageIterator.stream(this::loadNextPage, response, backgroundExecutor, options.getPrefetchPages())) {
+            return Tuple.of(response.hasMeta() ? response.getMeta().getVersionId() : null, pages.collect(Collectors.toList()));
+        }
+    }
+
+    /**
+     * search the patients of a last name, conditionally when a previous result is given:
+     * If-None-Match and If-Modified-Since are set from its version, and the previous result is returned as is if the server answers 304.
+     *
+     * @param lastName last name to search
+     * @param previous previous result of the same search to revalidate, null for an unconditional search
+     * @return patients sorted by first name
+     */
+    private PatientSearchResult searchPatientsByLastName(final String lastName, final PatientSearchResult previous) {
         log.info("searchPatientsByLastName, lastName: {}", lastName);
 
         if (Objects.nonNull(lastName) && !lastName.trim().isEmpty()) {
-            Bundle response = client
-                    .search()
-                    .forResource("Patient")
-                    .where(Patient.FAMILY.matches().value(lastName))
-                    .returnBundle(Bundle.class)
-                    .cacheControl(new CacheControlDirective().setMaxResults(999).setNoCache(false).setNoStore(false))
-                    .execute();
-
-            final List<Patient> patients = Optional.ofNullable(response)
-                    .map(Bundle::getEntry)
-                    .orElse(ImmutableList.of())
-                    .stream()
-                    .filter(c -> Objects.nonNull(c) && Objects.nonNull(c.getResource()))
-                    .map(c -> (Patient) c.getResource())
-                    .sorted(Comparator.<Patient, String>comparing(Util::extractFirstName))
-                    .collect(Collectors.toList());
-            return patients;
+            final Map<String, String> headers = new LinkedHashMap<>();
+            if (Objects.nonNull(previous) && Objects.nonNull(previous.getVersionId())) {
+                headers.put(Constants.HEADER_IF_NONE_MATCH, "W/\"" + previous.getVersionId() + "\"");
+            }
+            if (Objects.nonNull(previous) && Objects.nonNull(previous.getLastUpdated())) {
+                headers.put(Constants.HEADER_IF_MODIFIED_SINCE, DateUtils.formatDate(previous.getLastUpdated()));
+            }
+
+            final Tuple2<String, List<Patient>> response;
+            try {
+                response = searchPatientPages(ImmutableList.of(lastName), headers);
+            } catch (final NotModifiedException e) {
+                notModifiedAdder.increment();
+                return previous;
+            }
+            if (Objects.nonNull(previous)) {
+                fullReloadAdder.increment();
+            }
+
+            return PatientSearchResult.of(response._1, PatientSortKey.sortByFirstName(response._2));
+        }
+
+        return PatientSearchResult.EMPTY;
+    }
+
+    /**
+     * stream the patients of a last name in first name order, as sorted by the server (_sort=given).
+     * the pages of the result are loaded lazily by following their next links, with options.prefetchPages pages loaded ahead,
+     * so a large result is never held in memory as a whole. the stream should be closed to stop prefetching when it is not fully consumed.
+     * the stream is not cached and each call sends a new search.
+     *
+     * @param lastName last name to search
+     * @return patients of lastName, empty stream if lastName is blank
+     */
+    public Stream<Patient> streamPatientsByLastName(final String lastName) {
+        log.info("streamPatientsByLastName, lastName: {}", lastName);
+
+        if (Objects.nonNull(lastName) && !lastName.trim().isEmpty()) {
+            final Bundle response = limited(searchPatients(Patient.FAMILY.matches().value(lastName)).sort().ascending(Patient.GIVEN)::execute);
+            searched();
+            return PatientPageIterator.stream(this::loadNextPage, response, backgroundExecutor, options.getPrefetchPages());
         }
 
-        return ImmutableList.of();
+        return Stream.empty();
     }
 
-    private static List<Patient> searchPatientsFromFile(@NonNull final IGenericClient client, final String filePath) {
-        log.info("searchPatientsFromFile, filePath: {}", filePath);
+    /**
+     * search patients of several last names with a single request, family=lastName1,lastName2,...,
+     * following the next links of the result bundle, then split the matches back into one list per last name.
+     *
+     * @param lastNames non blank last names to search
+     * @return patients sorted by first name for each of lastNames
+     */
+    private Map<String, List<Patient>> searchPatientsByLastNames(final List<String> lastNames) {
+        log.info("searchPatientsByLastNames, lastNames: {}", lastNames);
 
-        final List<String> lastNames = Util.readLines(filePath);
-        final List<Patient> patients = lastNames.stream()
-                .flatMap(name -> searchPatientsByLastName(client, name).stream())
-                .sorted(Comparator.comparing(Util::extractLastName).thenComparing(Util::extractFirstName))
-                .collect(Collectors.toList());
-        return patients;
+        return groupByFamily(lastNames, searchPatientPages(lastNames, ImmutableMap.of())._2);
+    }
+
+    /**
+     * split the result of a multi family search into one list per requested last name.
+     * a patient matching more than one of the last names, e.g. Smithson for both Smith and Smiths, is put into each of their lists.
+     *
+     * @param lastNames requested last names
+     * @param patients  patients returned by the search
+     * @return patients sorted by first name for each of lastNames
+     */
+    static Map<String, List<Patient>> groupByFamily(final Collection<String> lastNames, final List<Patient> patients) {
+        final Map<String, List<Patient>> byFamily = new LinkedHashMap<>();
+        lastNames.forEach(name -> byFamily.computeIfAbsent(name, n -> PatientSortKey.sortByFirstName(patients.stream()
+                .filter(p -> Util.matchesFamily(p, n))
+                .collect(Collectors.toList()))));
+        return byFamily;
+    }
+
+    /**
+     * load the given last names with one search per batch of options.batchSize names,
+     * the batches run on the executor when the client has one.
+     *
+     * @param lastNames last names missing from patientCache
+     * @return patients sorted by first name for each of lastNames
+     */
+    private Map<String, PatientSearchResult> searchPatientsInBatches(final List<String> lastNames) {
+        final Map<String, List<Patient>> byFamily = new LinkedHashMap<>();
+        final List<String> searchable = new ArrayList<>();
+        lastNames.forEach(name -> {
+            if (Objects.nonNull(name) && !name.trim().isEmpty()) {
+                searchable.add(name);
+            } else {
+                byFamily.put(name, ImmutableList.of());
+            }
+        });
+
+        final List<List<String>> batches = Lists.partition(searchable, Math.max(1, options.getBatchSize()));
+        if (options.getConcurrency() <= 1) {
+            batches.forEach(batch -> byFamily.putAll(searchPatientsByLastNames(batch)));
+        } else {
+            final List<CompletableFuture<Map<String, List<Patient>>>> futures = batches.stream()
+                    .map(batch -> CompletableFuture.supplyAsync(() -> searchPatientsByLastNames(batch), executor))
+                    .collect(Collectors.toList());
+            futures.forEach(f -> byFamily.putAll(f.join()));
+        }
+        // the bundle of a batch is not versioned per last name, so these results can only be revalidated by their patients' lastUpdated
+        return new LinkedHashMap<>(Maps.transformValues(byFamily, patients -> PatientSearchResult.of((String) null, patients)));
     }
 
     public Double getAverageTimeCost() {
         return timeCostInterceptor.getAverageTimeCost();
     }
 
+    /**
+     * @return time from the creation of the client to the first search answered by the server, including the creation of the FhirContext
+     * unless it was warmed up before, empty until then
+     */
+    public Optional<Duration> getTimeToFirstSearch() {
+        final long nanos = firstSearchAt.get();
+        return nanos == 0L ? Optional.empty() : Optional.of(Duration.ofNanos(nanos));
+    }
+
     public void resetTimeCosts() {
         timeCostInterceptor.resetTimeCosts();
     }
 
+    /**
+     * @return number of background refreshes of entries older than options.refreshAfterWrite
+     */
+    public long getRefreshCount() {
+        return refreshAdder.sum();
+    }
+
+    /**
+     * @return number of refreshes answered with 304 Not Modified, which kept the cached patients without downloading them
+     */
+    public long getNotModifiedCount() {
+        return notModifiedAdder.sum();
+    }
+
+    /**
+     * @return number of refreshes that downloaded and parsed the search result again
+     */
+    public long getFullReloadCount() {
+        return fullReloadAdder.sum();
+    }
+
+    /**
+     * @return number of searches sent a second time because the first request was slow
+     */
+    public long getHedgedCount() {
+        return Objects.isNull(hedger) ? 0L : hedger.getHedgedCount();
+    }
+
+    /**
+     * @return number of hedges answering before the request they duplicate
+     */
+    public long getHedgeWonCount() {
+        return Objects.isNull(hedger) ? 0L : hedger.getWonCount();
+    }
+
+    /**
+     * @return number of hedges sent for nothing, the request they duplicate answering first
+     */
+    public long getHedgeWastedCount() {
+        return Objects.isNull(hedger) ? 0L : hedger.getWastedCount();
+    }
+
+    /**
+     * @return hits, misses, loads and evictions of the cache of non empty search results, including the misses loaded
+     * outside of it in bounded mode, by batch or without being admitted
+     */
+    public CacheStats getCacheStats() {
+        return patientCache.stats().plus(uncachedStats.snapshot());
+    }
+
+    /**
+     * @return hits and misses of the cache of searches that found no patient, a hit being a search not sent again
+     */
+    public CacheStats getNegativeCacheStats() {
+        return Objects.nonNull(negativeCache) ? negativeCache.stats() : new CacheStats(0L, 0L, 0L, 0L, 0L, 0L);
+    }
+
+    /**
+     * @return number of search results evicted because the cache went over options.cacheMaxBytes
+     */
+    public long getSizeEvictionCount() {
+        return sizeEvictionAdder.sum();
+    }
+
+    /**
+     * @return number of search results loaded but not cached, their last name not being looked up often enough while the cache is half full
+     */
+    public long getAdmissionRejectedCount() {
+        return admissionRejectedAdder.sum();
+    }
+
+    /**
+     * @return estimated heap bytes taken by the cached search results and their index, see {@link #weigh(PatientSearchResult)}
+     */
+    public long getCacheWeight() {
+        if (Objects.nonNull(frequencySketch)) {
+            return cacheWeight.get();
+        }
+        return patientCache.asMap().values().stream().mapToLong(SampleClient::weigh).sum();
+    }
+
+    /**
+     * @return number of lookups of a batch answered by another lookup of the same batch, their names sharing the cache key
+     */
+    public long getCoalescedCount() {
+        return coalescedAdder.sum();
+    }
+
+    /**
+     * @return number of search results indexed, one for each non empty result in the cache
+     */
+    public int getIndexSegmentCount() {
+        return patientIndex.getSegmentCount();
+    }
+
+    /**
+     * @return number of search results in the cache
+     */
+    public long getCacheSize() {
+        return patientCache.size();
+    }
+
+    /**
+     * @return counters of every request sent to the server by operation, status, bytes and in flight, never reset
+     */
+    public RequestMetrics getRequestMetrics() {
+        return timeCostInterceptor.getRequestMetrics();
+    }
+
+    public LatencySnapshot getTimeCosts() {
+        return timeCostInterceptor.getTimeCosts();
+    }
+
+    public LatencySnapshot snapshotAndResetTimeCosts() {
+        return timeCostInterceptor.snapshotAndResetTimeCosts();
+    }
+
+    /**
+     * the cache key of a last name, see {@link Util#lastNameKey(String)}
+     */
+    private static String key(final String lastName) {
+        return Util.lastNameKey(lastName);
+    }
+
+    /**
+     * look up a cache key, in the negative cache first, then in patientCache, loading it on a miss
+     */
+    private PatientSearchResult lookup(final String key) throws ExecutionException {
+        return lookup(key, false);
+    }
+
+    /**
+     * @param shared whether the caller holds the inFlight load of key already, as the async lookups do
+     */
+    private PatientSearchResult lookup(final String key, final boolean shared) throws ExecutionException {
+        final PatientSearchResult negative = Objects.nonNull(negativeCache) ? negativeCache.getIfPresent(key) : null;
+        if (Objects.nonNull(negative)) {
+            return negative;
+        }
+        if (Objects.isNull(frequencySketch)) {
+            return settle(key, patientCache.get(key));
+        }
+        final boolean admitted = admit(key);
+        if (!admitted) {
+            admissionRejectedAdder.increment();
+        }
+        if (!shared) {
+            // a load of key running already, not admitted or async, is shared rather than searched again
+            final CompletableFuture<PatientSearchResult> load = inFlight.get(key);
+            if (Objects.nonNull(load)) {
+                uncachedStats.recordMisses(1);
+                return settle(key, await(load));
+            }
+        }
+        if (admitted) {
+            return settle(key, patientCache.get(key));
+        }
+        if (!shared) {
+            return settle(key, loadShared(key));
+        }
+        // the async lookup holding the load counted the miss already
+        try {
+            return settle(key, loadUncached(key));
+        } catch (final Exception e) {
+            throw new ExecutionException(e);
+        }
+    }
+
+    /**
+     * load a key not admitted to patientCache, which does not coalesce its loads then, through inFlight, so that the
+     * concurrent lookups of key, async ones included, share a single search
+     */
+    private PatientSearchResult loadShared(final String key) throws ExecutionException {
+        final CompletableFuture<PatientSearchResult> created = new CompletableFuture<>();
+        final CompletableFuture<PatientSearchResult> load = inFlight.putIfAbsent(key, created);
+        uncachedStats.recordMisses(1);
+        if (Objects.nonNull(load)) {
+            return await(load);
+        }
+        try {
+            final PatientSearchResult result = loadUncached(key);
+            created.complete(result);
+            return result;
+        } catch (final Exception e) {
+            created.completeExceptionally(e);
+            throw new ExecutionException(e);
+        } catch (final Error e) {
+            created.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, created);
+        }
+    }
+
+    /**
+     * load key outside of patientCache, recording the load in uncachedStats as patientCache records its own
+     */
+    private PatientSearchResult loadUncached(final String key) throws Exception {
+        final long start = System.nanoTime();
+        try {
+            final PatientSearchResult result = patientLoader.load(key);
+            uncachedStats.recordLoadSuccess(System.nanoTime() - start);
+            return result;
+        } catch (final Exception e) {
+            uncachedStats.recordLoadException(System.nanoTime() - start);
+            throw e;
+        }
+    }
+
+    private static PatientSearchResult await(final CompletableFuture<PatientSearchResult> load) throws ExecutionException {
+        try {
+            return load.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExecutionException(e);
+        }
+    }
+
+    /**
+     * count a lookup of key, and tell whether its result may be cached: always when the cache is unbounded, already holds key
+     * or is less than half full, otherwise only once key was looked up ADMISSION_FREQUENCY times recently.
+     * a result not admitted is loaded and returned without being cached, so it cannot evict the results looked up more often
+     */
+    private boolean admit(final String key) {
+        if (Objects.isNull(frequencySketch)) {
+            return true;
+        }
+        frequencySketch.increment(key);
+        return patientCache.asMap().containsKey(key)
+                || cacheWeight.get() < options.getCacheMaxBytes() / 2L
+                || frequencySketch.frequency(key) >= ADMISSION_FREQUENCY;
+    }
+
+    /**
+     * look up several cache keys, the keys missing from both caches are loaded together, see {@link #cacheLoadAllPatients(List)}
+     */
+    private Map<String, PatientSearchResult> lookupKeys(final Collection<String> keys) throws ExecutionException {
+        final Map<String, PatientSearchResult> found = new LinkedHashMap<>();
+        final List<String> missing = new ArrayList<>();
+        keys.forEach(key -> {
+            final PatientSearchResult negative = Objects.nonNull(negativeCache) ? negativeCache.getIfPresent(key) : null;
+            if (Objects.nonNull(negative)) {
+                found.put(key, negative);
+            } else {
+                missing.add(key);
+            }
+        });
+        if (Objects.isNull(frequencySketch)) {
+            patientCache.getAll(missing).forEach((key, result) -> found.put(key, settle(key, result)));
+            return found;
+        }
+        // the weight of a batch is only known once loaded, so its results are admitted one by one after loading them together
+        final List<String> unloaded = new ArrayList<>();
+        missing.forEach(key -> {
+            final PatientSearchResult cached = patientCache.getIfPresent(key);
+            if (Objects.nonNull(cached)) {
+                frequencySketch.increment(key);
+                found.put(key, settle(key, cached));
+            } else {
+                unloaded.add(key);
+            }
+        });
+        if (!unloaded.isEmpty()) {
+            // their misses are counted by getIfPresent, their load, a single one as patientCache counts a bulk load, here
+            final Map<String, PatientSearchResult> loaded;
+            final long start = System.nanoTime();
+            try {
+                loaded = patientLoader.loadAll(unloaded);
+                uncachedStats.recordLoadSuccess(System.nanoTime() - start);
+            } catch (final Exception e) {
+                uncachedStats.recordLoadException(System.nanoTime() - start);
+                throw new ExecutionException(e);
+            }
+            loaded.forEach((key, result) -> {
+                if (admit(key)) {
+                    patientCache.put(key, index(key, result));
+                } else {
+                    admissionRejectedAdder.increment();
+                }
+                found.put(key, settle(key, result));
+            });
+        }
+        return found;
+    }
+
+    /**
+     * move an empty result from patientCache to the negative cache, where it expires after options.negativeTimeToLive
+     */
+    private PatientSearchResult settle(final String key, final PatientSearchResult result) {
+        if (Objects.nonNull(negativeCache) && result.getPatients().isEmpty() && result.getSummaries().isEmpty()) {
+            negativeCache.put(key, result);
+            // only if still there, a refresh may have replaced it meanwhile
+            patientCache.asMap().remove(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * @param lastName last name to look up, matched ignoring case, accents and extra white space
+     * @return cached or loaded patients of lastName, sorted by first name. unless the client is in projection mode, the list
+     * and its patients are the ones held by the cache and returned to every caller, so they are to be read, not modified
+     */
     public List<Patient> cacheLoadPatients(final String lastName) {
-        return Try.of(() -> patientCache.get(lastName)).getOrElse(ImmutableList.of());
+        return Try.of(() -> lookup(key(lastName)).toPatients()).getOrElse(ImmutableList.of());
+    }
+
+    /**
+     * find the cached patients whose first name starts with prefix, without any search, see {@link PatientIndex}
+     *
+     * @param prefix start of the first name, matched ignoring case and accents
+     * @return patients of the last names in the cache, sorted by last name, first name and birth date
+     */
+    public List<Patient> findCachedByFirstName(@NonNull final String prefix) {
+        patientCache.cleanUp();
+        return patientIndex.findByFirstNamePrefix(prefix);
+    }
+
+    /**
+     * find the cached patients whose last name starts with prefix, without any search, see {@link PatientIndex}
+     *
+     * @param prefix start of the last name, matched ignoring case and accents
+     * @return patients of the last names in the cache, sorted by last name, first name and birth date
+     */
+    public List<Patient> findCachedByLastName(@NonNull final String prefix) {
+        patientCache.cleanUp();
+        return patientIndex.findByLastNamePrefix(prefix);
+    }
+
+    /**
+     * find the cached patients born between from and to included, without any search, see {@link PatientIndex}
+     *
+     * @return patients of the last names in the cache, sorted by last name, first name and birth date
+     */
+    public List<Patient> findCachedBornBetween(@NonNull final LocalDate from, @NonNull final LocalDate to) {
+        patientCache.cleanUp();
+        return patientIndex.findBornBetween((int) from.toEpochDay(), (int) to.toEpochDay());
+    }
+
+    /**
+     * find the cached patients born in year, e.g. all the patients born in 1985 among the last names loaded
+     *
+     * @return patients of the last names in the cache, sorted by last name, first name and birth date
+     */
+    public List<Patient> findCachedBornIn(final int year) {
+        patientCache.cleanUp();
+        return patientIndex.findBornIn(year);
+    }
+
+    /**
+     * @param lastName last name to look up
+     * @return cached or loaded summaries of the patients of lastName, sorted by first name
+     */
+    public List<PatientSummary> cacheLoadPatientSummaries(final String lastName) {
+        return Try.of(() -> lookup(key(lastName)).getSummaries()).getOrElse(ImmutableList.of());
     }
 
+    /**
+     * read the full resource of a patient from the server, for instance one whose summary was loaded in projection mode
+     *
+     * @param id id of the patient
+     * @return the patient, empty if it does not exist or could not be read
+     */
+    public Optional<Patient> readPatient(final String id) {
+        log.info("readPatient, id: {}", id);
+
+        if (Objects.isNull(id) || id.trim().isEmpty()) {
+            return Optional.empty();
+        }
+        return Try.of(() -> limited(() -> client.read().resource(Patient.class).withId(id).execute()))
+                .onFailure(t -> log.error("unable to read patient: {}", id, t))
+                .toJavaOptional();
+    }
+
+    /**
+     * load several last names at once. names sharing their cache key are looked up once,
+     * and the keys missing from the caches are searched in batches of options.batchSize
+     *
+     * @param lastNames last names to load
+     * @return cached or loaded patients sorted by first name for each non null last name, empty map if loading failed,
+     * read only as those of {@link #cacheLoadPatients(String)}
+     */
+    public Map<String, List<Patient>> cacheLoadAllPatients(final List<String> lastNames) {
+        return Try.of(() -> Maps.transformValues(lookupByName(lastNames), PatientSearchResult::toPatients))
+                .onFailure(t -> log.error("unable to load patients of last names: {}", lastNames, t))
+                .getOrElse(ImmutableMap.of());
+    }
+
+    /**
+     * @return result of each non null last name
+     */
+    private Map<String, PatientSearchResult> lookupByName(final List<String> lastNames) throws ExecutionException {
+        final Map<String, String> keys = new LinkedHashMap<>();
+        lastNames.stream().filter(Objects::nonNull).forEach(name -> keys.put(name, key(name)));
+        final Set<String> distinct = new LinkedHashSet<>(keys.values());
+        coalescedAdder.add(lastNames.stream().filter(Objects::nonNull).count() - distinct.size());
+        final Map<String, PatientSearchResult> byKey = lookupKeys(distinct);
+        final Map<String, PatientSearchResult> byName = new LinkedHashMap<>();
+        keys.forEach((name, key) -> byName.put(name, byKey.get(key)));
+        return byName;
+    }
+
+    /**
+     * @param filePath file of last names, see {@link Util#streamLastNames(String)}
+     * @return patients of all last names sorted by last name then first name, empty list if the file cannot be read to its end
+     */
     public List<Patient> cacheLoadPatientsFromFile(final String filePath) {
-        log.info("searchPatientsFromFile, filePath: {}", filePath);
+        return cacheLoadPatientsFromFile(filePath, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param filePath file of last names
+     * @param limit    number of patients to return
+     * @return the first limit patients of {@link #cacheLoadPatientsFromFile(String)}, without sorting the others
+     */
+    public List<Patient> cacheLoadPatientsFromFile(final String filePath, final int limit) {
+        return Try.of(() -> {
+            try (final Stream<Patient> patients = cacheStreamPatientsFromFile(filePath)) {
+                return patients.limit(Math.max(0, limit)).collect(Collectors.toList());
+            }
+        }).onFailure(t -> log.error("unable to load patients of the last names of file: {}", filePath, t)).getOrElse(ImmutableList.of());
+    }
+
+    /**
+     * look up the patients of every last name of a file, then merge the cached per name results, already sorted by first name,
+     * into one stream sorted by last name then first name. every name is looked up and its result held before the stream is
+     * returned, as the first patient may come from any of them, and the sort keys of all patients are built, see
+     * {@link PatientSortKey#mergeByLastName(List)}. only the merge itself is lazy, so reading only the head of the stream
+     * neither concatenates nor sorts all the patients.
+     *
+     * @param filePath file of last names, see {@link Util#streamLastNames(String)}
+     * @return patients of all last names sorted by last name then first name
+     * @throws java.io.UncheckedIOException when reading fails once the file is open, e.g. on bytes that are not UTF-8
+     */
+    public Stream<Patient> cacheStreamPatientsFromFile(final String filePath) {
+        log.info("cacheStreamPatientsFromFile, filePath: {}", filePath);
 
-        final List<String> lastNames = Util.readLines(filePath);
-        final List<Patient> patients = lastNames.stream()
-                .flatMap(name -> cacheLoadPatients(name).stream())
-                .sorted(Comparator.comparing(Util::extractLastName).thenComparing(Util::extractFirstName))
-                .collect(Collectors.toList());
-        return patients;
+        final List<PatientSearchResult> found = new ArrayList<>();
+        visitResultsFromFile(filePath, (name, result) -> found.add(result));
+        return mergeByLastName(found);
+    }
+
+    /**
+     * look up the patients of every last name of a file as {@link #cacheStreamPatientsFromFile(String)} does, and merge their
+     * summaries, the cached ones in projection mode, without building any Patient
+     *
+     * @param filePath file of last names, see {@link Util#streamLastNames(String)}
+     * @return summaries of the patients of all last names sorted by last name then first name
+     * @throws java.io.UncheckedIOException when reading fails once the file is open, e.g. on bytes that are not UTF-8
+     */
+    public Stream<PatientSummary> cacheStreamPatientSummariesFromFile(final String filePath) {
+        log.info("cacheStreamPatientSummariesFromFile, filePath: {}", filePath);
+
+        final List<List<PatientSummary>> found = new ArrayList<>();
+        visitResultsFromFile(filePath, (name, result) -> found.add(result.getSummaries()));
+        return PatientSortKey.mergeSummariesByLastName(found);
+    }
+
+    /**
+     * merge results sorted by first name into patients sorted by last name. in projection mode their summaries are merged,
+     * and only the patients read from the stream are rebuilt from theirs
+     */
+    private Stream<Patient> mergeByLastName(final List<PatientSearchResult> results) {
+        if (options.isProjection()) {
+            return PatientSortKey.mergeSummariesByLastName(results.stream().map(PatientSearchResult::getSummaries).collect(Collectors.toList()))
+                    .map(PatientSummary::toPatient);
+        }
+        return PatientSortKey.mergeByLastName(results.stream().map(PatientSearchResult::getPatients).collect(Collectors.toList()));
+    }
+
+    /**
+     * look up the patients of every last name of a file while the file is read, and hand them to visitor name by name,
+     * in the order of the file, without keeping them. the file is read only as fast as the lookups complete:
+     * at most 2 * options.concurrency lookups, or batches of options.batchSize names, are in flight at once,
+     * so the lookups start with the first lines and the memory used does not grow with the file.
+     *
+     * @param filePath file of last names, see {@link Util#streamLastNames(String)}
+     * @param visitor  called on the caller thread with each last name and its patients sorted by first name
+     * @return number of last names looked up
+     * @throws java.io.UncheckedIOException when reading fails once the file is open, the names read before having been visited
+     */
+    public long cacheVisitPatientsFromFile(final String filePath, @NonNull final BiConsumer<String, List<Patient>> visitor) {
+        log.info("cacheVisitPatientsFromFile, filePath: {}", filePath);
+
+        return visitResultsFromFile(filePath, (name, result) -> visitor.accept(name, result.toPatients()));
+    }
+
+    private long visitResultsFromFile(final String filePath, final BiConsumer<String, PatientSearchResult> visitor) {
+        final int window = options.getConcurrency() > 1 ? 2 * options.getConcurrency() : 0;
+        final Deque<Tuple2<List<String>, CompletableFuture<Map<String, PatientSearchResult>>>> pending = new ArrayDeque<>();
+        long count = 0L;
+        try (final Stream<String> lastNames = Util.streamLastNames(filePath)) {
+            final Iterator<List<String>> batches = Iterators.partition(lastNames.iterator(), Math.max(1, options.getBatchSize()));
+            while (batches.hasNext()) {
+                final List<String> batch = batches.next();
+                count += batch.size();
+                if (window == 0) {
+                    visitBatch(batch, cacheLoadBatch(batch), visitor);
+                    continue;
+                }
+                // a batch fans its searches out to the executor itself, so it must not wait for them on one of its threads
+                pending.add(Tuple.of(batch, CompletableFuture.supplyAsync(() -> cacheLoadBatch(batch), batch.size() > 1 ? backgroundExecutor : executor)));
+                if (pending.size() >= window) {
+                    final Tuple2<List<String>, CompletableFuture<Map<String, PatientSearchResult>>> oldest = pending.poll();
+                    visitBatch(oldest._1, oldest._2.join(), visitor);
+                }
+            }
+        }
+        while (!pending.isEmpty()) {
+            final Tuple2<List<String>, CompletableFuture<Map<String, PatientSearchResult>>> oldest = pending.poll();
+            visitBatch(oldest._1, oldest._2.join(), visitor);
+        }
+        return count;
+    }
+
+    /**
+     * @return result of each last name of batch, the names whose lookup failed left out
+     */
+    private Map<String, PatientSearchResult> cacheLoadBatch(final List<String> batch) {
+        if (batch.size() == 1) {
+            return ImmutableMap.of(batch.get(0), Try.of(() -> lookup(key(batch.get(0)))).getOrElse(PatientSearchResult.EMPTY));
+        }
+        return Try.of(() -> lookupByName(batch))
+                .onFailure(t -> log.error("unable to load patients of last names: {}", batch, t))
+                .getOrElse(ImmutableMap.of());
+    }
+
+    private static void visitBatch(final List<String> batch, final Map<String, PatientSearchResult> byFamily, final BiConsumer<String, PatientSearchResult> visitor) {
+        batch.forEach(name -> visitor.accept(name, byFamily.getOrDefault(name, PatientSearchResult.EMPTY)));
+    }
+
+    /**
+     * warm patientCache from the NDJSON files of a FHIR Bulk Data export, see {@link #cacheBulkLoad(NdjsonPatientLoader.Result)}
+     *
+     * @param filePaths paths of NDJSON files of Patient resources, or names of class path resources
+     * @return number of last names cached, 0 if loading failed
+     */
+    public long cacheBulkLoadFromFiles(@NonNull final List<String> filePaths) {
+        log.info("cacheBulkLoadFromFiles, filePaths: {}", filePaths);
+
+        return Try.of(() -> cacheBulkLoad(bulkLoader().loadFiles(filePaths)))
+                .onFailure(t -> log.error("unable to bulk load patients from files: {}", filePaths, t))
+                .getOrElse(0L);
+    }
+
+    /**
+     * warm patientCache from a FHIR Bulk Data export of all the patients of the server, run with [base]/Patient/$export,
+     * see {@link #cacheBulkLoad(NdjsonPatientLoader.Result)}. waits for the export to complete,
+     * polling its status every options.bulkExportPollInterval for options.bulkExportTimeout at most
+     *
+     * @return number of last names cached, 0 if the export or loading failed
+     */
+    public long cacheBulkLoadFromExport() {
+        log.info("cacheBulkLoadFromExport, serverBase: {}", options.getServerBase());
+
+        final NdjsonPatientLoader loader = bulkLoader();
+        return Try.of(() -> cacheBulkLoad(loader.loadUrls(loader.export(options.getServerBase(), options.getBulkExportPollInterval(), options.getBulkExportTimeout()))))
+                .onFailure(t -> log.error("unable to bulk load patients from an export of: {}", options.getServerBase(), t))
+                .getOrElse(0L);
+    }
+
+    /**
+     * the lines are parsed in the background, a batch per processor at most, whatever the concurrency of the lookups,
+     * and the patients kept as complete as the searches would keep them
+     */
+    private NdjsonPatientLoader bulkLoader() {
+        final boolean slim = options.isProjection() || options.getFetchMode() != FetchMode.FULL;
+        return new NdjsonPatientLoader(FhirClients.context(), timeCostInterceptor, backgroundExecutor,
+                Math.max(2, Runtime.getRuntime().availableProcessors()), slim);
+    }
+
+    /**
+     * cache the patients of every family name of a bulk load in one pass, without any search. the entry of a last name holds
+     * what its search would find, the patients of the family names it is a prefix of included, see {@link NdjsonPatientLoader#byPrefix(Map)}.
+     * the entries replace the cached ones, bypass the admission of a bounded cache, which then keeps the ones that fit,
+     * and are written to the disk cache. as the results of batched searches, they are revalidated by their patients' lastUpdated.
+     * the entries are cached one at a time as the patients of loaded are drained, so in projection mode the full patients of an
+     * entry can be collected as soon as it is cached
+     *
+     * @return number of last names cached
+     */
+    private long cacheBulkLoad(final NdjsonPatientLoader.Result loaded) {
+        final LongAdder cached = new LongAdder();
+        NdjsonPatientLoader.drainByPrefix(loaded.getByKey(), (key, patients) -> {
+            final PatientSearchResult entry = storeToDisk(key, PatientSearchResult.of((String) null, patients));
+            if (Objects.nonNull(negativeCache)) {
+                negativeCache.invalidate(key);
+            }
+            patientCache.put(key, index(key, entry));
+            cached.increment();
+        });
+        log.info("bulk loaded {} patients of {} last names from {} lines, {} skipped", loaded.getPatients(), cached.sum(), loaded.getLines(), loaded.getSkipped());
+        return cached.sum();
+    }
+
+    /**
+     * look up the patients of a last name without blocking the caller.
+     * a cache hit completes immediately, a miss is loaded on a pool of {@link SampleClientOptions#getAsyncThreads()} threads, and
+     * concurrent async lookups of the same last name share a single load. at most asyncThreads distinct names load at once, the
+     * others queue for a thread. cancelling the returned future only detaches this caller, the load still fills the cache.
+     *
+     * @param lastName last name to look up
+     * @return patients of lastName sorted by first name, read only as those of {@link #cacheLoadPatients(String)},
+     * failed with the cause if the search fails
+     */
+    public CompletableFuture<List<Patient>> cacheLoadPatientsAsync(final String lastName) {
+        return lookupAsync(lastName).thenApply(PatientSearchResult::toPatients);
+    }
+
+    /**
+     * @return result of lastName, the load shared with the other async lookups of lastName if it is not cached, not to be cancelled
+     */
+    private CompletableFuture<PatientSearchResult> lookupAsync(final String lastName) {
+        if (Objects.isNull(lastName)) {
+            return CompletableFuture.completedFuture(PatientSearchResult.EMPTY);
+        }
+        final String key = key(lastName);
+        final PatientSearchResult negative = Objects.nonNull(negativeCache) ? negativeCache.getIfPresent(key) : null;
+        if (Objects.nonNull(negative)) {
+            return CompletableFuture.completedFuture(negative);
+        }
+        final PatientSearchResult cached = patientCache.getIfPresent(key);
+        if (Objects.nonNull(cached)) {
+            if (Objects.nonNull(frequencySketch)) {
+                frequencySketch.increment(key);
+            }
+            return CompletableFuture.completedFuture(settle(key, cached));
+        }
+
+        CompletableFuture<PatientSearchResult> load = inFlight.get(key);
+        if (Objects.isNull(load)) {
+            final CompletableFuture<PatientSearchResult> created = new CompletableFuture<>();
+            load = inFlight.putIfAbsent(key, created);
+            if (Objects.isNull(load)) {
+                load = created;
+                try {
+                    asyncExecutor.execute(() -> {
+                        try {
+                            created.complete(lookup(key, true));
+                        } catch (final ExecutionException | UncheckedExecutionException e) {
+                            created.completeExceptionally(e.getCause());
+                        } catch (final Throwable t) {
+                            created.completeExceptionally(t);
+                        } finally {
+                            inFlight.remove(key, created);
+                        }
+                    });
+                } catch (final RejectedExecutionException e) {
+                    // the client is closed, fail this load rather than leave it and its waiters pending forever
+                    inFlight.remove(key, created);
+                    created.completeExceptionally(e);
+                }
+            }
+        }
+        return load;
+    }
+
+    /**
+     * @param lastName last name to look up
+     * @param timeout  time after which the returned future fails with a TimeoutException
+     * @return see {@link #cacheLoadPatientsAsync(String)}
+     */
+    public CompletableFuture<List<Patient>> cacheLoadPatientsAsync(final String lastName, @NonNull final Duration timeout) {
+        return withTimeout(cacheLoadPatientsAsync(lastName), timeout);
+    }
+
+    /**
+     * look up the patients of every last name of a file without blocking the caller, see {@link #cacheLoadPatientsFromFile(String)}
+     *
+     * @param filePath file of last names
+     * @return patients sorted by last name then first name, failed with the cause if any search fails
+     */
+    public CompletableFuture<List<Patient>> cacheLoadPatientsFromFileAsync(final String filePath) {
+        log.info("cacheLoadPatientsFromFileAsync, filePath: {}", filePath);
+
+        return CompletableFuture.supplyAsync(() -> {
+                    try (final Stream<String> lastNames = Util.streamLastNames(filePath)) {
+                        return lastNames.collect(Collectors.toList());
+                    }
+                }, backgroundExecutor)
+                .thenCompose(lastNames -> {
+                    if (options.getBatchSize() > 1) {
+                        // the batches of a getAll are spread over the executor, so the getAll itself waits on another pool
+                        return CompletableFuture.supplyAsync(() -> {
+                            final Map<String, PatientSearchResult> byFamily;
+                            try {
+                                byFamily = lookupByName(lastNames);
+                            } catch (final ExecutionException | UncheckedExecutionException e) {
+                                throw new CompletionException(e.getCause());
+                            }
+                            return lastNames.stream()
+                                    .filter(Objects::nonNull)
+                                    .map(byFamily::get)
+                                    .collect(Collectors.toList());
+                        }, backgroundExecutor);
+                    }
+                    final List<CompletableFuture<PatientSearchResult>> futures = lastNames.stream()
+                            .map(this::lookupAsync)
+                            .collect(Collectors.toList());
+                    return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                            .thenApply(v -> futures.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+                })
+                .thenApply(results -> mergeByLastName(results).collect(Collectors.toList()));
+    }
+
+    /**
+     * @param filePath file of last names
+     * @param timeout  time after which the returned future fails with a TimeoutException
+     * @return see {@link #cacheLoadPatientsFromFileAsync(String)}
+     */
+    public CompletableFuture<List<Patient>> cacheLoadPatientsFromFileAsync(final String filePath, @NonNull final Duration timeout) {
+        return withTimeout(cacheLoadPatientsFromFileAsync(filePath), timeout);
+    }
+
+    private <T> CompletableFuture<T> withTimeout(final CompletableFuture<T> future, final Duration timeout) {
+        final CompletableFuture<T> timed = new CompletableFuture<>();
+        final ScheduledFuture<?> timer = timeoutScheduler.schedule(
+                () -> timed.completeExceptionally(new TimeoutException("no result after " + timeout)), timeout.toNanos(), TimeUnit.NANOSECONDS);
+        future.whenComplete((r, t) -> {
+            timer.cancel(false);
+            if (Objects.nonNull(t)) {
+                timed.completeExceptionally(t instanceof CompletionException && Objects.nonNull(t.getCause()) ? t.getCause() : t);
+            } else {
+                timed.complete(r);
+            }
+        });
+        timed.whenComplete((r, t) -> {
+            if (timed.isCancelled()) {
+                future.cancel(false);
+            }
+        });
+        return timed;
+    }
+
+    @Override
+    public void close() {
+        if (Objects.nonNull(metricsReporter)) {
+            metricsReporter.close();
+        }
+        ClientMetrics.unregister(mbeanNames);
+        executor.shutdownNow();
+        asyncExecutor.shutdownNow();
+        timeoutScheduler.shutdownNow();
+        backgroundExecutor.shutdownNow();
     }
 
     public static void main(String[] args) {
         // Create a FHIR client
+        FhirClients.warmUp();
         final SampleClient sampleClient = new SampleClient();
 
         final List<Patient> patients1 = sampleClient.cacheLoadPatientsFromFile("names.txt");
-        log.info("average time cost for first loop: {} millis", sampleClient.getAverageTimeCost());
-        sampleClient.resetTimeCosts();
+        log.info("time cost for first loop in millis: {}", sampleClient.snapshotAndResetTimeCosts());
 
 
         final List<Patient> patients2 = sampleClient.cacheLoadPatientsFromFile("names.txt");
-        log.info("average time cost for second loop: {} millis", sampleClient.getAverageTimeCost());
-        sampleClient.resetTimeCosts();
+        log.info("time cost for second loop in millis: {}", sampleClient.snapshotAndResetTimeCosts());
 
         // invalid cache
         // sampleClient.patientCache.invalidateAll();
@@ -120,7 +1275,6 @@ public class SampleClient {
 
 
         final List<Patient> patients3 = sampleClient.cacheLoadPatientsFromFile("names.txt");
-        log.info("average time cost for third loop: {} millis", sampleClient.getAverageTimeCost());
-        sampleClient.resetTimeCosts();
+        log.info("time cost for third loop in millis: {}", sampleClient.snapshotAndResetTimeCosts());
     }
 }
@@ -0,0 +1,165 @@
+import lombok.Builder;
+import lombok.Value;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+@Value
+@Builder(toBuilder = true)
+public class SampleClientOptions {
+    public final static SampleClientOptions DEFAULT = SampleClientOptions.builder().build();
+
+    /**
+     * base url of the FHIR server searched, e.g. the url of a FhirStubServer
+     */
+    @Builder.Default
+    String serverBase = "http://hapi.fhir.org/baseR4";
+
+    /**
+     * number of last names looked up at the same time by cacheLoadPatientsFromFile,
+     * 1 means the lookups run one after another on the caller thread
+     */
+    @Builder.Default
+    int concurrency = 1;
+
+    /**
+     * number of last names loaded at the same time by cacheLoadPatientsAsync, independent of concurrency.
+     * more misses queue until a loading thread is free, misses of a name already loading wait without holding a thread
+     */
+    @Builder.Default
+    int asyncThreads = 8;
+
+    /**
+     * number of last names OR-ed into one search (family=a,b,c) when several names are loaded together,
+     * 1 means one search per last name
+     */
+    @Builder.Default
+    int batchSize = 1;
+
+    /**
+     * number of patients per page requested from the server (_count), 0 leaves the page size to the server
+     */
+    @Builder.Default
+    int pageSize = 0;
+
+    /**
+     * number of result pages loaded in the background ahead of the page being read, 0 disables prefetching
+     */
+    @Builder.Default
+    int prefetchPages = 1;
+
+    /**
+     * time after which a cached search result is dropped and loaded again on the next lookup
+     */
+    @Builder.Default
+    Duration expireAfterWrite = Duration.ofSeconds(30L);
+
+    /**
+     * time after which a cached search result is revalidated in the background with a conditional search while still being served,
+     * null disables refreshing. it only takes effect when shorter than expireAfterWrite
+     */
+    @Builder.Default
+    Duration refreshAfterWrite = null;
+
+    /**
+     * time a search that found no patient is remembered, separately from expireAfterWrite, null disables it
+     * and empty results are then cached as any other. off by default, as longer than expireAfterWrite it would keep a patient
+     * created meanwhile hidden for longer than a changed one
+     */
+    @Builder.Default
+    Duration negativeTimeToLive = null;
+
+    /**
+     * estimated heap bytes the cached search results and their index may take, see PatientSearchResult.estimateBytes and
+     * PatientIndex.estimateBytes, 0 leaves the cache unbounded.
+     * once the cache is half full a last name is only cached after it was looked up a few times, see SampleClient.getAdmissionRejectedCount
+     */
+    @Builder.Default
+    long cacheMaxBytes = 0L;
+
+    /**
+     * file of the on disk second level cache behind the in memory cache, shared by all clients using the same file, null disables it
+     */
+    @Builder.Default
+    Path diskCachePath = null;
+
+    /**
+     * size of the disk cache file above which it is compacted
+     */
+    @Builder.Default
+    long diskCacheMaxBytes = 64L * 1024L * 1024L;
+
+    /**
+     * time a search result stored in the disk cache is served without going to the server
+     */
+    @Builder.Default
+    Duration diskCacheTimeToLive = Duration.ofHours(1L);
+
+    /**
+     * cache only a PatientSummary of each patient instead of the full resource,
+     * full resources are then read from the server on demand with SampleClient.readPatient
+     */
+    @Builder.Default
+    boolean projection = false;
+
+    /**
+     * how much of each patient the searches download and parse
+     */
+    @Builder.Default
+    FetchMode fetchMode = FetchMode.FULL;
+
+    /**
+     * limiter adjusting the number of requests in flight to the server from their latency, may be shared by several clients, null disables it
+     */
+    @Builder.Default
+    AdaptiveLimiter limiter = null;
+
+    /**
+     * percentile of the recent request latencies after which a search is sent a second time, the first answer being used.
+     * 0 disables hedging
+     */
+    @Builder.Default
+    double hedgePercentile = 0d;
+
+    /**
+     * highest ratio of hedged to sent searches
+     */
+    @Builder.Default
+    double hedgeBudget = 0.05d;
+
+    /**
+     * time between two polls of the status of a Bulk Data export, unless the server asks for another one with Retry-After
+     */
+    @Builder.Default
+    Duration bulkExportPollInterval = Duration.ofSeconds(2L);
+
+    /**
+     * time after which a Bulk Data export that is not complete is given up
+     */
+    @Builder.Default
+    Duration bulkExportTimeout = Duration.ofHours(1L);
+
+    /**
+     * name the client's metrics are registered under in JMX, as SampleClient:type=Client,name=[jmxName], null does not register them
+     */
+    @Builder.Default
+    String jmxName = null;
+
+    /**
+     * shortest time the request latencies published in JMX are computed over
+     */
+    @Builder.Default
+    Duration metricsWindow = Duration.ofMinutes(1L);
+
+    /**
+     * interval of the metrics reports, logged and appended to metricsCsvPath, null disables them
+     */
+    @Builder.Default
+    Duration metricsReportInterval = null;
+
+    /**
+     * CSV file the metrics reports are appended to, null only logs them
+     */
+    @Builder.Default
+    String metricsCsvPath = null;
+}
@@ -1,44 +1,84 @@
 import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.rest.client.apache.ApacheHttpRequest;
 import ca.uhn.fhir.rest.client.api.IClientInterceptor;
 import ca.uhn.fhir.rest.client.api.IHttpRequest;
 import ca.uhn.fhir.rest.client.api.IHttpResponse;
 import io.vavr.control.Try;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.HttpEntityWrapper;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
 
 @Slf4j
 @Interceptor
 public class TimeCostInterceptor implements IClientInterceptor {
+    private final static String CONTENT_LENGTH = "Content-Length";
 
     private final boolean logEnabled;
     private final LongAdder requestAdder;
-    private CopyOnWriteArrayList<Long> timeCosts;
-
+    private final LatencyHistogram timeCosts;
+    private final RequestMetrics requestMetrics;
+    /**
+     * operation of the request the thread is waiting a response for, null if none.
+     * the clients send a request and intercept its response on the same thread, and tell a request left without a response
+     * (connection failed or timed out) through requestFailed where the request throws
+     */
+    private final ThreadLocal<RequestMetrics.Operation> pending;
 
     public TimeCostInterceptor() {
         super();
         logEnabled = false;
         requestAdder = new LongAdder();
-        timeCosts = new CopyOnWriteArrayList<>();
+        timeCosts = new LatencyHistogram();
+        requestMetrics = new RequestMetrics();
+        pending = new ThreadLocal<>();
     }
 
     public TimeCostInterceptor(final boolean isVerbose) {
         logEnabled = isVerbose;
         requestAdder = new LongAdder();
-        timeCosts = new CopyOnWriteArrayList<>();
+        timeCosts = new LatencyHistogram();
+        requestMetrics = new RequestMetrics();
+        pending = new ThreadLocal<>();
     }
 
     public void resetTimeCosts() {
+        snapshotAndResetTimeCosts();
+    }
+
+    /**
+     * atomically take the time costs recorded since the last reset and start recording from scratch
+     *
+     * @return time costs in millis recorded since the last reset
+     */
+    public LatencySnapshot snapshotAndResetTimeCosts() {
         requestAdder.reset();
-        timeCosts = new CopyOnWriteArrayList<>();
+        return timeCosts.snapshotAndReset();
+    }
+
+    /**
+     * @return time costs in millis recorded since the last reset, without resetting them
+     */
+    public LatencySnapshot getTimeCosts() {
+        return timeCosts.snapshot();
+    }
+
+    /**
+     * @return counters of every request intercepted since this interceptor was created, never reset
+     */
+    public RequestMetrics getRequestMetrics() {
+        return requestMetrics;
     }
 
     public Double getAverageTimeCost() {
-        final double avgTimeCost = timeCosts.stream().mapToLong(l -> l).average().orElse(0d);
+        final double avgTimeCost = timeCosts.getMean();
         return avgTimeCost;
     }
 
@@ -46,6 +86,12 @@ public class TimeCostInterceptor implements IClientInterceptor {
     public void interceptRequest(final IHttpRequest theRequest) {
         if (Objects.nonNull(theRequest)) {
             requestAdder.add(1L);
+            pending.set(RequestMetrics.Operation.of(theRequest.getUri()));
+            if (theRequest instanceof ApacheHttpRequest) {
+                // a hedge cancelling the request closes its connection rather than let it run to completion
+                RequestHedger.onCancel(((ApacheHttpRequest) theRequest).getApacheRequest()::abort);
+            }
+            requestMetrics.requestSent();
             if (logEnabled) {
                 log.info("request number: {} started: {}", requestAdder.sum(), theRequest.getUri());
             }
@@ -54,6 +100,42 @@ public class TimeCostInterceptor implements IClientInterceptor {
         }
     }
 
+    /**
+     * count the request the thread sent as failed if it got no response, called by the clients where sending a request throws.
+     * a request whose response was intercepted already is not counted again
+     */
+    public void requestFailed() {
+        if (Objects.nonNull(pending.get())) {
+            pending.remove();
+            requestMetrics.requestFailed();
+        }
+    }
+
+    private static long contentLength(final IHttpResponse theResponse) {
+        final List<String> values = Try.of(() -> theResponse.getHeaders(CONTENT_LENGTH)).getOrNull();
+        if (Objects.isNull(values) || values.isEmpty()) {
+            return -1L;
+        }
+        return Try.of(() -> Long.parseLong(values.get(0).trim())).getOrElse(-1L);
+    }
+
+    /**
+     * count the body of a response without a Content-Length, sent chunked or decompressed by the client, as it is read.
+     * the apache client holds the body in the entity of its response, which every reader of the body gets the content of
+     */
+    private void countBody(final IHttpResponse theResponse) {
+        final Object response = theResponse.getResponse();
+        if (response instanceof HttpResponse && Objects.nonNull(((HttpResponse) response).getEntity())) {
+            final HttpResponse httpResponse = (HttpResponse) response;
+            httpResponse.setEntity(new HttpEntityWrapper(httpResponse.getEntity()) {
+                @Override
+                public InputStream getContent() throws IOException {
+                    return new CountingInputStream(super.getContent(), requestMetrics::bytesReceived);
+                }
+            });
+        }
+    }
+
     @Override
     public void interceptResponse(final IHttpResponse theResponse) throws IOException {
         if (Objects.nonNull(theResponse)) {
@@ -61,7 +143,19 @@ public class TimeCostInterceptor implements IClientInterceptor {
                 log.info("request number: {}, ended with status code: {}", requestAdder.sum(), theResponse.getStatus());
             }
             final Long timeCost = Try.of(() -> theResponse.getRequestStopWatch().getMillis()).getOrNull();
-            timeCosts.add(timeCost);
+            if (Objects.nonNull(timeCost)) {
+                timeCosts.record(timeCost);
+            } else {
+                log.error("failed to get time cost of request number: {}", requestAdder.sum());
+            }
+            final RequestMetrics.Operation operation = pending.get();
+            pending.remove();
+            final long bytes = contentLength(theResponse);
+            if (bytes < 0L) {
+                countBody(theResponse);
+            }
+            requestMetrics.responseReceived(Objects.nonNull(operation) ? operation : RequestMetrics.Operation.OTHER,
+                    theResponse.getStatus(), Objects.nonNull(timeCost) ? timeCost : -1L, bytes);
             if (logEnabled) {
                 log.info("request number: {}, time cost: {} millis", requestAdder.sum(), timeCost);
                 log.info("total requests: {}, average time cost: {} millis ", requestAdder.sum(), getAverageTimeCost());
@@ -70,4 +164,39 @@ public class TimeCostInterceptor implements IClientInterceptor {
             log.error("failed to get response");
         }
     }
+
+    /**
+     * input stream handing the number of bytes of every read to counter
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private final LongConsumer counter;
+
+        CountingInputStream(final InputStream in, final LongConsumer counter) {
+            super(in);
+            this.counter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int read = super.read();
+            if (read >= 0) {
+                counter.accept(1L);
+            }
+            return read;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int read = super.read(b, off, len);
+            counter.accept(read);
+            return read;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            final long skipped = super.skip(n);
+            counter.accept(skipped);
+            return skipped;
+        }
+    }
 }
@@ -5,18 +5,50 @@ import org.hl7.fhir.r4.model.HumanName;
 import org.hl7.fhir.r4.model.Patient;
 import org.hl7.fhir.r4.model.StringType;
 
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.text.Normalizer;
 import java.time.LocalDate;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Slf4j
 public class Util {
     public final static DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private final static Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private final static Pattern WHITESPACE = Pattern.compile("\\s+");
+    private final static int READ_BUFFER_CHARS = 64 * 1024;
+    /**
+     * number of distinct last names remembered by streamLastNames to skip the repeated ones, about 10 MB
+     */
+    final static int DEDUPLICATED_NAMES = 100_000;
+    private final static long MILLIS_PER_DAY = TimeUnit.DAYS.toMillis(1L);
+    /**
+     * captured once, TimeZone.getDefault() returns a copy on every call
+     */
+    private final static TimeZone DEFAULT_TIME_ZONE = TimeZone.getDefault();
+    private final static int FIRST_CACHED_DAY = (int) LocalDate.of(1900, 1, 1).toEpochDay();
+    private final static AtomicReferenceArray<String> DOB_CACHE = new AtomicReferenceArray<>((int) (LocalDate.of(2100, 1, 1).toEpochDay() - FIRST_CACHED_DAY));
 
     /**
      * given a Patient p, extract the first given name of its first name element, in other words, to extract p.name[0].given[0]
@@ -73,28 +105,60 @@ public class Util {
      * return empty string if first given name is not existing.
      */
     public static String extractFirstName(final Patient p) {
-        final String firstName = Optional.ofNullable(p)
-                .map(Patient::getName)
-                .orElse(ImmutableList.of())
-                .stream().findFirst()
-                .map(HumanName::getGiven)
-                .orElse(ImmutableList.of())
-                .stream()
-                .findFirst()
-                .map(StringType::getValueNotNull)
-                .orElse("");
-        return firstName;
+        // indexed reads instead of Optional and stream chains, this runs for every comparison of a sort
+        if (Objects.isNull(p)) {
+            return "";
+        }
+        final List<HumanName> names = p.getName();
+        if (names.isEmpty() || Objects.isNull(names.get(0))) {
+            return "";
+        }
+        final List<StringType> given = names.get(0).getGiven();
+        return given.isEmpty() || Objects.isNull(given.get(0)) ? "" : given.get(0).getValueNotNull();
     }
 
 
     public static String extractLastName(final Patient p) {
-        final String lastName = Optional.ofNullable(p)
-                .map(Patient::getName)
-                .orElse(ImmutableList.of())
-                .stream().findFirst()
-                .map(HumanName::getFamily)
-                .orElse("");
-        return lastName;
+        if (Objects.isNull(p)) {
+            return "";
+        }
+        final List<HumanName> names = p.getName();
+        if (names.isEmpty() || Objects.isNull(names.get(0))) {
+            return "";
+        }
+        final String lastName = names.get(0).getFamily();
+        return Objects.nonNull(lastName) ? lastName : "";
+    }
+
+    /**
+     * normalize a string the way a FHIR server compares string search parameters: accents removed and lower cased
+     *
+     * @param s string to normalize
+     * @return normalized string, empty string if s is null
+     */
+    public static String normalizeSearchString(final String s) {
+        if (Objects.isNull(s)) {
+            return "";
+        }
+        return DIACRITICS.matcher(Normalizer.normalize(s.trim(), Normalizer.Form.NFD)).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * check whether Patient p would be returned by a search of family=lastName,
+     * that is, one of its names has a family starting with lastName, ignoring case and accents
+     *
+     * @param p        patient to check
+     * @param lastName searched last name
+     * @return true if any p.name[].family starts with lastName
+     */
+    public static boolean matchesFamily(final Patient p, final String lastName) {
+        if (Objects.isNull(p) || !p.hasName()) {
+            return false;
+        }
+        final String prefix = normalizeSearchString(lastName);
+        return p.getName().stream()
+                .filter(HumanName::hasFamily)
+                .anyMatch(n -> normalizeSearchString(n.getFamily()).startsWith(prefix));
     }
 
     public static LocalDate dateToLocalDate(final Date date) {
@@ -106,17 +170,131 @@ public class Util {
     }
 
     public static String extractDob(final Patient p) {
-        final String dob = Optional.ofNullable(p)
-                .map(Patient::getBirthDate)
-                .flatMap(d -> Optional.ofNullable(dateToLocalDate(d)).map(ld -> ld.format(DATE_FORMAT)))
-                .orElse("");
-        return dob;
+        return formatEpochDay(extractBirthEpochDay(p));
+    }
+
+    /**
+     * the birth date of p as days since 1970-01-01 in the default time zone, as dateToLocalDate(p.birthDate).toEpochDay() would give,
+     * without its intermediate Instant, ZonedDateTime and LocalDate
+     *
+     * @param p patient
+     * @return birth date of p, PatientSummary.NO_BIRTH_DATE if p has none
+     */
+    public static int extractBirthEpochDay(final Patient p) {
+        if (Objects.isNull(p) || !p.hasBirthDateElement()) {
+            return PatientSummary.NO_BIRTH_DATE;
+        }
+        final Date birthDate = p.getBirthDate();
+        if (Objects.isNull(birthDate)) {
+            return PatientSummary.NO_BIRTH_DATE;
+        }
+        final long millis = birthDate.getTime();
+        return (int) Math.floorDiv(millis + DEFAULT_TIME_ZONE.getOffset(millis), MILLIS_PER_DAY);
     }
 
+    /**
+     * format a date as yyyy-MM-dd, the strings of the dates from 1900 to 2099 are made once and reused
+     *
+     * @param epochDay days since 1970-01-01, PatientSummary.NO_BIRTH_DATE for no date
+     * @return formatted date, empty string for PatientSummary.NO_BIRTH_DATE
+     */
+    public static String formatEpochDay(final int epochDay) {
+        if (epochDay == PatientSummary.NO_BIRTH_DATE) {
+            return "";
+        }
+        final int index = epochDay - FIRST_CACHED_DAY;
+        if (index < 0 || index >= DOB_CACHE.length()) {
+            return LocalDate.ofEpochDay(epochDay).format(DATE_FORMAT);
+        }
+        String dob = DOB_CACHE.get(index);
+        if (Objects.isNull(dob)) {
+            dob = LocalDate.ofEpochDay(epochDay).format(DATE_FORMAT);
+            DOB_CACHE.lazySet(index, dob);
+        }
+        return dob;
+    }
 
     public static List<String> readLines(final String file) {
-        return Try.of(() -> Files.readAllLines(Paths.get(ClassLoader.getSystemResource(file).toURI())))
+        try (final Stream<String> lines = streamLines(file)) {
+            return Try.of(() -> lines.collect(Collectors.toList()))
+                    .onFailure(t -> log.error("unable to read lines from file: {}", file, t))
+                    .getOrElse(ImmutableList.of());
+        }
+    }
+
+    /**
+     * read the lines of a file lazily through a buffer, so a file of any size is read in constant memory.
+     * file is looked up on the file system first, then as a resource of the class path, which can be inside a jar.
+     * the stream should be closed to close the file.
+     *
+     * @param file path of the file or name of the resource
+     * @return lines of file, empty stream if it cannot be opened
+     */
+    public static Stream<String> streamLines(final String file) {
+        return Try.of(() -> openLines(file))
                 .onFailure(t -> log.error("unable to read lines from file: {}", file, t))
-                .getOrElse(ImmutableList.of());
+                .getOrElseGet(t -> Stream.empty());
+    }
+
+    private static Stream<String> openLines(final String file) throws IOException {
+        final Path path = Paths.get(file);
+        if (Files.isRegularFile(path)) {
+            return Files.lines(path, StandardCharsets.UTF_8);
+        }
+        final InputStream resource = Util.class.getClassLoader().getResourceAsStream(file);
+        if (Objects.isNull(resource)) {
+            throw new FileNotFoundException(file);
+        }
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(resource, StandardCharsets.UTF_8), READ_BUFFER_CHARS);
+        return reader.lines().onClose(() -> Try.run(reader::close));
+    }
+
+    /**
+     * stream the last names of a file as it is read: names trimmed, inner white space collapsed, blank lines skipped,
+     * and names seen among the last DEDUPLICATED_NAMES distinct names of the file skipped, ignoring case and accents as the searches do.
+     * memory stays bounded however large the file, a name repeated further apart is streamed again, its lookup then mostly
+     * hitting the cache.
+     *
+     * @param file path of the file or name of the resource, one last name per line
+     * @return last names in the order of the file, empty stream if it cannot be opened
+     */
+    public static Stream<String> streamLastNames(final String file) {
+        return streamLastNames(file, DEDUPLICATED_NAMES);
+    }
+
+    static Stream<String> streamLastNames(final String file, final int deduplicated) {
+        // the least recently seen names are forgotten first
+        final Map<String, Boolean> seen = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest) {
+                return size() > deduplicated;
+            }
+        };
+        return streamLines(file)
+                .map(Util::normalizeLastName)
+                .filter(name -> !name.isEmpty() && Objects.isNull(seen.put(normalizeSearchString(name), Boolean.TRUE)));
+    }
+
+    /**
+     * canonical form of a last name as a cache key: the names a search of family matches the same way share their key,
+     * e.g. "Smith", "SMITH" and " smith " all give "smith"
+     *
+     * @param lastName last name
+     * @return lastName normalized by normalizeLastName then normalizeSearchString, empty string if lastName is null
+     */
+    public static String lastNameKey(final String lastName) {
+        return normalizeSearchString(normalizeLastName(lastName));
+    }
+
+    /**
+     * @param line line of a file of last names
+     * @return the last name of line, trimmed, with runs of white space collapsed to one space and without a byte order mark
+     */
+    public static String normalizeLastName(final String line) {
+        if (Objects.isNull(line)) {
+            return "";
+        }
+        final String name = line.startsWith("\uFEFF") ? line.substring(1) : line;
+        return WHITESPACE.matcher(name.trim()).replaceAll(" ");
     }
 }
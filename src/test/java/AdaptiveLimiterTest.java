@@ -0,0 +1,116 @@
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import lombok.extern.slf4j.Slf4j;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
+public class AdaptiveLimiterTest {
+
+    @Test
+    public void testCall01() throws Exception {
+        final AdaptiveLimiter limiter = new AdaptiveLimiter(2, 10, 0, Duration.ZERO);
+        Assertions.assertThat(limiter.call(() -> "ok")).isEqualTo("ok");
+        Assertions.assertThat(limiter.getLimit()).isEqualTo(3);
+        Assertions.assertThat(limiter.getInFlight()).isZero();
+    }
+
+    @Test
+    public void testCall02() {
+        final AdaptiveLimiter limiter = new AdaptiveLimiter(10, 10, 0, Duration.ZERO);
+        Assertions.assertThatThrownBy(() -> limiter.call(() -> {
+            throw new InternalErrorException("overloaded");
+        })).isInstanceOf(InternalErrorException.class);
+        Assertions.assertThat(limiter.getLimit()).isEqualTo(9);
+        Assertions.assertThat(limiter.getOverloadCount()).isEqualTo(1L);
+        Assertions.assertThat(limiter.getInFlight()).isZero();
+    }
+
+    @Test
+    public void testCall03() {
+        final AdaptiveLimiter limiter = new AdaptiveLimiter(10, 10, 0, Duration.ZERO);
+        Assertions.assertThatThrownBy(() -> limiter.call(() -> {
+            throw new ResourceNotFoundException("missing");
+        })).isInstanceOf(ResourceNotFoundException.class);
+        Assertions.assertThat(limiter.getLimit()).isEqualTo(10);
+        Assertions.assertThat(limiter.getOverloadCount()).isZero();
+    }
+
+    @Test
+    public void testCall04() throws Exception {
+        final AdaptiveLimiter limiter = new AdaptiveLimiter(1, 1, 0, Duration.ofSeconds(1L));
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        final CompletableFuture<String> holder = CompletableFuture.supplyAsync(() -> {
+            try {
+                return limiter.call(() -> {
+                    started.countDown();
+                    finish.await();
+                    return "held";
+                });
+            } catch (final Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        started.await();
+        Assertions.assertThat(limiter.getInFlight()).isEqualTo(1);
+        Assertions.assertThatThrownBy(() -> limiter.call(() -> "rejected")).isInstanceOf(RejectedExecutionException.class);
+        Assertions.assertThat(limiter.getRejectedCount()).isEqualTo(1L);
+        finish.countDown();
+        Assertions.assertThat(holder.get(5L, TimeUnit.SECONDS)).isEqualTo("held");
+    }
+
+    @Test
+    public void testCall05() throws Exception {
+        final AdaptiveLimiter limiter = new AdaptiveLimiter(1, 1, 1, Duration.ofSeconds(5L));
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        final CompletableFuture<String> holder = CompletableFuture.supplyAsync(() -> {
+            try {
+                return limiter.call(() -> {
+                    started.countDown();
+                    finish.await();
+                    return "held";
+                });
+            } catch (final Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        started.await();
+        final CompletableFuture<String> waiter = CompletableFuture.supplyAsync(() -> {
+            try {
+                return limiter.call(() -> "queued");
+            } catch (final Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        while (limiter.getQueueDepth() == 0) {
+            Thread.yield();
+        }
+        Assertions.assertThat(limiter.getQueueDepth()).isEqualTo(1);
+        finish.countDown();
+        Assertions.assertThat(holder.get(5L, TimeUnit.SECONDS)).isEqualTo("held");
+        Assertions.assertThat(waiter.get(5L, TimeUnit.SECONDS)).isEqualTo("queued");
+        Assertions.assertThat(limiter.getQueueDepth()).isZero();
+    }
+
+    @Test
+    public void testCall06() {
+        // a request interrupted by its caller frees its slot without cutting the limit, however slow or failed it was
+        final AdaptiveLimiter limiter = new AdaptiveLimiter(10, 10, 0, Duration.ZERO);
+        Assertions.assertThatThrownBy(() -> limiter.call(() -> {
+            Thread.currentThread().interrupt();
+            throw new InternalErrorException("aborted");
+        })).isInstanceOf(InternalErrorException.class);
+        Assertions.assertThat(Thread.interrupted()).isTrue();
+        Assertions.assertThat(limiter.getLimit()).isEqualTo(10);
+        Assertions.assertThat(limiter.getOverloadCount()).isZero();
+        Assertions.assertThat(limiter.getInFlight()).isZero();
+    }
+}
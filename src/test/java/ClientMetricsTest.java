@@ -0,0 +1,117 @@
+import io.vavr.control.Try;
+import org.assertj.core.api.Assertions;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+
+public class ClientMetricsTest {
+    private static FhirStubServer server;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        server = new FhirStubServer(FhirStubServer.generate(42L, Util.readLines("names.txt"), 2), 42L).start();
+        server.setLatency(FhirStubServer.Latency.fixed(2L));
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testRegister01() throws Exception {
+        final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName clientName = new ObjectName("SampleClient:type=Client,name=\"test-01\"");
+        final ObjectName searchName = new ObjectName("SampleClient:type=Operation,client=\"test-01\",name=search");
+        final SampleClient sampleClient = new SampleClient(SampleClientOptions.builder().serverBase(server.getBaseUrl()).jmxName("test-01").metricsWindow(Duration.ofHours(1L)).build());
+        Assertions.assertThat(mbeanServer.isRegistered(clientName)).isTrue();
+        Assertions.assertThat(mbeanServer.queryNames(new ObjectName("SampleClient:type=Operation,client=\"test-01\",*"), null)).hasSize(RequestMetrics.Operation.values().length);
+
+        sampleClient.cacheLoadPatients("Smith");
+        sampleClient.cacheLoadPatients("Smith");
+        server.failNext(500, 1);
+        sampleClient.cacheLoadPatients("Jones");
+        Assertions.assertThat((Long) mbeanServer.getAttribute(clientName, "RequestCount")).isEqualTo(2L);
+        Assertions.assertThat((Long) mbeanServer.getAttribute(clientName, "InFlight")).isEqualTo(0L);
+        Assertions.assertThat((Long) mbeanServer.getAttribute(clientName, "Status2xxCount")).isEqualTo(1L);
+        Assertions.assertThat((Long) mbeanServer.getAttribute(clientName, "Status5xxCount")).isEqualTo(1L);
+        Assertions.assertThat((Long) mbeanServer.getAttribute(clientName, "BytesReceived")).isPositive();
+        Assertions.assertThat((Long) mbeanServer.getAttribute(clientName, "CacheHitCount")).isEqualTo(1L);
+        Assertions.assertThat((Double) mbeanServer.getAttribute(clientName, "CacheHitRate")).isEqualTo(1d / 3d);
+        Assertions.assertThat((Long) mbeanServer.getAttribute(searchName, "Count")).isEqualTo(2L);
+        Assertions.assertThat((Long) mbeanServer.getAttribute(searchName, "ErrorCount")).isEqualTo(1L);
+        // within the first window, the latencies recorded so far
+        Assertions.assertThat((Long) mbeanServer.getAttribute(searchName, "WindowCount")).isEqualTo(2L);
+        Assertions.assertThat((Long) mbeanServer.getAttribute(searchName, "P99Millis")).isGreaterThanOrEqualTo(2L);
+
+        sampleClient.close();
+        Assertions.assertThat(mbeanServer.isRegistered(clientName)).isFalse();
+        Assertions.assertThat(mbeanServer.isRegistered(searchName)).isFalse();
+    }
+
+    @Test
+    public void testRegister02() throws Exception {
+        final SampleClient sampleClient = new SampleClient(SampleClientOptions.builder().serverBase(server.getBaseUrl()).jmxName("test-02").build());
+        // a name taken is skipped, the client still works
+        final SampleClient duplicate = new SampleClient(SampleClientOptions.builder().serverBase(server.getBaseUrl()).jmxName("test-02").build());
+        Assertions.assertThat(duplicate.cacheLoadPatients("Smith")).hasSize(2);
+        duplicate.close();
+        sampleClient.close();
+    }
+
+    @Test
+    public void testRegister03() throws Exception {
+        final FhirStubServer closed = new FhirStubServer(FhirStubServer.generate(42L, Util.readLines("names.txt"), 1), 42L).start();
+        closed.close();
+        for (final FetchMode fetchMode : FetchMode.values()) {
+            final SampleClient sampleClient = new SampleClient(SampleClientOptions.builder().serverBase(closed.getBaseUrl()).fetchMode(fetchMode).build());
+            Try.of(() -> sampleClient.cacheLoadPatients("Smith"));
+            // counted when the connection fails, not when the thread sends its next request
+            final RequestMetrics metrics = sampleClient.getRequestMetrics();
+            Assertions.assertThat(metrics.getRequestCount()).as(fetchMode.name()).isPositive();
+            Assertions.assertThat(metrics.getNoResponseCount()).as(fetchMode.name()).isEqualTo(metrics.getRequestCount());
+            Assertions.assertThat(metrics.getInFlight()).as(fetchMode.name()).isZero();
+            sampleClient.close();
+        }
+    }
+
+    @Test
+    public void testRegister04() throws Exception {
+        try (final FhirStubServer chunked = new FhirStubServer(FhirStubServer.generate(42L, Util.readLines("names.txt"), 2), 42L).start()) {
+            chunked.setChunked(true);
+            for (final FetchMode fetchMode : FetchMode.values()) {
+                final SampleClient fixedClient = new SampleClient(SampleClientOptions.builder().serverBase(server.getBaseUrl()).fetchMode(fetchMode).build());
+                final SampleClient chunkedClient = new SampleClient(SampleClientOptions.builder().serverBase(chunked.getBaseUrl()).fetchMode(fetchMode).build());
+                Assertions.assertThat(fixedClient.cacheLoadPatients("Smith")).hasSize(2);
+                Assertions.assertThat(chunkedClient.cacheLoadPatients("Smith")).hasSize(2);
+                // without a Content-Length, the body is counted as it is read, to the same bytes
+                Assertions.assertThat(chunkedClient.getRequestMetrics().getBytesReceived()).as(fetchMode.name())
+                        .isPositive().isEqualTo(fixedClient.getRequestMetrics().getBytesReceived());
+                fixedClient.close();
+                chunkedClient.close();
+            }
+        }
+    }
+
+    @Test
+    public void testOperationMetrics01() throws Exception {
+        final RequestMetrics metrics = new RequestMetrics();
+        final OperationMetrics view = new OperationMetrics(metrics, RequestMetrics.Operation.READ, Duration.ofMillis(100L));
+        metrics.responseReceived(RequestMetrics.Operation.READ, 200, 100L, 10L);
+        Assertions.assertThat(view.getWindowCount()).isEqualTo(1L);
+        Thread.sleep(150L);
+        metrics.responseReceived(RequestMetrics.Operation.READ, 200, 5L, 10L);
+        // the window rolls, covering both responses since the view was created
+        Assertions.assertThat(view.getWindowCount()).isEqualTo(2L);
+        Thread.sleep(150L);
+        metrics.responseReceived(RequestMetrics.Operation.READ, 200, 5L, 10L);
+        Assertions.assertThat(view.getWindowCount()).isEqualTo(1L);
+        Assertions.assertThat(view.getMaxMillis()).isEqualTo(5L);
+        Assertions.assertThat(view.getCount()).isEqualTo(3L);
+    }
+}
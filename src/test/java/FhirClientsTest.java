@@ -0,0 +1,41 @@
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.api.ServerValidationModeEnum;
+import lombok.extern.slf4j.Slf4j;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import java.time.Duration;
+
+@Slf4j
+public class FhirClientsTest {
+
+    @Test
+    public void testContext01() {
+        Assertions.assertThat(FhirClients.context()).isSameAs(FhirClients.context());
+        Assertions.assertThat(FhirClients.context().getRestfulClientFactory().getServerValidationMode()).isEqualTo(ServerValidationModeEnum.NEVER);
+    }
+
+    @Test
+    public void testWarmUp01() {
+        final Duration first = FhirClients.warmUp();
+        final Duration second = FhirClients.warmUp();
+        Assertions.assertThat(first.isNegative()).isFalse();
+        Assertions.assertThat(second).isSameAs(first);
+    }
+
+    @Test
+    public void testNewClient01() {
+        final IGenericClient client1 = FhirClients.newClient("http://localhost:1/baseR4", 1);
+        final IGenericClient client2 = FhirClients.newClient("http://localhost:1/baseR4", 1);
+        Assertions.assertThat(client1).isNotSameAs(client2);
+        Assertions.assertThat(client1.getFhirContext()).isSameAs(FhirClients.context());
+        Assertions.assertThat(client1.getServerBase()).isEqualTo("http://localhost:1/baseR4");
+    }
+
+    @Test
+    public void testNewClient02() {
+        FhirClients.newClient("http://localhost:1/baseR4", 64);
+        Assertions.assertThat(FhirClients.context().getRestfulClientFactory().getPoolMaxPerRoute()).isGreaterThanOrEqualTo(64);
+        Assertions.assertThat(FhirClients.context().getRestfulClientFactory().getPoolMaxTotal()).isGreaterThanOrEqualTo(64);
+    }
+}
@@ -0,0 +1,619 @@
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.util.DateUtils;
+import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.vavr.control.Try;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.DateType;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Resource;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * in process stand-in of a FHIR R4 server for the patient searches of SampleClient, serving a fixed dataset so results and timings are reproducible.
+ * <ul>
+ * <li>GET [base]/Patient?family=a,b&_count=n&_elements=..&_sort=given searches the patients whose family name starts with a or b,
+ * ignoring case and accents, as HAPI does</li>
+ * <li>GET [base]?_getpages=id&_getpagesoffset=n&_count=n pages through a search, following the next link of its Bundle</li>
+ * <li>GET [base]/Patient/id reads a patient</li>
+ * <li>GET [base]/Patient/$export with Prefer: respond-async starts a FHIR Bulk Data export of the patients, its status url answers 202
+ * to the first poll then the manifest of its NDJSON files, of setExportFilePatients patients each</li>
+ * </ul>
+ * a search Bundle carries the version of the dataset as meta.versionId and ETag, a search sent again with If-None-Match of the current version,
+ * or with If-Modified-Since no older than its patients, is answered 304.
+ * the latency of every request is drawn from a programmable distribution, and errors can be injected at a rate or one by one.
+ * <p>
+ * the JDK server sends the headers and the body of a response in separate writes, so without TCP_NODELAY the body waits for the client
+ * to acknowledge the headers, about 40 millis with a delayed ACK. run timings with -Dsun.net.httpserver.nodelay=true, as the tests do.
+ */
+@Slf4j
+public class FhirStubServer implements AutoCloseable {
+    public final static String BASE_PATH = "/baseR4";
+    public final static int DEFAULT_PAGE_SIZE = 20;
+    public final static int DEFAULT_EXPORT_FILE_PATIENTS = 1000;
+    private final static String EXPORT_STATUS_PATH = "/$export-status/";
+    private final static String EXPORT_FILE_PATH = "/$export-file/";
+    private final static List<String> GIVEN_NAMES = ImmutableList.of(
+            "James", "Mary", "John", "Patricia", "Robert", "Jennifer", "Michael", "Linda", "William", "Elizabeth",
+            "David", "Barbara", "Richard", "Susan", "Joseph", "Jessica", "Thomas", "Sarah", "Charles", "Karen");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Random random;
+    private final Cache<String, Search> searches;
+    private final Cache<String, Export> exports;
+    private final AtomicLong searchIds;
+    private final AtomicLong version;
+    private final Queue<Integer> failures;
+    private final LongAdder requestAdder;
+    private final LongAdder searchAdder;
+    private final LongAdder pageAdder;
+    private final LongAdder readAdder;
+    private final LongAdder notModifiedAdder;
+    private final LongAdder errorAdder;
+    private final LongAdder exportAdder;
+    private volatile List<Patient> patients;
+    private volatile Latency latency;
+    private volatile double errorRate;
+    private volatile int errorStatus;
+    private volatile int defaultPageSize;
+    private volatile int exportFilePatients;
+    private volatile boolean chunked;
+
+    /**
+     * @param patients dataset served, see {@link #generate(long, List, int)}
+     * @param seed     seed of the random latencies and errors
+     */
+    public FhirStubServer(@NonNull final List<Patient> patients, final long seed) throws IOException {
+        this.patients = ImmutableList.copyOf(patients);
+        random = new Random(seed);
+        searches = CacheBuilder.newBuilder().maximumSize(1000L).expireAfterAccess(10L, TimeUnit.MINUTES).build();
+        exports = CacheBuilder.newBuilder().maximumSize(100L).expireAfterAccess(10L, TimeUnit.MINUTES).build();
+        searchIds = new AtomicLong();
+        version = new AtomicLong(1L);
+        failures = new ConcurrentLinkedQueue<>();
+        requestAdder = new LongAdder();
+        searchAdder = new LongAdder();
+        pageAdder = new LongAdder();
+        readAdder = new LongAdder();
+        notModifiedAdder = new LongAdder();
+        errorAdder = new LongAdder();
+        exportAdder = new LongAdder();
+        latency = Latency.none();
+        errorStatus = 503;
+        defaultPageSize = DEFAULT_PAGE_SIZE;
+        exportFilePatients = DEFAULT_EXPORT_FILE_PATIENTS;
+        // a thread per request in flight, so slow answers overlap as they would on a real server
+        executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("fhir-stub-%d").setDaemon(true).build());
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(BASE_PATH, this::handle);
+        server.setExecutor(executor);
+    }
+
+    /**
+     * generate a dataset of patients, the same for the same arguments.
+     * birth dates are spread over 1930 to 2020, and a few patients have no given name or no birth date.
+     *
+     * @param seed             seed of the random names and dates
+     * @param lastNames        family names of the patients
+     * @param patientsPerName  number of patients of each family name
+     * @return patients with ids stub-0, stub-1, ...
+     */
+    public static List<Patient> generate(final long seed, @NonNull final List<String> lastNames, final int patientsPerName) {
+        final Random random = new Random(seed);
+        final long firstDay = LocalDate.of(1930, 1, 1).toEpochDay();
+        final long lastDay = LocalDate.of(2020, 12, 31).toEpochDay();
+        final long firstUpdate = Instant.parse("2020-01-01T00:00:00Z").getEpochSecond();
+        final List<Patient> patients = new ArrayList<>();
+        for (final String lastName : lastNames) {
+            for (int i = 0; i < patientsPerName; i++) {
+                final Patient patient = new Patient();
+                patient.setId("stub-" + patients.size());
+                patient.getMeta().setVersionId("1").setLastUpdated(Date.from(Instant.ofEpochSecond(firstUpdate + random.nextInt(365 * 24 * 3600))));
+                final String given = GIVEN_NAMES.get(random.nextInt(GIVEN_NAMES.size()));
+                final boolean hasGiven = random.nextInt(100) >= 3;
+                final boolean hasBirthDate = random.nextInt(100) >= 5;
+                final long birthDay = firstDay + (long) (random.nextDouble() * (lastDay - firstDay));
+                if (hasGiven) {
+                    patient.addName().setFamily(lastName).addGiven(given);
+                } else {
+                    patient.addName().setFamily(lastName);
+                }
+                if (hasBirthDate) {
+                    patient.setBirthDateElement(new DateType(LocalDate.ofEpochDay(birthDay).toString()));
+                }
+                patients.add(patient);
+            }
+        }
+        return patients;
+    }
+
+    public FhirStubServer start() {
+        server.start();
+        log.info("FHIR stub server started at {}", getBaseUrl());
+        return this;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return base url of the server, e.g. http://127.0.0.1:port/baseR4
+     */
+    public String getBaseUrl() {
+        return "http://" + server.getAddress().getAddress().getHostAddress() + ":" + server.getAddress().getPort() + BASE_PATH;
+    }
+
+    /**
+     * replace the served dataset, which changes its version, so the next conditional searches are answered in full
+     */
+    public void setPatients(@NonNull final List<Patient> patients) {
+        this.patients = ImmutableList.copyOf(patients);
+        version.incrementAndGet();
+    }
+
+    public List<Patient> getPatients() {
+        return patients;
+    }
+
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * @param latency distribution of the time every request waits before being answered
+     */
+    public void setLatency(@NonNull final Latency latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * @param errorRate   ratio of requests answered with errorStatus instead of their result
+     * @param errorStatus status of the injected errors, e.g. 429 or 503
+     */
+    public void setErrorRate(final double errorRate, final int errorStatus) {
+        this.errorRate = errorRate;
+        this.errorStatus = errorStatus;
+    }
+
+    /**
+     * answer the next times requests with status, before the errors injected at errorRate
+     */
+    public void failNext(final int status, final int times) {
+        for (int i = 0; i < times; i++) {
+            failures.add(status);
+        }
+    }
+
+    /**
+     * @param defaultPageSize number of patients per page of a search without _count
+     */
+    public void setDefaultPageSize(final int defaultPageSize) {
+        this.defaultPageSize = defaultPageSize;
+    }
+
+    /**
+     * @param exportFilePatients number of patients per NDJSON file of an export
+     */
+    public void setExportFilePatients(final int exportFilePatients) {
+        this.exportFilePatients = exportFilePatients;
+    }
+
+    /**
+     * @param chunked whether the resources are sent chunked, without a Content-Length, as servers streaming them do
+     */
+    public void setChunked(final boolean chunked) {
+        this.chunked = chunked;
+    }
+
+    public long getRequestCount() {
+        return requestAdder.sum();
+    }
+
+    /**
+     * @return number of searches answered in full, without the 304 and the injected errors
+     */
+    public long getSearchCount() {
+        return searchAdder.sum();
+    }
+
+    public long getPageCount() {
+        return pageAdder.sum();
+    }
+
+    public long getReadCount() {
+        return readAdder.sum();
+    }
+
+    public long getNotModifiedCount() {
+        return notModifiedAdder.sum();
+    }
+
+    public long getErrorCount() {
+        return errorAdder.sum();
+    }
+
+    /**
+     * @return number of exports started
+     */
+    public long getExportCount() {
+        return exportAdder.sum();
+    }
+
+    public void resetCounts() {
+        requestAdder.reset();
+        searchAdder.reset();
+        pageAdder.reset();
+        readAdder.reset();
+        notModifiedAdder.reset();
+        errorAdder.reset();
+        exportAdder.reset();
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try {
+            requestAdder.increment();
+            final long delay = latency.nextMillis(random);
+            if (delay > 0L) {
+                TimeUnit.MILLISECONDS.sleep(delay);
+            }
+            final Integer injected = Optional.ofNullable(failures.poll()).orElseGet(() -> errorRate > 0d && random.nextDouble() < errorRate ? errorStatus : null);
+            if (Objects.nonNull(injected)) {
+                errorAdder.increment();
+                respondError(exchange, injected, "injected error");
+                return;
+            }
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                respondError(exchange, 405, "unsupported method: " + exchange.getRequestMethod());
+                return;
+            }
+
+            final String path = exchange.getRequestURI().getPath().substring(BASE_PATH.length());
+            final Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            if ((path.isEmpty() || "/".equals(path)) && params.containsKey("_getpages")) {
+                page(exchange, params);
+            } else if ("/Patient".equals(path) || "/Patient/".equals(path)) {
+                search(exchange, params);
+            } else if ("/Patient/$export".equals(path)) {
+                export(exchange);
+            } else if (path.startsWith(EXPORT_STATUS_PATH)) {
+                exportStatus(exchange, path.substring(EXPORT_STATUS_PATH.length()));
+            } else if (path.startsWith(EXPORT_FILE_PATH)) {
+                exportFile(exchange, path.substring(EXPORT_FILE_PATH.length()));
+            } else if (path.startsWith("/Patient/")) {
+                read(exchange, path.substring("/Patient/".length()));
+            } else {
+                respondError(exchange, 404, "unknown path: " + path);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final RuntimeException e) {
+            log.error("failed to handle request: {}", exchange.getRequestURI(), e);
+            respondError(exchange, 500, String.valueOf(e.getMessage()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void search(final HttpExchange exchange, final Map<String, String> params) throws IOException {
+        final List<Patient> dataset = patients;
+        final String etag = "W/\"" + version.get() + "\"";
+        final List<String> families = Splitter.on(',').omitEmptyStrings().trimResults().splitToList(params.getOrDefault("family", ""));
+        final Comparator<Patient> order = params.getOrDefault("_sort", "").contains("given")
+                ? Comparator.comparing(Util::extractFirstName)
+                : (a, b) -> 0;
+        final List<Patient> matches = dataset.stream()
+                .filter(p -> families.isEmpty() || families.stream().anyMatch(f -> Util.matchesFamily(p, f)))
+                .sorted(order)
+                .collect(Collectors.toList());
+
+        if (isNotModified(exchange, etag, matches)) {
+            notModifiedAdder.increment();
+            exchange.getResponseHeaders().set(Constants.HEADER_ETAG, etag);
+            exchange.sendResponseHeaders(304, -1L);
+            return;
+        }
+
+        searchAdder.increment();
+        final int count = parseCount(params);
+        final Search search = new Search(String.valueOf(searchIds.incrementAndGet()), matches, params.containsKey("_elements"), String.valueOf(version.get()));
+        if (matches.size() > count) {
+            searches.put(search.getId(), search);
+        }
+        exchange.getResponseHeaders().set(Constants.HEADER_ETAG, etag);
+        respond(exchange, 200, bundle(search, 0, count));
+    }
+
+    private void page(final HttpExchange exchange, final Map<String, String> params) throws IOException {
+        final Search search = searches.getIfPresent(params.get("_getpages"));
+        if (Objects.isNull(search)) {
+            respondError(exchange, 410, "search expired: " + params.get("_getpages"));
+            return;
+        }
+        pageAdder.increment();
+        final int offset = Try.of(() -> Integer.parseInt(params.get("_getpagesoffset"))).getOrElse(0);
+        respond(exchange, 200, bundle(search, Math.max(0, offset), parseCount(params)));
+    }
+
+    private void read(final HttpExchange exchange, final String id) throws IOException {
+        final Optional<Patient> patient = patients.stream().filter(p -> id.equals(p.getIdElement().getIdPart())).findFirst();
+        if (!patient.isPresent()) {
+            respondError(exchange, 404, "unknown patient: " + id);
+            return;
+        }
+        readAdder.increment();
+        respond(exchange, 200, patient.get());
+    }
+
+    /**
+     * kick-off of a Bulk Data export: the patients of the moment are exported, whatever setPatients does afterwards
+     */
+    private void export(final HttpExchange exchange) throws IOException {
+        if (!String.valueOf(exchange.getRequestHeaders().getFirst(Constants.HEADER_PREFER)).contains(Constants.HEADER_PREFER_RESPOND_ASYNC)) {
+            respondError(exchange, 400, "an export requires Prefer: " + Constants.HEADER_PREFER_RESPOND_ASYNC);
+            return;
+        }
+        exportAdder.increment();
+        final Export export = new Export(String.valueOf(searchIds.incrementAndGet()), patients, new Date(), exportFilePatients,
+                getBaseUrl() + "/Patient/$export", new AtomicInteger());
+        exports.put(export.getId(), export);
+        exchange.getResponseHeaders().set(Constants.HEADER_CONTENT_LOCATION, getBaseUrl() + EXPORT_STATUS_PATH + export.getId());
+        exchange.sendResponseHeaders(202, -1L);
+    }
+
+    /**
+     * status of an export: still in progress on the first poll, then complete with the manifest of its files
+     */
+    private void exportStatus(final HttpExchange exchange, final String id) throws IOException {
+        final Export export = exports.getIfPresent(id);
+        if (Objects.isNull(export)) {
+            respondError(exchange, 404, "unknown export: " + id);
+            return;
+        }
+        if (export.getPolls().getAndIncrement() == 0) {
+            exchange.getResponseHeaders().set(Constants.HEADER_X_PROGRESS, "in progress");
+            exchange.sendResponseHeaders(202, -1L);
+            return;
+        }
+        final StringWriter manifest = new StringWriter();
+        try (final JsonWriter json = new JsonWriter(manifest)) {
+            json.beginObject();
+            json.name("transactionTime").value(export.getTransactionTime().toInstant().toString());
+            json.name("request").value(export.getRequest());
+            json.name("requiresAccessToken").value(false);
+            json.name("output").beginArray();
+            for (int file = 0; file * export.getFilePatients() < export.getPatients().size(); file++) {
+                final int count = Math.min(export.getFilePatients(), export.getPatients().size() - file * export.getFilePatients());
+                json.beginObject()
+                        .name("type").value("Patient")
+                        .name("url").value(getBaseUrl() + EXPORT_FILE_PATH + id + "/" + file)
+                        .name("count").value(count)
+                        .endObject();
+            }
+            json.endArray();
+            json.name("error").beginArray().endArray();
+            json.endObject();
+        }
+        final byte[] body = manifest.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set(Constants.HEADER_CONTENT_TYPE, Constants.CT_JSON + Constants.CHARSET_UTF8_CTSUFFIX);
+        exchange.sendResponseHeaders(200, body.length);
+        try (final OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * one NDJSON file of an export, a patient per line, written as it is encoded
+     */
+    private void exportFile(final HttpExchange exchange, final String path) throws IOException {
+        final int slash = path.indexOf('/');
+        final Export export = slash > 0 ? exports.getIfPresent(path.substring(0, slash)) : null;
+        final int file = slash > 0 ? Try.of(() -> Integer.parseInt(path.substring(slash + 1))).getOrElse(-1) : -1;
+        if (Objects.isNull(export) || file < 0 || file * export.getFilePatients() >= export.getPatients().size()) {
+            respondError(exchange, 404, "unknown export file: " + path);
+            return;
+        }
+        final List<Patient> exported = export.getPatients();
+        final IParser parser = FhirClients.context().newJsonParser();
+        exchange.getResponseHeaders().set(Constants.HEADER_CONTENT_TYPE, Constants.CT_FHIR_NDJSON + Constants.CHARSET_UTF8_CTSUFFIX);
+        exchange.sendResponseHeaders(200, 0L);
+        try (final Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+            for (int i = file * export.getFilePatients(); i < Math.min(exported.size(), (file + 1) * export.getFilePatients()); i++) {
+                out.write(parser.encodeResourceToString(exported.get(i)));
+                out.write('\n');
+            }
+        }
+    }
+
+    /**
+     * If-None-Match takes precedence over If-Modified-Since, as in RFC 7232
+     */
+    private static boolean isNotModified(final HttpExchange exchange, final String etag, final List<Patient> matches) {
+        final String ifNoneMatch = exchange.getRequestHeaders().getFirst(Constants.HEADER_IF_NONE_MATCH);
+        if (Objects.nonNull(ifNoneMatch)) {
+            return Splitter.on(',').trimResults().splitToList(ifNoneMatch).stream().anyMatch(tag -> opaque(tag).equals(opaque(etag)));
+        }
+        final String ifModifiedSince = exchange.getRequestHeaders().getFirst(Constants.HEADER_IF_MODIFIED_SINCE);
+        final Date since = Objects.nonNull(ifModifiedSince) ? DateUtils.parseDate(ifModifiedSince) : null;
+        return Objects.nonNull(since) && !matches.isEmpty() && matches.stream()
+                .allMatch(p -> p.hasMeta() && Objects.nonNull(p.getMeta().getLastUpdated()) && p.getMeta().getLastUpdated().getTime() / 1000L <= since.getTime() / 1000L);
+    }
+
+    private static String opaque(final String etag) {
+        final String strong = etag.startsWith("W/") ? etag.substring(2) : etag;
+        return strong.replace("\"", "");
+    }
+
+    private int parseCount(final Map<String, String> params) {
+        final int count = Try.of(() -> Integer.parseInt(params.get("_count"))).getOrElse(defaultPageSize);
+        return Math.max(1, count);
+    }
+
+    private Bundle bundle(final Search search, final int offset, final int count) {
+        final List<Patient> matches = search.getPatients();
+        final int end = Math.min(matches.size(), offset + count);
+        final Bundle bundle = new Bundle().setType(Bundle.BundleType.SEARCHSET).setTotal(matches.size());
+        bundle.getMeta().setVersionId(search.getVersion()).setLastUpdated(new Date());
+        if (end < matches.size()) {
+            bundle.addLink().setRelation(Bundle.LINK_NEXT)
+                    .setUrl(getBaseUrl() + "?_getpages=" + search.getId() + "&_getpagesoffset=" + end + "&_count=" + count + "&_bundletype=searchset");
+        }
+        for (int i = offset; i < end; i++) {
+            final Patient patient = matches.get(i);
+            bundle.addEntry()
+                    .setFullUrl(getBaseUrl() + "/Patient/" + patient.getIdElement().getIdPart())
+                    .setResource(search.isElements() ? subset(patient) : patient);
+        }
+        return bundle;
+    }
+
+    /**
+     * the patient restricted to the elements LeanPatientSearch asks for
+     */
+    private static Patient subset(final Patient patient) {
+        final Patient subset = new Patient();
+        subset.setId(patient.getIdElement().getIdPart());
+        subset.setMeta(patient.getMeta());
+        subset.setName(patient.getName());
+        subset.setBirthDateElement(patient.getBirthDateElement());
+        return subset;
+    }
+
+    private void respondError(final HttpExchange exchange, final int status, final String message) throws IOException {
+        final OperationOutcome outcome = new OperationOutcome();
+        outcome.addIssue().setSeverity(OperationOutcome.IssueSeverity.ERROR).setCode(OperationOutcome.IssueType.PROCESSING).setDiagnostics(message);
+        respond(exchange, status, outcome);
+    }
+
+    private void respond(final HttpExchange exchange, final int status, final Resource resource) throws IOException {
+        final byte[] body = FhirClients.context().newJsonParser().encodeResourceToString(resource).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set(Constants.HEADER_CONTENT_TYPE, Constants.CT_FHIR_JSON_NEW + Constants.CHARSET_UTF8_CTSUFFIX);
+        exchange.sendResponseHeaders(status, chunked ? 0L : body.length);
+        try (final OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static Map<String, String> parseQuery(final String rawQuery) throws UnsupportedEncodingException {
+        final Map<String, String> params = new LinkedHashMap<>();
+        if (Objects.nonNull(rawQuery)) {
+            for (final String pair : Splitter.on('&').omitEmptyStrings().split(rawQuery)) {
+                final int eq = pair.indexOf('=');
+                final String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8.name());
+                final String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8.name());
+                params.merge(key, value, (a, b) -> a + "," + b);
+            }
+        }
+        return params;
+    }
+
+    @Value
+    private static class Search {
+        String id;
+        List<Patient> patients;
+        boolean elements;
+        String version;
+    }
+
+    @Value
+    private static class Export {
+        String id;
+        List<Patient> patients;
+        Date transactionTime;
+        int filePatients;
+        /**
+         * url of the kick-off request
+         */
+        String request;
+        AtomicInteger polls;
+    }
+
+    /**
+     * distribution of the time the server takes to answer a request
+     */
+    @FunctionalInterface
+    public interface Latency {
+
+        /**
+         * @param random random source of the server
+         * @return millis to wait before answering the next request
+         */
+        long nextMillis(Random random);
+
+        static Latency none() {
+            return random -> 0L;
+        }
+
+        static Latency fixed(final long millis) {
+            return random -> millis;
+        }
+
+        static Latency uniform(final long minMillis, final long maxMillis) {
+            return random -> minMillis + (long) (random.nextDouble() * (maxMillis - minMillis));
+        }
+
+        /**
+         * the long tailed latency typical of a shared server
+         *
+         * @param medianMillis median of the latencies
+         * @param sigma        standard deviation of their logarithm, 0.5 makes the 99th percentile about 3 times the median
+         */
+        static Latency logNormal(final long medianMillis, final double sigma) {
+            return random -> Math.round(medianMillis * Math.exp(sigma * random.nextGaussian()));
+        }
+
+        /**
+         * @param probability ratio of the requests slowed down
+         * @param spikeMillis extra wait of a slowed down request
+         * @return this latency with occasional spikes, e.g. of a garbage collection or a lock
+         */
+        default Latency withSpikes(final double probability, final long spikeMillis) {
+            return random -> nextMillis(random) + (random.nextDouble() < probability ? spikeMillis : 0L);
+        }
+    }
+}
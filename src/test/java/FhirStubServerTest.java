@@ -0,0 +1,176 @@
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.server.exceptions.NotModifiedException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import com.google.common.collect.ImmutableList;
+import lombok.extern.slf4j.Slf4j;
+import org.assertj.core.api.Assertions;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+@Slf4j
+public class FhirStubServerTest {
+    private static FhirStubServer server;
+    private static IGenericClient client;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        server = new FhirStubServer(FhirStubServer.generate(42L, ImmutableList.of("Smith", "Smithson", "Jones"), 5), 42L).start();
+        client = FhirClients.newClient(server.getBaseUrl(), 1);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        server.close();
+    }
+
+    private static Bundle search(final String family, final int count) {
+        return client.search()
+                .forResource(Patient.class)
+                .where(Patient.FAMILY.matches().value(family))
+                .count(count)
+                .returnBundle(Bundle.class)
+                .execute();
+    }
+
+    @Test
+    public void testGenerate01() {
+        final List<Patient> patients = FhirStubServer.generate(7L, ImmutableList.of("Smith", "Jones"), 10);
+        final List<Patient> again = FhirStubServer.generate(7L, ImmutableList.of("Smith", "Jones"), 10);
+        Assertions.assertThat(patients).hasSize(20);
+        Assertions.assertThat(patients.get(0).getIdElement().getIdPart()).isEqualTo("stub-0");
+        Assertions.assertThat(patients.stream().filter(p -> "Jones".equals(Util.extractLastName(p))).count()).isEqualTo(10L);
+        Assertions.assertThat(patients.stream().map(Util::extractFirstName).collect(Collectors.toList()))
+                .isEqualTo(again.stream().map(Util::extractFirstName).collect(Collectors.toList()));
+        Assertions.assertThat(patients.stream().map(Util::extractDob).collect(Collectors.toList()))
+                .isEqualTo(again.stream().map(Util::extractDob).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testSearch01() {
+        final Bundle bundle = search("smith", 100);
+        Assertions.assertThat(bundle.getEntry()).hasSize(10);
+        Assertions.assertThat(bundle.getTotal()).isEqualTo(10);
+        Assertions.assertThat(bundle.getLink(Bundle.LINK_NEXT)).isNull();
+        Assertions.assertThat(bundle.getMeta().getVersionId()).isEqualTo(String.valueOf(server.getVersion()));
+        Assertions.assertThat(search("Jones", 100).getEntry()).hasSize(5);
+        Assertions.assertThat(search("Brown", 100).getEntry()).isEmpty();
+    }
+
+    @Test
+    public void testSearch02() {
+        final List<Patient> patients = new ArrayList<>();
+        Bundle page = search("Smith", 3);
+        patients.addAll(page.getEntry().stream().map(e -> (Patient) e.getResource()).collect(Collectors.toList()));
+        while (page.getLink(Bundle.LINK_NEXT) != null) {
+            page = client.loadPage().next(page).execute();
+            patients.addAll(page.getEntry().stream().map(e -> (Patient) e.getResource()).collect(Collectors.toList()));
+        }
+        Assertions.assertThat(patients.stream().map(p -> p.getIdElement().getIdPart()).distinct().count()).isEqualTo(10L);
+    }
+
+    @Test
+    public void testSearch03() {
+        final Bundle bundle = client.search()
+                .forResource(Patient.class)
+                .where(Patient.FAMILY.matches().value("Jones"))
+                .elementsSubset("id", "name", "birthDate")
+                .returnBundle(Bundle.class)
+                .execute();
+        final Patient patient = (Patient) bundle.getEntryFirstRep().getResource();
+        Assertions.assertThat(patient.getName()).isNotEmpty();
+        Assertions.assertThat(patient.hasGender()).isFalse();
+    }
+
+    @Test(expected = NotModifiedException.class)
+    public void testSearch04() {
+        client.search()
+                .forResource(Patient.class)
+                .where(Patient.FAMILY.matches().value("Jones"))
+                .withAdditionalHeader("If-None-Match", "W/\"" + server.getVersion() + "\"")
+                .returnBundle(Bundle.class)
+                .execute();
+    }
+
+    @Test
+    public void testRead01() {
+        Assertions.assertThat(client.read().resource(Patient.class).withId("stub-1").execute().getIdElement().getIdPart()).isEqualTo("stub-1");
+        Assertions.assertThatThrownBy(() -> client.read().resource(Patient.class).withId("unknown").execute()).isInstanceOf(ResourceNotFoundException.class);
+    }
+
+    @Test
+    public void testFailNext01() throws Exception {
+        try (final FhirStubServer failing = new FhirStubServer(FhirStubServer.generate(1L, ImmutableList.of("Jones"), 1), 1L).start()) {
+            final IGenericClient failingClient = FhirClients.newClient(failing.getBaseUrl(), 1);
+            failing.failNext(503, 1);
+            Assertions.assertThatThrownBy(() -> failingClient.read().resource(Patient.class).withId("stub-0").execute()).isInstanceOfSatisfying(BaseServerResponseException.class, e -> Assertions.assertThat(e.getStatusCode()).isEqualTo(503));
+            Assertions.assertThat(failingClient.read().resource(Patient.class).withId("stub-0").execute()).isNotNull();
+            Assertions.assertThat(failing.getErrorCount()).isEqualTo(1L);
+            Assertions.assertThat(failing.getRequestCount()).isEqualTo(2L);
+        }
+    }
+
+    private static HttpURLConnection get(final String url, final boolean respondAsync) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        if (respondAsync) {
+            connection.setRequestProperty("Prefer", "respond-async");
+        }
+        return connection;
+    }
+
+    @Test
+    public void testExport01() throws Exception {
+        try (final FhirStubServer exporting = new FhirStubServer(FhirStubServer.generate(1L, ImmutableList.of("Smith", "Jones"), 6), 1L).start()) {
+            exporting.setExportFilePatients(5);
+            final String kickOff = exporting.getBaseUrl() + "/Patient/$export?_type=Patient";
+            Assertions.assertThat(get(kickOff, false).getResponseCode()).isEqualTo(400);
+            final HttpURLConnection accepted = get(kickOff, true);
+            Assertions.assertThat(accepted.getResponseCode()).isEqualTo(202);
+            final String status = accepted.getHeaderField("Content-Location");
+            Assertions.assertThat(exporting.getExportCount()).isEqualTo(1L);
+
+            // in progress on the first poll, then the manifest of 3 files of 5, 5 and 2 patients
+            Assertions.assertThat(get(status, false).getResponseCode()).isEqualTo(202);
+            final HttpURLConnection complete = get(status, false);
+            Assertions.assertThat(complete.getResponseCode()).isEqualTo(200);
+            final List<String> urls;
+            try (final BufferedReader reader = new BufferedReader(new InputStreamReader(complete.getInputStream(), StandardCharsets.UTF_8))) {
+                urls = NdjsonPatientLoader.readManifest(new StringReader(reader.lines().collect(Collectors.joining("\n"))));
+            }
+            Assertions.assertThat(urls).hasSize(3);
+            final HttpURLConnection last = get(urls.get(2), false);
+            Assertions.assertThat(last.getContentType()).startsWith("application/fhir+ndjson");
+            try (final BufferedReader reader = new BufferedReader(new InputStreamReader(last.getInputStream(), StandardCharsets.UTF_8))) {
+                final List<Patient> patients = reader.lines().map(line -> FhirClients.context().newJsonParser().parseResource(Patient.class, line)).collect(Collectors.toList());
+                Assertions.assertThat(patients).extracting(p -> p.getIdElement().getIdPart()).containsExactly("stub-10", "stub-11");
+            }
+            Assertions.assertThat(get(exporting.getBaseUrl() + "/$export-file/unknown/0", false).getResponseCode()).isEqualTo(404);
+        }
+    }
+
+    @Test
+    public void testLatency01() {
+        final Random random = new Random(1L);
+        Assertions.assertThat(FhirStubServer.Latency.fixed(5L).nextMillis(random)).isEqualTo(5L);
+        for (int i = 0; i < 100; i++) {
+            Assertions.assertThat(FhirStubServer.Latency.uniform(10L, 20L).nextMillis(random)).isBetween(10L, 20L);
+            Assertions.assertThat(FhirStubServer.Latency.logNormal(10L, 0.5d).nextMillis(random)).isGreaterThanOrEqualTo(0L);
+        }
+        Assertions.assertThat(FhirStubServer.Latency.none().withSpikes(1d, 50L).nextMillis(random)).isEqualTo(50L);
+    }
+}
@@ -0,0 +1,54 @@
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import java.util.stream.IntStream;
+
+public class FrequencySketchTest {
+
+    @Test
+    public void testFrequency01() {
+        final FrequencySketch sketch = new FrequencySketch(1024);
+        Assertions.assertThat(sketch.frequency("smith")).isEqualTo(0);
+        sketch.increment("smith");
+        sketch.increment("smith");
+        sketch.increment("jones");
+        Assertions.assertThat(sketch.frequency("smith")).isEqualTo(2);
+        Assertions.assertThat(sketch.frequency("jones")).isEqualTo(1);
+        Assertions.assertThat(sketch.frequency("brown")).isEqualTo(0);
+    }
+
+    @Test
+    public void testFrequency02() {
+        final FrequencySketch sketch = new FrequencySketch(1024);
+        IntStream.range(0, 100).forEach(i -> sketch.increment("smith"));
+        Assertions.assertThat(sketch.frequency("smith")).isEqualTo(FrequencySketch.MAX_FREQUENCY);
+        // saturated counters are not counted towards the aging sample
+        Assertions.assertThat(sketch.getSize()).isEqualTo(FrequencySketch.MAX_FREQUENCY);
+    }
+
+    @Test
+    public void testFrequency03() {
+        final FrequencySketch sketch = new FrequencySketch(1024);
+        IntStream.range(0, 8).forEach(i -> sketch.increment("smith"));
+        // keys seen once, until the sample is full and every counter halved
+        int i = 0;
+        int size;
+        do {
+            size = sketch.getSize();
+            sketch.increment("name" + i++);
+        } while (sketch.getSize() >= size);
+        Assertions.assertThat(sketch.getSize()).isLessThan(size);
+        // collisions with the other keys may have added a little to the 8 counted before halving
+        Assertions.assertThat(sketch.frequency("smith")).isBetween(4, 7);
+    }
+
+    @Test
+    public void testFrequency04() {
+        final FrequencySketch sketch = new FrequencySketch(1024);
+        IntStream.range(0, 1000).forEach(i -> sketch.increment("name" + i));
+        // collisions only overestimate, and rarely with 4 rows
+        final long overestimated = IntStream.range(0, 1000).filter(i -> sketch.frequency("name" + i) != 1).count();
+        Assertions.assertThat(IntStream.range(0, 1000).map(i -> sketch.frequency("name" + i)).min().getAsInt()).isEqualTo(1);
+        Assertions.assertThat(overestimated).isLessThan(50L);
+    }
+}
@@ -0,0 +1,121 @@
+import lombok.extern.slf4j.Slf4j;
+import org.assertj.core.api.Assertions;
+import org.assertj.core.data.Offset;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+@Slf4j
+public class LatencyHistogramTest {
+
+    @Test
+    public void testSnapshot01() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1L; i <= 1000L; i++) {
+            histogram.record(i);
+        }
+        final LatencySnapshot snapshot = histogram.snapshot();
+        Assertions.assertThat(snapshot.getCount()).isEqualTo(1000L);
+        Assertions.assertThat(snapshot.getMin()).isEqualTo(1L);
+        Assertions.assertThat(snapshot.getMax()).isEqualTo(1000L);
+        Assertions.assertThat(snapshot.getMean()).isEqualTo(500.5d);
+        Assertions.assertThat(snapshot.getP50()).isCloseTo(500L, Offset.offset(16L));
+        Assertions.assertThat(snapshot.getP90()).isCloseTo(900L, Offset.offset(28L));
+        Assertions.assertThat(snapshot.getP99()).isCloseTo(990L, Offset.offset(31L));
+        Assertions.assertThat(snapshot.getP999()).isEqualTo(1000L);
+    }
+
+    @Test
+    public void testSnapshot02() {
+        final LatencySnapshot snapshot = new LatencyHistogram().snapshot();
+        Assertions.assertThat(snapshot.getCount()).isZero();
+        Assertions.assertThat(snapshot.getMean()).isZero();
+        Assertions.assertThat(snapshot.getP99()).isZero();
+    }
+
+    @Test
+    public void testSnapshot03() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+        histogram.record(-1L);
+        final LatencySnapshot snapshot = histogram.snapshot();
+        Assertions.assertThat(snapshot.getMin()).isZero();
+        Assertions.assertThat(snapshot.getMax()).isEqualTo(Long.MAX_VALUE);
+        Assertions.assertThat(snapshot.getValueAtPercentile(100d)).isEqualTo(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testSnapshotAndReset01() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10L);
+        histogram.record(20L);
+        final LatencySnapshot first = histogram.snapshotAndReset();
+        histogram.record(30L);
+        final LatencySnapshot second = histogram.snapshotAndReset();
+        Assertions.assertThat(first.getCount()).isEqualTo(2L);
+        Assertions.assertThat(first.getMean()).isEqualTo(15d);
+        Assertions.assertThat(second.getCount()).isEqualTo(1L);
+        Assertions.assertThat(second.getMin()).isEqualTo(30L);
+        Assertions.assertThat(histogram.getMean()).isZero();
+    }
+
+    @Test
+    public void testSnapshotAndReset02() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final int writers = 4;
+        final int perWriter = 200_000;
+        final CountDownLatch done = new CountDownLatch(writers);
+        for (int w = 0; w < writers; w++) {
+            final Thread thread = new Thread(() -> {
+                for (int i = 0; i < perWriter; i++) {
+                    histogram.record(i % 1000);
+                }
+                done.countDown();
+            });
+            thread.start();
+        }
+        long total = 0L;
+        while (!done.await(1L, TimeUnit.MILLISECONDS)) {
+            total += histogram.snapshotAndReset().getCount();
+        }
+        total += histogram.snapshotAndReset().getCount();
+        Assertions.assertThat(total).isEqualTo((long) writers * perWriter);
+    }
+
+    @Test
+    public void testMinus01() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1L; i <= 100L; i++) {
+            histogram.record(i);
+        }
+        final LatencySnapshot earlier = histogram.snapshot();
+        for (long i = 1000L; i <= 1099L; i++) {
+            histogram.record(i);
+        }
+        final LatencySnapshot interval = histogram.snapshot().minus(earlier);
+        Assertions.assertThat(interval.getCount()).isEqualTo(100L);
+        Assertions.assertThat(interval.getMean()).isEqualTo(1049.5d);
+        Assertions.assertThat(interval.getMin()).isCloseTo(1000L, Offset.offset(32L));
+        Assertions.assertThat(interval.getMax()).isEqualTo(1099L);
+        Assertions.assertThat(interval.getP50()).isCloseTo(1050L, Offset.offset(32L));
+        Assertions.assertThat(histogram.snapshot().minus(histogram.snapshot())).isSameAs(LatencySnapshot.EMPTY);
+    }
+
+    @Test
+    public void testPlus01() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        LongStream.rangeClosed(1L, 100L).forEach(histogram::record);
+        final LatencySnapshot first = histogram.snapshotAndReset();
+        LongStream.rangeClosed(1000L, 1099L).forEach(histogram::record);
+        final LatencySnapshot both = first.plus(histogram.snapshotAndReset());
+        Assertions.assertThat(both.getCount()).isEqualTo(200L);
+        Assertions.assertThat(both.getMin()).isEqualTo(1L);
+        Assertions.assertThat(both.getMax()).isEqualTo(1099L);
+        Assertions.assertThat(both.getMean()).isEqualTo((5050d + 104950d) / 200d);
+        Assertions.assertThat(both.getP50()).isCloseTo(100L, Offset.offset(2L));
+        Assertions.assertThat(LatencySnapshot.EMPTY.plus(first)).isSameAs(first);
+        Assertions.assertThat(first.plus(LatencySnapshot.EMPTY)).isSameAs(first);
+    }
+}
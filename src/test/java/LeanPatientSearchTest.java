@@ -0,0 +1,67 @@
+import lombok.extern.slf4j.Slf4j;
+import org.assertj.core.api.Assertions;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.HumanName;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Date;
+
+@Slf4j
+public class LeanPatientSearchTest {
+
+    @Test
+    public void testParse01() throws IOException {
+        final String json = "{\"resourceType\":\"Bundle\",\"id\":\"b1\",\"meta\":{\"versionId\":\"4\",\"lastUpdated\":\"2025-02-03T10:47:21.221+00:00\"},"
+                + "\"type\":\"searchset\",\"total\":2,"
+                + "\"link\":[{\"relation\":\"self\",\"url\":\"http://localhost/Patient?family=smith\"},{\"relation\":\"next\",\"url\":\"http://localhost?_getpages=x\"}],"
+                + "\"entry\":[{\"fullUrl\":\"http://localhost/Patient/pat2\",\"resource\":{\"resourceType\":\"Patient\",\"id\":\"pat2\","
+                + "\"meta\":{\"versionId\":\"6\",\"lastUpdated\":\"2025-02-03T10:47:21.221+00:00\",\"tag\":[{\"code\":\"tag1\"}]},"
+                + "\"text\":{\"status\":\"generated\",\"div\":\"<div xmlns=\\\"http://www.w3.org/1999/xhtml\\\">John <b>SMITH</b></div>\"},"
+                + "\"name\":[{\"use\":\"official\",\"family\":\"Smith\",\"given\":[\"John\",\"Paul\"]},{\"family\":\"Other\"}],"
+                + "\"gender\":\"male\",\"birthDate\":\"1985-03-15\"},\"search\":{\"mode\":\"match\"}},"
+                + "{\"resource\":{\"resourceType\":\"OperationOutcome\",\"id\":\"oo\"}},"
+                + "{\"resource\":{\"resourceType\":\"Patient\",\"id\":\"pat3\",\"name\":[{\"family\":\"Smith\"}]}}]}";
+        final LeanPatientSearch.Page page = LeanPatientSearch.parse(new StringReader(json));
+        Assertions.assertThat(page.getVersionId()).isEqualTo("4");
+        Assertions.assertThat(page.getNextUrl()).isEqualTo("http://localhost?_getpages=x");
+        Assertions.assertThat(page.getPatients()).hasSize(2);
+
+        final Patient john = page.getPatients().get(0);
+        Assertions.assertThat(john.getIdElement().getIdPart()).isEqualTo("pat2");
+        Assertions.assertThat(Util.extractFirstName(john)).isEqualTo("John");
+        Assertions.assertThat(Util.extractLastName(john)).isEqualTo("Smith");
+        Assertions.assertThat(Util.extractDob(john)).isEqualTo("1985-03-15");
+        Assertions.assertThat(john.getMeta().getLastUpdated()).isNotNull();
+        Assertions.assertThat(john.hasText()).isFalse();
+        // the family of every name is kept, the given names of the first one only
+        Assertions.assertThat(john.getName()).extracting(HumanName::getFamily).containsExactly("Smith", "Other");
+        Assertions.assertThat(john.getName().get(0).getGiven()).hasSize(1);
+        Assertions.assertThat(john.getName().get(1).hasGiven()).isFalse();
+
+        final Patient anonymous = page.getPatients().get(1);
+        Assertions.assertThat(Util.extractFirstName(anonymous)).isEmpty();
+        Assertions.assertThat(Util.extractDob(anonymous)).isEmpty();
+    }
+
+    @Test
+    public void testParse02() throws IOException {
+        final Bundle bundle = new Bundle().setType(Bundle.BundleType.SEARCHSET);
+        final Patient patient = UtilTest.mkPatient("Mary", "Jones", "2001-12-31");
+        patient.setId("p1");
+        patient.getMeta().setLastUpdated(new Date(1_000_000L));
+        bundle.addEntry().setResource(patient);
+        bundle.addEntry().setResource(new Observation());
+        final String json = FhirClients.context().newJsonParser().encodeResourceToString(bundle);
+
+        final LeanPatientSearch.Page page = LeanPatientSearch.parse(new StringReader(json));
+        Assertions.assertThat(page.getNextUrl()).isNull();
+        Assertions.assertThat(page.getVersionId()).isNull();
+        Assertions.assertThat(page.getPatients()).hasSize(1);
+        Assertions.assertThat(PatientSummary.of(page.getPatients().get(0))).isEqualTo(PatientSummary.of(patient));
+        Assertions.assertThat(page.getPatients().get(0).getMeta().getLastUpdated()).isEqualTo(new Date(1_000_000L));
+    }
+}
@@ -0,0 +1,48 @@
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * a LoadGenerator run against a FhirStubServer in the same JVM, so results can be reproduced anywhere:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=LoadGeneratorMain -Dexec.args="open zipfian 8 200 10"
+ */
+public class LoadGeneratorMain {
+
+    private LoadGeneratorMain() {
+    }
+
+    /**
+     * 1000 last names of 5 patients each, answered in about 20 millis
+     *
+     * @param args closed|open, uniform|zipfian, workers, operations per second of the open loop, seconds measured
+     */
+    public static void main(final String[] args) throws Exception {
+        final boolean open = args.length > 0 && "open".equalsIgnoreCase(args[0]);
+        final boolean uniform = args.length > 1 && "uniform".equalsIgnoreCase(args[1]);
+        final int workers = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        final double rate = args.length > 3 ? Double.parseDouble(args[3]) : 200d;
+        final long seconds = args.length > 4 ? Long.parseLong(args[4]) : 10L;
+
+        // read by the JDK http server when the first one starts, see FhirStubServer
+        if (Objects.isNull(System.getProperty("sun.net.httpserver.nodelay"))) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        final List<String> names = IntStream.range(0, 1000).mapToObj(i -> String.format("Loadname%04d", i)).collect(Collectors.toList());
+        FhirClients.warmUp();
+        try (final FhirStubServer server = new FhirStubServer(FhirStubServer.generate(42L, names, 5), 42L).start()) {
+            server.setLatency(FhirStubServer.Latency.logNormal(20L, 0.5d));
+            final SampleClient sampleClient = new SampleClient(SampleClientOptions.builder().serverBase(server.getBaseUrl()).concurrency(workers).build());
+            final LoadGeneratorOptions options = LoadGeneratorOptions.builder()
+                    .names(uniform ? NameDistribution.uniform(names) : NameDistribution.zipfian(names, 1d))
+                    .workers(workers)
+                    .ratePerSecond(open ? rate : 0d)
+                    .warmUp(Duration.ofSeconds(2L))
+                    .duration(Duration.ofSeconds(seconds))
+                    .build();
+            new LoadGenerator(sampleClient, options).run();
+            sampleClient.close();
+        }
+    }
+}
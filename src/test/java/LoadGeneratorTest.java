@@ -0,0 +1,100 @@
+import org.assertj.core.api.Assertions;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class LoadGeneratorTest {
+    private final static List<String> NAMES = IntStream.range(0, 200).mapToObj(i -> String.format("Loadname%04d", i)).collect(Collectors.toList());
+    private static FhirStubServer server;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        FhirClients.warmUp();
+        server = new FhirStubServer(FhirStubServer.generate(42L, NAMES, 2), 42L).start();
+        server.setLatency(FhirStubServer.Latency.fixed(5L));
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        server.close();
+    }
+
+    private static SampleClient newClient() {
+        return new SampleClient(SampleClientOptions.builder().serverBase(server.getBaseUrl()).concurrency(4).build());
+    }
+
+    @Test
+    public void testClosedLoop01() throws Exception {
+        final SampleClient sampleClient = newClient();
+        // 50 names the warm up mostly loads
+        final LoadGenerator.Result result = new LoadGenerator(sampleClient, LoadGeneratorOptions.builder()
+                .names(NameDistribution.zipfian(NAMES.subList(0, 50), 1d))
+                .workers(4)
+                .warmUp(Duration.ofMillis(500L))
+                .duration(Duration.ofSeconds(1L))
+                .reportInterval(Duration.ofMillis(250L))
+                .build()).run();
+        Assertions.assertThat(result.getOperations()).isPositive();
+        Assertions.assertThat(result.getOperationsPerSecond()).isPositive();
+        Assertions.assertThat(result.getEmptyResults()).isEqualTo(0L);
+        // skewed lookups mostly hit the cache, each miss sending one search
+        Assertions.assertThat(result.getCacheHitRate()).isGreaterThan(0.5d);
+        Assertions.assertThat(result.getRequests()).isLessThan(result.getOperations());
+        Assertions.assertThat(result.getIntervals().size()).isGreaterThanOrEqualTo(3);
+        Assertions.assertThat(result.getIntervals().stream().mapToLong(LoadGenerator.Interval::getOperations).sum()).isEqualTo(result.getOperations());
+        sampleClient.close();
+    }
+
+    @Test
+    public void testOpenLoop01() throws Exception {
+        final SampleClient sampleClient = newClient();
+        final LoadGenerator.Result result = new LoadGenerator(sampleClient, LoadGeneratorOptions.builder()
+                .names(NameDistribution.uniform(NAMES))
+                .workers(4)
+                .ratePerSecond(200d)
+                .duration(Duration.ofSeconds(1L))
+                .build()).run();
+        // every operation intended in the second is run, whatever the time they take
+        Assertions.assertThat(result.getOperations()).isEqualTo(200L);
+        Assertions.assertThat(result.getLatencies().getMax()).isGreaterThanOrEqualTo(5L);
+        sampleClient.close();
+    }
+
+    @Test
+    public void testOpenLoop02() throws Exception {
+        // a single worker cannot keep up with 100 searches of 5 millis a second and a half, the waiting shows in the latencies
+        final SampleClient sampleClient = newClient();
+        final LoadGenerator.Result result = new LoadGenerator(sampleClient, LoadGeneratorOptions.builder()
+                .names(NameDistribution.uniform(NAMES))
+                .workers(1)
+                .ratePerSecond(400d)
+                .duration(Duration.ofMillis(500L))
+                .build()).run();
+        Assertions.assertThat(result.getOperations()).isEqualTo(200L);
+        Assertions.assertThat(result.getLatencies().getP99()).isGreaterThan(100L);
+        sampleClient.close();
+    }
+
+    @Test
+    public void testFile01() throws Exception {
+        final SampleClient sampleClient = newClient();
+        final LoadGenerator.Result result = new LoadGenerator(sampleClient, LoadGeneratorOptions.builder()
+                .names(NameDistribution.zipfian(NAMES, 1d))
+                .workload(LoadGeneratorOptions.Workload.FILE)
+                .namesPerFile(10)
+                .files(3)
+                .workers(2)
+                .duration(Duration.ofMillis(500L))
+                .build()).run();
+        Assertions.assertThat(result.getOperations()).isPositive();
+        Assertions.assertThat(result.getEmptyResults()).isEqualTo(0L);
+        // three files of ten names at most, loaded once
+        Assertions.assertThat(result.getRequests()).isLessThanOrEqualTo(30L);
+        sampleClient.close();
+    }
+}
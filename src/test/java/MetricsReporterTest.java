@@ -0,0 +1,55 @@
+import org.assertj.core.api.Assertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class MetricsReporterTest {
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testReport01() throws Exception {
+        final File csv = new File(temporaryFolder.getRoot(), "metrics.csv");
+        try (final FhirStubServer server = new FhirStubServer(FhirStubServer.generate(42L, Util.readLines("names.txt"), 30), 42L).start()) {
+            final SampleClient sampleClient = new SampleClient(SampleClientOptions.builder().serverBase(server.getBaseUrl()).pageSize(10).prefetchPages(0).build());
+            final MetricsReporter reporter = new MetricsReporter(sampleClient, csv.getPath());
+            Assertions.assertThat(reporter.report()).isEmpty();
+            sampleClient.cacheLoadPatients("Smith");
+            final List<String> rows = reporter.report();
+            Assertions.assertThat(rows).hasSize(2);
+            Assertions.assertThat(rows.get(0).split(",")).hasSize(13).contains("search");
+            Assertions.assertThat(rows.get(1).split(",")[1]).isEqualTo("page");
+            Assertions.assertThat(rows.get(1).split(",")[2]).isEqualTo("2");
+            // the next report only covers what happened since
+            Assertions.assertThat(reporter.report()).isEmpty();
+            sampleClient.cacheLoadPatients("Jones");
+            reporter.close();
+            sampleClient.close();
+        }
+        final List<String> lines = Files.readAllLines(csv.toPath(), StandardCharsets.UTF_8);
+        Assertions.assertThat(lines).hasSize(5);
+        Assertions.assertThat(lines.get(0)).isEqualTo(MetricsReporter.CSV_HEADER);
+    }
+
+    @Test
+    public void testStart01() throws Exception {
+        final File csv = new File(temporaryFolder.getRoot(), "metrics.csv");
+        try (final FhirStubServer server = new FhirStubServer(FhirStubServer.generate(42L, Util.readLines("names.txt"), 2), 42L).start()) {
+            final SampleClient sampleClient = new SampleClient(SampleClientOptions.builder().serverBase(server.getBaseUrl())
+                    .metricsReportInterval(Duration.ofMillis(50L)).metricsCsvPath(csv.getPath()).build());
+            sampleClient.cacheLoadPatients("Smith");
+            TimeUnit.MILLISECONDS.sleep(200L);
+            sampleClient.close();
+        }
+        final List<String> lines = Files.readAllLines(csv.toPath(), StandardCharsets.UTF_8);
+        Assertions.assertThat(lines).hasSize(2);
+        Assertions.assertThat(lines.get(1)).contains(",search,1,0,");
+    }
+}
@@ -0,0 +1,46 @@
+import com.google.common.collect.ImmutableList;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class NameDistributionTest {
+    private final static List<String> NAMES = IntStream.range(0, 1000).mapToObj(i -> String.format("Name%04d", i)).collect(Collectors.toList());
+
+    private static Map<String, Long> draw(final NameDistribution distribution, final int count) {
+        final Random random = new Random(42L);
+        return IntStream.range(0, count).mapToObj(i -> distribution.next(random)).collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+    }
+
+    @Test
+    public void testUniform01() {
+        final Map<String, Long> counts = draw(NameDistribution.uniform(NAMES), 100_000);
+        Assertions.assertThat(counts).hasSize(NAMES.size());
+        Assertions.assertThat(counts.values()).allMatch(count -> count > 50L && count < 150L);
+    }
+
+    @Test
+    public void testZipfian01() {
+        final Map<String, Long> counts = draw(NameDistribution.zipfian(NAMES, 1d), 100_000);
+        final long top10 = NAMES.subList(0, 10).stream().mapToLong(name -> counts.getOrDefault(name, 0L)).sum();
+        final long bottom500 = NAMES.subList(500, 1000).stream().mapToLong(name -> counts.getOrDefault(name, 0L)).sum();
+        // about 39% and 9%
+        Assertions.assertThat(top10).isBetween(37_000L, 41_000L);
+        Assertions.assertThat(bottom500).isBetween(8_000L, 10_500L);
+        Assertions.assertThat(counts.get(NAMES.get(0))).isGreaterThan(counts.get(NAMES.get(1)));
+    }
+
+    @Test
+    public void testZipfian02() {
+        // an exponent of 0 is uniform, and the same seed draws the same names
+        final NameDistribution distribution = NameDistribution.zipfian(ImmutableList.of("a", "b"), 0d);
+        Assertions.assertThat(draw(distribution, 10_000).get("a")).isBetween(4_800L, 5_200L);
+        Assertions.assertThat(distribution.next(new Random(1L))).isEqualTo(distribution.next(new Random(1L)));
+        Assertions.assertThatThrownBy(() -> NameDistribution.uniform(ImmutableList.of())).isInstanceOf(IllegalArgumentException.class);
+    }
+}
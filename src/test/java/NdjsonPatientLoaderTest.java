@@ -0,0 +1,153 @@
+import ca.uhn.fhir.parser.IParser;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.assertj.core.api.Assertions;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class NdjsonPatientLoaderTest {
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static NdjsonPatientLoader loader(final ExecutorService executor, final boolean slim) {
+        return new NdjsonPatientLoader(FhirClients.context(), new TimeCostInterceptor(false), executor, 2, slim);
+    }
+
+    private String write(final List<Patient> patients, final String... extraLines) throws IOException {
+        final IParser parser = FhirClients.context().newJsonParser();
+        final List<String> lines = patients.stream().map(parser::encodeResourceToString).collect(Collectors.toList());
+        lines.addAll(ImmutableList.copyOf(extraLines));
+        final File file = temporaryFolder.newFile();
+        Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+        return file.getPath();
+    }
+
+    private static List<String> ids(final List<Patient> patients) {
+        return patients.stream().map(p -> p.getIdElement().getIdPart()).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testLoadFiles01() throws IOException {
+        final List<Patient> patients = FhirStubServer.generate(7L, ImmutableList.of("Smith", "Jones"), 3);
+        patients.get(0).addName().setFamily("Jones");
+        final String observation = FhirClients.context().newJsonParser().encodeResourceToString(new Observation().setId("o1"));
+        final String file = write(patients, "", "{not json", observation);
+
+        final NdjsonPatientLoader.Result result = loader(null, false).loadFiles(ImmutableList.of(file));
+        Assertions.assertThat(result.getLines()).isEqualTo(8L);
+        Assertions.assertThat(result.getPatients()).isEqualTo(6L);
+        Assertions.assertThat(result.getSkipped()).isEqualTo(2L);
+        Assertions.assertThat(result.getByKey()).containsOnlyKeys("smith", "jones");
+        Assertions.assertThat(ids(result.getByKey().get("smith"))).containsExactly("stub-0", "stub-1", "stub-2");
+        // a patient is under each of its family names
+        Assertions.assertThat(ids(result.getByKey().get("jones"))).containsExactly("stub-0", "stub-3", "stub-4", "stub-5");
+        Assertions.assertThat(result.getByKey().get("smith").get(0).getMeta().getLastUpdated()).isNotNull();
+    }
+
+    @Test
+    public void testLoadFiles02() throws IOException {
+        // more lines than a batch, parsed in parallel, grouped in the order of the files all the same
+        final List<String> names = IntStream.range(0, 50).mapToObj(i -> String.format("Bulkname%02d", i)).collect(Collectors.toList());
+        final List<Patient> patients = FhirStubServer.generate(7L, names, 50);
+        final String first = write(patients.subList(0, 1500));
+        final String second = write(patients.subList(1500, patients.size()));
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final NdjsonPatientLoader.Result parallel = loader(executor, true).loadFiles(ImmutableList.of(first, second));
+            final NdjsonPatientLoader.Result serial = loader(null, false).loadFiles(ImmutableList.of(first, second));
+            Assertions.assertThat(parallel.getPatients()).isEqualTo(2500L);
+            Assertions.assertThat(parallel.getByKey()).hasSize(50);
+            parallel.getByKey().forEach((key, found) -> Assertions.assertThat(ids(found)).containsExactlyElementsOf(ids(serial.getByKey().get(key))));
+            // slim patients keep what the summaries and the revalidation read
+            final Patient slim = parallel.getByKey().get("bulkname00").get(0);
+            final Patient full = serial.getByKey().get("bulkname00").get(0);
+            Assertions.assertThat(PatientSummary.of(slim)).isEqualTo(PatientSummary.of(full));
+            Assertions.assertThat(slim.getMeta().getLastUpdated()).isEqualTo(full.getMeta().getLastUpdated());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testByPrefix01() {
+        final List<Patient> patients = FhirStubServer.generate(7L, ImmutableList.of("Smith", "Smithson", "Smyth"), 2);
+        patients.get(0).addName().setFamily("Smithson");
+        final Map<String, List<Patient>> byKey = ImmutableMap.of(
+                "smith", patients.subList(0, 2),
+                "smithson", ImmutableList.of(patients.get(0), patients.get(2), patients.get(3)),
+                "smyth", patients.subList(4, 6));
+        final Map<String, List<Patient>> byPrefix = NdjsonPatientLoader.byPrefix(byKey);
+        Assertions.assertThat(byPrefix).containsOnlyKeys("smith", "smithson", "smyth");
+        // smith matches smithson as a search would, stub-0 once though under both
+        Assertions.assertThat(ids(byPrefix.get("smith"))).containsExactlyInAnyOrder("stub-0", "stub-1", "stub-2", "stub-3");
+        Assertions.assertThat(byPrefix.get("smith")).isEqualTo(PatientSortKey.sortByFirstName(byPrefix.get("smith")));
+        Assertions.assertThat(ids(byPrefix.get("smithson"))).containsExactlyInAnyOrder("stub-0", "stub-2", "stub-3");
+        Assertions.assertThat(ids(byPrefix.get("smyth"))).containsExactlyInAnyOrder("stub-4", "stub-5");
+    }
+
+    @Test
+    public void testDrainByPrefix01() {
+        final List<Patient> patients = FhirStubServer.generate(7L, ImmutableList.of("Ab", "Abc", "Abd", "B", "Bc", "Abce"), 1);
+        final TreeMap<String, List<Patient>> byKey = new TreeMap<>();
+        patients.forEach(p -> byKey.put(Util.lastNameKey(Util.extractLastName(p)), ImmutableList.of(p)));
+        final List<String> keys = new ArrayList<>();
+        final Map<String, List<String>> drained = new HashMap<>();
+        NdjsonPatientLoader.drainByPrefix(byKey, (key, found) -> {
+            keys.add(key);
+            drained.put(key, ids(found));
+        });
+        Assertions.assertThat(byKey).isEmpty();
+        // each key handed out once all the keys it is a prefix of are
+        Assertions.assertThat(keys).containsExactly("bc", "b", "abd", "abce", "abc", "ab");
+        Assertions.assertThat(drained.get("ab")).containsExactlyInAnyOrder("stub-0", "stub-1", "stub-2", "stub-5");
+        Assertions.assertThat(drained.get("abc")).containsExactlyInAnyOrder("stub-1", "stub-5");
+        Assertions.assertThat(drained.get("abd")).containsExactly("stub-2");
+        Assertions.assertThat(drained.get("b")).containsExactlyInAnyOrder("stub-3", "stub-4");
+    }
+
+    @Test
+    public void testExport01() throws Exception {
+        final List<Patient> patients = FhirStubServer.generate(7L, ImmutableList.of("Smith", "Jones", "Brown"), 40);
+        try (final FhirStubServer server = new FhirStubServer(patients, 7L).start()) {
+            server.setExportFilePatients(50);
+            final NdjsonPatientLoader loader = loader(null, false);
+            final List<String> urls = loader.export(server.getBaseUrl(), Duration.ofMillis(10L), Duration.ofSeconds(10L));
+            Assertions.assertThat(urls).hasSize(3);
+            Assertions.assertThat(server.getExportCount()).isEqualTo(1L);
+
+            final NdjsonPatientLoader.Result result = loader.loadUrls(urls);
+            Assertions.assertThat(result.getPatients()).isEqualTo(120L);
+            Assertions.assertThat(result.getSkipped()).isEqualTo(0L);
+            Assertions.assertThat(result.getByKey().get("brown")).hasSize(40);
+        }
+    }
+
+    @Test
+    public void testReadManifest01() throws IOException {
+        final String json = "{\"transactionTime\":\"2020-01-01T00:00:00Z\",\"request\":\"http://localhost/Patient/$export\",\"requiresAccessToken\":false,"
+                + "\"output\":[{\"type\":\"Patient\",\"url\":\"http://localhost/1.ndjson\",\"count\":3},"
+                + "{\"type\":\"Observation\",\"url\":\"http://localhost/2.ndjson\"},{\"url\":\"http://localhost/3.ndjson\",\"type\":\"Patient\"}],"
+                + "\"error\":[{\"type\":\"OperationOutcome\",\"url\":\"http://localhost/error.ndjson\"}]}";
+        final List<String> urls = NdjsonPatientLoader.readManifest(new StringReader(json));
+        Assertions.assertThat(urls).containsExactly("http://localhost/1.ndjson", "http://localhost/3.ndjson");
+    }
+}
@@ -0,0 +1,125 @@
+import com.google.common.collect.ImmutableList;
+import lombok.extern.slf4j.Slf4j;
+import org.assertj.core.api.Assertions;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+@Slf4j
+public class PatientDiskCacheTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static PatientSearchResult mkResult(final String versionId, final Patient... patients) {
+        final Bundle bundle = new Bundle();
+        bundle.getMeta().setVersionId(versionId);
+        return PatientSearchResult.of(bundle, ImmutableList.copyOf(patients));
+    }
+
+    @Test
+    public void testGet01() throws IOException {
+        final PatientDiskCache cache = PatientDiskCache.openUnshared(folder.getRoot().toPath().resolve("patients.seg"), 1024L * 1024L);
+        cache.put("Smith", mkResult("3", UtilTest.mkPatient("John", "Smith", "1985-03-15"), UtilTest.mkPatient("Mary", "Smith", null)), Duration.ofMinutes(1L));
+        final Optional<PatientSearchResult> result = cache.get(" SMITH ");
+        Assertions.assertThat(result).isPresent();
+        Assertions.assertThat(result.get().getVersionId()).isEqualTo("3");
+        Assertions.assertThat(result.get().getPatients().stream().map(Util::extractFirstName).collect(Collectors.toList())).containsExactly("John", "Mary");
+        Assertions.assertThat(Util.extractDob(result.get().getPatients().get(0))).isEqualTo("1985-03-15");
+        Assertions.assertThat(cache.get("Jones")).isEmpty();
+    }
+
+    @Test
+    public void testGet02() throws IOException {
+        final PatientDiskCache cache = PatientDiskCache.openUnshared(folder.getRoot().toPath().resolve("patients.seg"), 1024L * 1024L);
+        cache.put("Smith", mkResult("1", UtilTest.mkPatient("John", "Smith", null)), Duration.ofMillis(-1L));
+        Assertions.assertThat(cache.get("Smith")).isEmpty();
+    }
+
+    @Test
+    public void testReopen01() throws IOException {
+        final Path path = folder.getRoot().toPath().resolve("patients.seg");
+        final PatientDiskCache cache = PatientDiskCache.openUnshared(path, 1024L * 1024L);
+        cache.put("Smith", mkResult("1", UtilTest.mkPatient("John", "Smith", null)), Duration.ofMinutes(1L));
+        cache.put("Smith", mkResult("2", UtilTest.mkPatient("Mary", "Smith", null)), Duration.ofMinutes(1L));
+        cache.put("Jones", mkResult("1", UtilTest.mkPatient("Adam", "Jones", null)), Duration.ofMinutes(1L));
+
+        final PatientDiskCache reopened = PatientDiskCache.openUnshared(path, 1024L * 1024L);
+        Assertions.assertThat(reopened.size()).isEqualTo(2);
+        Assertions.assertThat(reopened.get("Smith").map(PatientSearchResult::getVersionId)).contains("2");
+        Assertions.assertThat(reopened.get("Jones").map(PatientSearchResult::getVersionId)).contains("1");
+    }
+
+    @Test
+    public void testReopen02() throws IOException {
+        final Path path = folder.getRoot().toPath().resolve("patients.seg");
+        final PatientDiskCache cache = PatientDiskCache.openUnshared(path, 1024L * 1024L);
+        cache.put("Smith", mkResult("1", UtilTest.mkPatient("John", "Smith", null)), Duration.ofMinutes(1L));
+        final long size = cache.sizeInBytes();
+        Files.write(path, new byte[]{0, 0, 1, 0, 42}, StandardOpenOption.APPEND);
+
+        final PatientDiskCache reopened = PatientDiskCache.openUnshared(path, 1024L * 1024L);
+        Assertions.assertThat(reopened.get("Smith")).isPresent();
+        Assertions.assertThat(reopened.sizeInBytes()).isEqualTo(size);
+    }
+
+    @Test
+    public void testCompact01() throws IOException {
+        final PatientDiskCache cache = PatientDiskCache.openUnshared(folder.getRoot().toPath().resolve("patients.seg"), 16L * 1024L);
+        for (int i = 0; i < 100; i++) {
+            cache.put("Smith", mkResult(String.valueOf(i), UtilTest.mkPatient("John", "Smith", "1985-03-15")), Duration.ofMinutes(1L));
+        }
+        Assertions.assertThat(cache.sizeInBytes()).isLessThanOrEqualTo(16L * 1024L);
+        Assertions.assertThat(cache.get("Smith").map(PatientSearchResult::getVersionId)).contains("99");
+    }
+
+    @Test
+    public void testCompact02() throws IOException {
+        final PatientDiskCache cache = PatientDiskCache.openUnshared(folder.getRoot().toPath().resolve("patients.seg"), 16L * 1024L);
+        cache.put("Jones", mkResult("1", UtilTest.mkPatient("Adam", "Jones", null)), Duration.ofMinutes(1L));
+        final Patient[] smiths = IntStream.range(0, 100).mapToObj(i -> UtilTest.mkPatient("John" + i, "Smith", "1985-03-15")).toArray(Patient[]::new);
+        cache.put("Smith", mkResult("1", smiths), Duration.ofMinutes(2L));
+        Assertions.assertThat(cache.sizeInBytes()).isGreaterThan(8L * 1024L);
+        // the newest record is larger than half the file, it is dropped but the older ones still fitting are kept
+        cache.compact();
+        Assertions.assertThat(cache.get("Smith")).isEmpty();
+        Assertions.assertThat(cache.get("Jones").map(PatientSearchResult::getVersionId)).contains("1");
+    }
+
+    @Test
+    public void testGet03() throws IOException {
+        final Path path = folder.getRoot().toPath().resolve("patients.seg");
+        final PatientDiskCache cache = PatientDiskCache.openUnshared(path, 1024L * 1024L);
+        // read back right after being appended, whether the mapping covers the record yet or not
+        for (int i = 0; i < 50; i++) {
+            cache.put("Name" + i, mkResult(String.valueOf(i), UtilTest.mkPatient("John", "Name" + i, null)), Duration.ofMinutes(1L));
+            for (int j = 0; j <= i; j++) {
+                Assertions.assertThat(cache.get("Name" + j).map(PatientSearchResult::getVersionId)).contains(String.valueOf(j));
+            }
+        }
+        Assertions.assertThat(PatientDiskCache.openUnshared(path, 1024L * 1024L).size()).isEqualTo(50);
+    }
+
+    @Test
+    public void testOpen02() {
+        final Path path = folder.getRoot().toPath().resolve("patients.seg");
+        PatientDiskCache.open(path, 1024L);
+        Assertions.assertThatThrownBy(() -> PatientDiskCache.open(path, 2048L)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testOpen01() {
+        final Path path = folder.getRoot().toPath().resolve("patients.seg");
+        Assertions.assertThat(PatientDiskCache.open(path, 1024L)).isSameAs(PatientDiskCache.open(path.getParent().resolve("./patients.seg"), 1024L));
+    }
+}
@@ -0,0 +1,101 @@
+import com.google.common.collect.ImmutableList;
+import org.assertj.core.api.Assertions;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.List;
+
+public class PatientIndexTest {
+
+    private static PatientSearchResult smiths() {
+        return PatientSearchResult.of((Bundle) null, ImmutableList.of(
+                UtilTest.mkPatient("John", "Smith", "1985-03-01"),
+                UtilTest.mkPatient("\u00c9mile", "Smith", "1990-01-01"),
+                UtilTest.mkPatient("Johanna", "Smithson", "1985-12-31"),
+                UtilTest.mkPatient(null, "Smith", null)));
+    }
+
+    private static PatientSearchResult jones() {
+        final Patient mary = UtilTest.mkPatient("Mary", "Jones", "1984-12-31");
+        mary.setId("jones-1");
+        return PatientSearchResult.of((Bundle) null, ImmutableList.of(mary, UtilTest.mkPatient("Jo", "Jones", "1986-01-01")));
+    }
+
+    private static List<String> firstNames(final List<Patient> patients) {
+        return ImmutableList.copyOf(patients.stream().map(Util::extractFirstName).iterator());
+    }
+
+    @Test
+    public void testFindByFirstNamePrefix01() {
+        final PatientIndex index = new PatientIndex();
+        index.put("smith", smiths());
+        index.put("jones", jones());
+        Assertions.assertThat(firstNames(index.findByFirstNamePrefix("jo"))).containsExactly("Jo", "John", "Johanna");
+        Assertions.assertThat(firstNames(index.findByFirstNamePrefix("EMI"))).containsExactly("\u00c9mile");
+        Assertions.assertThat(index.findByFirstNamePrefix("x")).isEmpty();
+        // the patient without a first name is left out
+        Assertions.assertThat(index.findByFirstNamePrefix("")).hasSize(5);
+    }
+
+    @Test
+    public void testFindByLastNamePrefix01() {
+        final PatientIndex index = new PatientIndex();
+        index.put("smith", smiths());
+        index.put("jones", jones());
+        Assertions.assertThat(index.findByLastNamePrefix("smith")).hasSize(4);
+        Assertions.assertThat(firstNames(index.findByLastNamePrefix("Smiths"))).containsExactly("Johanna");
+        Assertions.assertThat(index.findByLastNamePrefix("J")).extracting(Util::extractLastName).containsOnly("Jones");
+    }
+
+    @Test
+    public void testFindBornBetween01() {
+        final PatientIndex index = new PatientIndex();
+        index.put("smith", smiths());
+        index.put("jones", jones());
+        Assertions.assertThat(firstNames(index.findBornIn(1985))).containsExactly("John", "Johanna");
+        Assertions.assertThat(firstNames(index.findBornBetween((int) LocalDate.of(1984, 12, 31).toEpochDay(), (int) LocalDate.of(1985, 3, 1).toEpochDay())))
+                .containsExactly("Mary", "John");
+        Assertions.assertThat(index.findBornBetween(1, 0)).isEmpty();
+        Assertions.assertThat(index.findBornIn(1970)).isEmpty();
+    }
+
+    @Test
+    public void testPutRemove01() {
+        final PatientIndex index = new PatientIndex();
+        final PatientSearchResult smiths = smiths();
+        index.put("smith", smiths);
+        index.put("jones", jones());
+        Assertions.assertThat(index.getSegmentCount()).isEqualTo(2);
+        Assertions.assertThat(index.size()).isEqualTo(6);
+        // a refresh replaced the result, removing the old one leaves the new one indexed
+        final PatientSearchResult refreshed = PatientSearchResult.of((Bundle) null, ImmutableList.of(UtilTest.mkPatient("Adam", "Smith", "2000-01-01")));
+        index.put("smith", refreshed);
+        index.remove("smith", smiths);
+        Assertions.assertThat(firstNames(index.findByLastNamePrefix("smith"))).containsExactly("Adam");
+        index.remove("smith", refreshed);
+        Assertions.assertThat(index.findByLastNamePrefix("smith")).isEmpty();
+        index.put("jones", PatientSearchResult.EMPTY);
+        Assertions.assertThat(index.getSegmentCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testEstimateBytes01() {
+        Assertions.assertThat(PatientIndex.estimateBytes(PatientSearchResult.EMPTY)).isZero();
+        Assertions.assertThat(PatientIndex.estimateBytes(jones().projected())).isPositive();
+        // the segment of a result that is not projected holds summaries of its own
+        Assertions.assertThat(PatientIndex.estimateBytes(jones())).isGreaterThan(PatientIndex.estimateBytes(jones().projected()));
+        Assertions.assertThat(PatientIndex.estimateBytes(smiths())).isGreaterThan(PatientIndex.estimateBytes(jones()));
+    }
+
+    @Test
+    public void testProjected01() {
+        final PatientIndex index = new PatientIndex();
+        index.put("jones", jones().projected());
+        index.put("jones2", jones());
+        // the same patient found by two searches is returned once
+        Assertions.assertThat(index.findByLastNamePrefix("jones")).extracting(p -> p.getIdElement().getIdPart()).containsOnlyOnce("jones-1");
+        Assertions.assertThat(index.findBornIn(1984)).hasSize(1);
+    }
+}
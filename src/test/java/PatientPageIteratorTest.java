@@ -0,0 +1,104 @@
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+import lombok.extern.slf4j.Slf4j;
+import org.assertj.core.api.Assertions;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+@Slf4j
+public class PatientPageIteratorTest {
+    private final IGenericClient client = FhirClients.context().newRestfulGenericClient("http://localhost:1/baseR4");
+
+    @Test
+    public void testStream01() {
+        final Patient john = UtilTest.mkPatient("John", "Smith", "2000-01-01");
+        final Patient mary = UtilTest.mkPatient("Mary", "Smith", "2000-01-01");
+        final Bundle page = new Bundle();
+        page.addEntry().setResource(john);
+        page.addEntry().setResource(new Observation());
+        page.addEntry();
+        page.addEntry().setResource(mary);
+        final List<Patient> patients = PatientPageIterator.stream(client, page, MoreExecutors.directExecutor(), 1).collect(Collectors.toList());
+        Assertions.assertThat(patients).containsExactly(john, mary);
+    }
+
+    @Test
+    public void testStream02() {
+        final List<Patient> patients = PatientPageIterator.stream(client, null, MoreExecutors.directExecutor(), 1).collect(Collectors.toList());
+        Assertions.assertThat(patients).isEmpty();
+    }
+
+    @Test
+    public void testStream03() {
+        final List<Patient> patients = PatientPageIterator.stream(client, new Bundle(), MoreExecutors.directExecutor(), 0).collect(Collectors.toList());
+        Assertions.assertThat(patients).isEmpty();
+    }
+
+    private static Bundle search(final IGenericClient client, final int count) {
+        return client.search().forResource(Patient.class).where(Patient.FAMILY.matches().value("Smith"))
+                .count(count).returnBundle(Bundle.class).execute();
+    }
+
+    private static List<String> ids(final List<Patient> patients) {
+        return patients.stream().map(p -> p.getIdElement().getIdPart()).collect(Collectors.toList());
+    }
+
+    private static void awaitPageCount(final FhirStubServer stub, final long count) throws InterruptedException {
+        for (int i = 0; i < 200 && stub.getPageCount() < count; i++) {
+            TimeUnit.MILLISECONDS.sleep(10L);
+        }
+    }
+
+    @Test
+    public void testStream04() throws Exception {
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        try (final FhirStubServer stub = new FhirStubServer(FhirStubServer.generate(5L, ImmutableList.of("Smith"), 50), 5L).start()) {
+            final IGenericClient stubClient = FhirClients.newClient(stub.getBaseUrl(), 1);
+            final List<String> expected = ids(search(stubClient, 50).getEntry().stream().map(e -> (Patient) e.getResource()).collect(Collectors.toList()));
+            try (final Stream<Patient> patients = PatientPageIterator.stream(stubClient, search(stubClient, 10), executor, 2)) {
+                final Iterator<Patient> iterator = patients.iterator();
+                Assertions.assertThat(iterator.hasNext()).isTrue();
+                // two pages ahead of the first one, and no more while it is read
+                awaitPageCount(stub, 2L);
+                TimeUnit.MILLISECONDS.sleep(100L);
+                Assertions.assertThat(stub.getPageCount()).isEqualTo(2L);
+
+                final List<Patient> read = new ArrayList<>();
+                iterator.forEachRemaining(read::add);
+                Assertions.assertThat(ids(read)).hasSize(50).isEqualTo(expected);
+                Assertions.assertThat(stub.getPageCount()).isEqualTo(4L);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testStream05() throws Exception {
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        try (final FhirStubServer stub = new FhirStubServer(FhirStubServer.generate(5L, ImmutableList.of("Smith"), 100), 5L).start()) {
+            final IGenericClient stubClient = FhirClients.newClient(stub.getBaseUrl(), 1);
+            final Stream<Patient> patients = PatientPageIterator.stream(stubClient, search(stubClient, 10), executor, 2);
+            // into the second page, the third and fourth loaded ahead
+            Assertions.assertThat(patients.limit(15L).count()).isEqualTo(15L);
+            patients.close();
+            TimeUnit.MILLISECONDS.sleep(200L);
+            // closed on the second of ten pages, loads not yet started are cancelled, nothing past the two ahead of it
+            Assertions.assertThat(stub.getPageCount()).isBetween(1L, 3L);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
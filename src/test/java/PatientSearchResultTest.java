@@ -0,0 +1,66 @@
+import com.google.common.collect.ImmutableList;
+import lombok.extern.slf4j.Slf4j;
+import org.assertj.core.api.Assertions;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.Test;
+
+import java.util.Date;
+
+@Slf4j
+public class PatientSearchResultTest {
+
+    @Test
+    public void testOf01() {
+        final Patient older = UtilTest.mkPatient("John", "Smith", "2000-01-01");
+        older.getMeta().setLastUpdated(new Date(1000L));
+        final Patient newer = UtilTest.mkPatient("Mary", "Smith", "2000-01-01");
+        newer.getMeta().setLastUpdated(new Date(2000L));
+        final Bundle bundle = new Bundle();
+        bundle.getMeta().setVersionId("7");
+        final PatientSearchResult result = PatientSearchResult.of(bundle, ImmutableList.of(older, newer, UtilTest.mkPatient("Adam", "Smith", null)));
+        Assertions.assertThat(result.getPatients()).hasSize(3);
+        Assertions.assertThat(result.getVersionId()).isEqualTo("7");
+        Assertions.assertThat(result.getLastUpdated()).isEqualTo(new Date(2000L));
+        Assertions.assertThat(result.getSummaries()).extracting(PatientSummary::getFirstName).containsExactly("John", "Mary", "Adam");
+    }
+
+    @Test
+    public void testOf02() {
+        final PatientSearchResult result = PatientSearchResult.of((Bundle) null, ImmutableList.of(UtilTest.mkPatient("John", "Smith", "2000-01-01")));
+        Assertions.assertThat(result.getVersionId()).isNull();
+        Assertions.assertThat(result.getLastUpdated()).isNull();
+    }
+
+    @Test
+    public void testProjected01() {
+        final PatientSearchResult result = PatientSearchResult.of((Bundle) null, ImmutableList.of(UtilTest.mkPatient("John", "Smith", "2000-01-01"), UtilTest.mkPatient("Mary", "Smith", null)));
+        final PatientSearchResult projected = result.projected();
+        Assertions.assertThat(result.isProjected()).isFalse();
+        Assertions.assertThat(projected.isProjected()).isTrue();
+        Assertions.assertThat(projected.getPatients()).isEmpty();
+        Assertions.assertThat(projected.getSummaries()).isEqualTo(result.getSummaries());
+        Assertions.assertThat(projected.toPatients()).extracting(Util::extractFirstName).containsExactly("John", "Mary");
+        Assertions.assertThat(PatientSearchResult.EMPTY.projected().toPatients()).isEmpty();
+    }
+
+    @Test
+    public void testProjected02() {
+        final PatientSearchResult projected = PatientSearchResult.of((Bundle) null, ImmutableList.of(UtilTest.mkPatient("John", "Smith", "2000-01-01"))).projected();
+        // rebuilt patients can be modified as parsed ones
+        final Patient john = projected.toPatients().get(0);
+        john.getNameFirstRep().addGiven("Paul");
+        john.addName().setFamily("Jones");
+        Assertions.assertThat(john.getName()).hasSize(2);
+        Assertions.assertThat(john.getNameFirstRep().getGiven()).hasSize(2);
+        Assertions.assertThat(projected.toPatients().get(0).getName()).hasSize(1);
+    }
+
+    @Test
+    public void testEstimateBytes01() {
+        final PatientSearchResult result = PatientSearchResult.of((Bundle) null, ImmutableList.of(UtilTest.mkPatient("John", "Smith", "2000-01-01"), UtilTest.mkPatient("Mary", "Smith", null)));
+        Assertions.assertThat(PatientSearchResult.EMPTY.estimateBytes()).isPositive();
+        Assertions.assertThat(result.estimateBytes()).isGreaterThan(2 * PatientSearchResult.PATIENT_BYTES);
+        Assertions.assertThat(result.projected().estimateBytes()).isGreaterThan(PatientSearchResult.EMPTY.estimateBytes()).isLessThan(PatientSearchResult.PATIENT_BYTES);
+    }
+}
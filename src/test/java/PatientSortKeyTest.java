@@ -0,0 +1,90 @@
+import com.google.common.collect.ImmutableList;
+import lombok.extern.slf4j.Slf4j;
+import org.assertj.core.api.Assertions;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@Slf4j
+public class PatientSortKeyTest {
+
+    @Test
+    public void testOf01() {
+        final Patient patient = UtilTest.mkPatient("John", "Smith", "1985-03-15");
+        final PatientSortKey key = PatientSortKey.of(patient);
+        Assertions.assertThat(key.getLastName()).isEqualTo("Smith");
+        Assertions.assertThat(key.getFirstName()).isEqualTo("John");
+        Assertions.assertThat(key.getBirthDate()).isEqualTo(LocalDate.of(1985, 3, 15).toEpochDay());
+        Assertions.assertThat(key.getPatient()).isSameAs(patient);
+    }
+
+    @Test
+    public void testSortByLastName01() {
+        final Patient john = UtilTest.mkPatient("John", "Smith", "1985-03-15");
+        final Patient olderJohn = UtilTest.mkPatient("John", "Smith", "1950-01-01");
+        final Patient adam = UtilTest.mkPatient("Adam", "Smith", "2000-01-01");
+        final Patient mary = UtilTest.mkPatient("Mary", "Jones", null);
+        final Patient nobody = UtilTest.mkPatient(null, null, null);
+        Assertions.assertThat(PatientSortKey.sortByLastName(ImmutableList.of(john, olderJohn, adam, mary, nobody)))
+                .containsExactly(nobody, mary, adam, olderJohn, john);
+        Assertions.assertThat(PatientSortKey.sortByFirstName(ImmutableList.of(john, mary, olderJohn, adam, nobody)))
+                .containsExactly(nobody, adam, olderJohn, john, mary);
+        Assertions.assertThat(PatientSortKey.sortByLastName(ImmutableList.of())).isEmpty();
+    }
+
+    @Test
+    public void testSortByLastName02() {
+        final List<Patient> patients = FhirStubServer.generate(7L, ImmutableList.of("Smith", "Jones", "Brown"), 50);
+        final List<Patient> sorted = patients.stream()
+                .sorted(Comparator.comparing(Util::extractLastName).thenComparing(Util::extractFirstName).thenComparing(Util::extractBirthEpochDay))
+                .collect(Collectors.toList());
+        Assertions.assertThat(PatientSortKey.sortByLastName(patients)).containsExactlyElementsOf(sorted);
+    }
+
+    @Test
+    public void testMergeByLastName01() {
+        final List<String> lastNames = ImmutableList.of("Smith", "Martinez", "Martin", "Jones", "Smith");
+        final List<Patient> patients = FhirStubServer.generate(11L, ImmutableList.of("Smith", "Martin", "Martinez", "Jones", "Brown"), 30);
+        // per name lists sorted by first name as the cache holds them, Martin also holding the Martinez patients
+        final List<List<Patient>> lists = lastNames.stream()
+                .map(name -> PatientSortKey.sortByFirstName(patients.stream().filter(p -> Util.matchesFamily(p, name)).collect(Collectors.toList())))
+                .collect(Collectors.toList());
+        final List<Patient> concatenated = lists.stream().flatMap(List::stream).collect(Collectors.toList());
+        Assertions.assertThat(PatientSortKey.mergeByLastName(lists).collect(Collectors.toList()))
+                .containsExactlyElementsOf(PatientSortKey.sortByLastName(concatenated));
+        Assertions.assertThat(PatientSortKey.mergeByLastName(lists).limit(10L).collect(Collectors.toList()))
+                .containsExactlyElementsOf(PatientSortKey.sortByLastName(concatenated).subList(0, 10));
+    }
+
+    @Test
+    public void testMergeByLastName02() {
+        Assertions.assertThat(PatientSortKey.mergeByLastName(ImmutableList.of())).isEmpty();
+        final Patient john = UtilTest.mkPatient("John", "Smith", "1985-03-15");
+        final List<List<Patient>> lists = new ArrayList<>();
+        lists.add(ImmutableList.of());
+        lists.add(null);
+        lists.add(ImmutableList.of(john));
+        Assertions.assertThat(PatientSortKey.mergeByLastName(lists)).containsExactly(john);
+        Assertions.assertThat(PatientSortKey.mergeByLastName(lists).spliterator().getExactSizeIfKnown()).isEqualTo(1L);
+    }
+
+    @Test
+    public void testMergeSummariesByLastName01() {
+        final List<String> lastNames = ImmutableList.of("Smith", "Martinez", "Martin", "Jones", "Smith");
+        final List<Patient> patients = FhirStubServer.generate(11L, ImmutableList.of("Smith", "Martin", "Martinez", "Jones", "Brown"), 30);
+        final List<List<Patient>> lists = lastNames.stream()
+                .map(name -> PatientSortKey.sortByFirstName(patients.stream().filter(p -> Util.matchesFamily(p, name)).collect(Collectors.toList())))
+                .collect(Collectors.toList());
+        final List<List<PatientSummary>> summaries = lists.stream()
+                .map(list -> list.stream().map(PatientSummary::of).collect(Collectors.toList()))
+                .collect(Collectors.toList());
+        // the summaries merge in the order of their patients
+        Assertions.assertThat(PatientSortKey.mergeSummariesByLastName(summaries).collect(Collectors.toList()))
+                .containsExactlyElementsOf(PatientSortKey.mergeByLastName(lists).map(PatientSummary::of).collect(Collectors.toList()));
+    }
+}
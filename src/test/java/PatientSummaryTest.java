@@ -0,0 +1,51 @@
+import lombok.extern.slf4j.Slf4j;
+import org.assertj.core.api.Assertions;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.Test;
+
+import java.time.LocalDate;
+
+@Slf4j
+public class PatientSummaryTest {
+
+    @Test
+    public void testOf01() {
+        final Patient patient = UtilTest.mkPatient("John", "Smith", "1985-03-15");
+        patient.setId("pat2");
+        final PatientSummary summary = PatientSummary.of(patient);
+        Assertions.assertThat(summary.getId()).isEqualTo("pat2");
+        Assertions.assertThat(summary.getFirstName()).isEqualTo("John");
+        Assertions.assertThat(summary.getLastName()).isEqualTo("Smith");
+        Assertions.assertThat(summary.getBirthDate()).isEqualTo(LocalDate.of(1985, 3, 15).toEpochDay());
+        Assertions.assertThat(summary.getDob()).isEqualTo("1985-03-15");
+    }
+
+    @Test
+    public void testOf02() {
+        final PatientSummary summary = PatientSummary.of(UtilTest.mkPatient(null, null, null));
+        Assertions.assertThat(summary.getId()).isNull();
+        Assertions.assertThat(summary.getFirstName()).isEmpty();
+        Assertions.assertThat(summary.getLastName()).isEmpty();
+        Assertions.assertThat(summary.hasBirthDate()).isFalse();
+        Assertions.assertThat(summary.getDob()).isEmpty();
+    }
+
+    @Test
+    public void testToPatient01() {
+        final Patient patient = UtilTest.mkPatient("John", "Smith", "1985-03-15");
+        patient.setId("pat2");
+        final Patient slim = PatientSummary.of(patient).toPatient();
+        Assertions.assertThat(slim.getIdElement().getIdPart()).isEqualTo("pat2");
+        Assertions.assertThat(Util.extractFirstName(slim)).isEqualTo("John");
+        Assertions.assertThat(Util.extractLastName(slim)).isEqualTo("Smith");
+        Assertions.assertThat(Util.extractDob(slim)).isEqualTo("1985-03-15");
+    }
+
+    @Test
+    public void testToPatient02() {
+        final Patient slim = PatientSummary.of(UtilTest.mkPatient(null, "Smith", null)).toPatient();
+        Assertions.assertThat(Util.extractFirstName(slim)).isEmpty();
+        Assertions.assertThat(Util.extractLastName(slim)).isEqualTo("Smith");
+        Assertions.assertThat(slim.hasBirthDate()).isFalse();
+    }
+}
@@ -0,0 +1,192 @@
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import com.google.common.collect.ImmutableList;
+import lombok.extern.slf4j.Slf4j;
+import org.assertj.core.api.Assertions;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.After;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+
+@Slf4j
+public class RequestHedgerTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static LatencySnapshot mkLatencies(final long count, final long millis) {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 0L; i < count; i++) {
+            histogram.record(millis);
+        }
+        return histogram.snapshot();
+    }
+
+    @Test
+    public void testCall01() throws Exception {
+        final LatencySnapshot latencies = mkLatencies(RequestHedger.MIN_SAMPLES - 1L, 10L);
+        final RequestHedger hedger = new RequestHedger(95d, 1d, () -> latencies, executor);
+        final String caller = Thread.currentThread().getName();
+        Assertions.assertThat(hedger.call(() -> Thread.currentThread().getName())).isEqualTo(caller);
+        Assertions.assertThat(hedger.getDelayMillis()).isEqualTo(-1L);
+        Assertions.assertThat(hedger.getHedgedCount()).isZero();
+    }
+
+    @Test
+    public void testCall02() throws Exception {
+        final LatencySnapshot latencies = mkLatencies(100L, 10L);
+        final RequestHedger hedger = new RequestHedger(95d, 1d, () -> latencies, executor);
+        final AtomicInteger attempts = new AtomicInteger();
+        final String answer = hedger.call(() -> {
+            if (attempts.incrementAndGet() == 1) {
+                TimeUnit.SECONDS.sleep(5L);
+                return "primary";
+            }
+            return "hedge";
+        });
+        Assertions.assertThat(answer).isEqualTo("hedge");
+        Assertions.assertThat(hedger.getHedgedCount()).isEqualTo(1L);
+        Assertions.assertThat(hedger.getWonCount()).isEqualTo(1L);
+        Assertions.assertThat(hedger.getWastedCount()).isZero();
+    }
+
+    @Test
+    public void testCall03() throws Exception {
+        final LatencySnapshot latencies = mkLatencies(100L, 10L);
+        final RequestHedger hedger = new RequestHedger(95d, 0d, () -> latencies, executor);
+        final AtomicInteger attempts = new AtomicInteger();
+        final String answer = hedger.call(() -> {
+            attempts.incrementAndGet();
+            TimeUnit.MILLISECONDS.sleep(100L);
+            return "primary";
+        });
+        Assertions.assertThat(answer).isEqualTo("primary");
+        Assertions.assertThat(attempts.get()).isEqualTo(1);
+        Assertions.assertThat(hedger.getHedgedCount()).isZero();
+    }
+
+    @Test
+    public void testCall04() throws Exception {
+        final LatencySnapshot latencies = mkLatencies(100L, 1000L);
+        final RequestHedger hedger = new RequestHedger(95d, 1d, () -> latencies, executor);
+        Assertions.assertThat(hedger.call(() -> "fast")).isEqualTo("fast");
+        Assertions.assertThat(hedger.getRequestCount()).isEqualTo(1L);
+        Assertions.assertThat(hedger.getHedgedCount()).isZero();
+    }
+
+    @Test
+    public void testCall05() {
+        final LatencySnapshot latencies = mkLatencies(100L, 1000L);
+        final RequestHedger hedger = new RequestHedger(95d, 1d, () -> latencies, executor);
+        Assertions.assertThatThrownBy(() -> hedger.call(() -> {
+            throw new IllegalStateException("failed");
+        })).isInstanceOf(IllegalStateException.class).hasMessage("failed");
+    }
+
+    @Test
+    public void testCall06() throws Exception {
+        // a hedge failing while the primary is still running does not win, the primary's answer is waited for
+        final LatencySnapshot latencies = mkLatencies(100L, 10L);
+        final RequestHedger hedger = new RequestHedger(95d, 1d, () -> latencies, executor);
+        final AtomicInteger attempts = new AtomicInteger();
+        final String answer = hedger.call(() -> {
+            if (attempts.incrementAndGet() == 1) {
+                TimeUnit.MILLISECONDS.sleep(300L);
+                return "primary";
+            }
+            throw new IllegalStateException("hedge failed");
+        });
+        Assertions.assertThat(answer).isEqualTo("primary");
+        Assertions.assertThat(hedger.getHedgedCount()).isEqualTo(1L);
+        Assertions.assertThat(hedger.getWonCount()).isZero();
+        Assertions.assertThat(hedger.getWastedCount()).isEqualTo(1L);
+    }
+
+    @Test
+    public void testCall07() throws Exception {
+        // the losing request is interrupted and what it registered to abort is run
+        final LatencySnapshot latencies = mkLatencies(100L, 10L);
+        final RequestHedger hedger = new RequestHedger(95d, 1d, () -> latencies, executor);
+        final AtomicInteger attempts = new AtomicInteger();
+        final CountDownLatch aborted = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final String answer = hedger.call(() -> {
+            if (attempts.incrementAndGet() == 1) {
+                RequestHedger.onCancel(aborted::countDown);
+                try {
+                    TimeUnit.SECONDS.sleep(5L);
+                } catch (final InterruptedException e) {
+                    interrupted.countDown();
+                    throw e;
+                }
+                return "primary";
+            }
+            return "hedge";
+        });
+        Assertions.assertThat(answer).isEqualTo("hedge");
+        Assertions.assertThat(aborted.await(1L, TimeUnit.SECONDS)).isTrue();
+        Assertions.assertThat(interrupted.await(1L, TimeUnit.SECONDS)).isTrue();
+        // outside of a hedged request, nothing is registered
+        RequestHedger.onCancel(() -> {
+            throw new IllegalStateException("not hedged");
+        });
+    }
+
+    @Test
+    public void testCall08() throws Exception {
+        // the losing http request is aborted, and gives its limiter slot back long before the server would answer it
+        final AtomicInteger searches = new AtomicInteger();
+        try (final FhirStubServer stub = new FhirStubServer(FhirStubServer.generate(7L, ImmutableList.of("Smith"), 2), 7L).start()) {
+            final IGenericClient client = FhirClients.newClient(stub.getBaseUrl(), 2);
+            client.registerInterceptor(new TimeCostInterceptor(false));
+            final Callable<Bundle> search = () -> client.search().forResource(Patient.class)
+                    .where(Patient.FAMILY.matches().value("Smith")).returnBundle(Bundle.class).execute();
+            search.call();
+            stub.setLatency(random -> searches.getAndIncrement() == 0 ? 5000L : 0L);
+            final AdaptiveLimiter limiter = new AdaptiveLimiter(10, 10, 0, Duration.ZERO);
+            final LatencySnapshot latencies = mkLatencies(100L, 10L);
+            final RequestHedger hedger = new RequestHedger(95d, 1d, () -> latencies, executor);
+            final long start = System.nanoTime();
+            final Bundle bundle = hedger.call(() -> limiter.call(search));
+            Assertions.assertThat(bundle.getEntry()).hasSize(2);
+            Assertions.assertThat(hedger.getWonCount()).isEqualTo(1L);
+            for (int i = 0; i < 100 && limiter.getInFlight() > 0; i++) {
+                TimeUnit.MILLISECONDS.sleep(10L);
+            }
+            Assertions.assertThat(limiter.getInFlight()).isZero();
+            Assertions.assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(4000L);
+            Assertions.assertThat(limiter.getOverloadCount()).isZero();
+        }
+    }
+
+    @Test
+    public void testGetDelayMillis01() throws Exception {
+        // the delay follows the latencies of the last windows, not those since the start
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final RequestHedger hedger = new RequestHedger(95d, 1d, histogram::snapshot, executor, Duration.ofMillis(200L));
+        LongStream.range(0L, 100L).forEach(i -> histogram.record(1000L));
+        Assertions.assertThat(hedger.getDelayMillis()).isGreaterThanOrEqualTo(1000L);
+        for (int window = 0; window < 2; window++) {
+            TimeUnit.MILLISECONDS.sleep(250L);
+            LongStream.range(0L, 100L).forEach(i -> histogram.record(10L));
+            hedger.getDelayMillis();
+        }
+        Assertions.assertThat(hedger.getDelayMillis()).isBetween(1L, 20L);
+        // nothing recorded for two windows, too few samples to hedge
+        TimeUnit.MILLISECONDS.sleep(250L);
+        hedger.getDelayMillis();
+        TimeUnit.MILLISECONDS.sleep(250L);
+        Assertions.assertThat(hedger.getDelayMillis()).isEqualTo(-1L);
+    }
+}
@@ -0,0 +1,42 @@
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class RequestMetricsTest {
+
+    @Test
+    public void testOperationOf01() {
+        Assertions.assertThat(RequestMetrics.Operation.of("http://localhost/baseR4/Patient?family=smith")).isEqualTo(RequestMetrics.Operation.SEARCH);
+        Assertions.assertThat(RequestMetrics.Operation.of("http://localhost/baseR4/Patient")).isEqualTo(RequestMetrics.Operation.SEARCH);
+        Assertions.assertThat(RequestMetrics.Operation.of("http://localhost/baseR4/Patient/_search")).isEqualTo(RequestMetrics.Operation.SEARCH);
+        Assertions.assertThat(RequestMetrics.Operation.of("http://localhost/baseR4?_getpages=abc&_getpagesoffset=20")).isEqualTo(RequestMetrics.Operation.PAGE);
+        Assertions.assertThat(RequestMetrics.Operation.of("http://localhost/baseR4/Patient/stub-1")).isEqualTo(RequestMetrics.Operation.READ);
+        Assertions.assertThat(RequestMetrics.Operation.of("http://localhost/baseR4/metadata")).isEqualTo(RequestMetrics.Operation.OTHER);
+        Assertions.assertThat(RequestMetrics.Operation.of("http://localhost/baseR4/Patient/$export?_type=Patient")).isEqualTo(RequestMetrics.Operation.OTHER);
+        Assertions.assertThat(RequestMetrics.Operation.of(null)).isEqualTo(RequestMetrics.Operation.OTHER);
+    }
+
+    @Test
+    public void testResponseReceived01() {
+        final RequestMetrics metrics = new RequestMetrics();
+        metrics.requestSent();
+        metrics.requestSent();
+        metrics.requestSent();
+        Assertions.assertThat(metrics.getInFlight()).isEqualTo(3L);
+        metrics.responseReceived(RequestMetrics.Operation.SEARCH, 200, 10L, 1000L);
+        metrics.responseReceived(RequestMetrics.Operation.SEARCH, 503, 20L, -1L);
+        metrics.requestFailed();
+        Assertions.assertThat(metrics.getInFlight()).isEqualTo(0L);
+        Assertions.assertThat(metrics.getRequestCount()).isEqualTo(3L);
+        Assertions.assertThat(metrics.getResponseCount()).isEqualTo(2L);
+        Assertions.assertThat(metrics.getNoResponseCount()).isEqualTo(1L);
+        Assertions.assertThat(metrics.getCount(RequestMetrics.Operation.SEARCH)).isEqualTo(2L);
+        Assertions.assertThat(metrics.getCount(RequestMetrics.Operation.READ)).isEqualTo(0L);
+        Assertions.assertThat(metrics.getErrorCount(RequestMetrics.Operation.SEARCH)).isEqualTo(1L);
+        Assertions.assertThat(metrics.getLatencies(RequestMetrics.Operation.SEARCH).getMax()).isEqualTo(20L);
+        Assertions.assertThat(metrics.getBytesReceived()).isEqualTo(1000L);
+        Assertions.assertThat(metrics.getStatusCount(503)).isEqualTo(1L);
+        Assertions.assertThat(metrics.getStatusClassCount(2)).isEqualTo(1L);
+        Assertions.assertThat(metrics.getStatusClassCount(5)).isEqualTo(1L);
+        Assertions.assertThat(metrics.getStatusCounts()).containsExactly(Assertions.entry(200, 1L), Assertions.entry(503, 1L));
+    }
+}
@@ -1,16 +1,61 @@
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
 import lombok.extern.slf4j.Slf4j;
 import org.assertj.core.api.Assertions;
 import org.hl7.fhir.r4.model.Patient;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 @Slf4j
 public class SampleClientTest {
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private static FhirStubServer server;
+    private static SampleClientOptions OPTIONS;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        // two patients for each name of names.txt, answered in a couple of millis so the time costs are never 0
+        server = new FhirStubServer(FhirStubServer.generate(42L, Util.readLines("names.txt"), 2), 42L).start();
+        server.setLatency(FhirStubServer.Latency.fixed(2L));
+        OPTIONS = SampleClientOptions.builder().serverBase(server.getBaseUrl()).build();
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        server.close();
+    }
+
+    private static List<String> ids(final List<Patient> patients) {
+        return patients.stream().map(p -> p.getIdElement().getIdPart()).collect(Collectors.toList());
+    }
 
     @Test
     public void testCacheLoadPatients01() {
-        final SampleClient sampleClient = new SampleClient();
+        final SampleClient sampleClient = new SampleClient(OPTIONS);
         final List<Patient> patients = sampleClient.cacheLoadPatients("Smith");
         Assertions.assertThat(patients).isNotEmpty();
         Assertions.assertThat(patients).hasSize(2);
@@ -18,21 +63,21 @@ public class SampleClientTest {
 
     @Test
     public void testCacheLoadPatients02() {
-        final SampleClient sampleClient = new SampleClient();
+        final SampleClient sampleClient = new SampleClient(OPTIONS);
         final List<Patient> patients = sampleClient.cacheLoadPatients(null);
         Assertions.assertThat(patients).isEmpty();
     }
 
     @Test
     public void testCacheLoadPatients03() {
-        final SampleClient sampleClient = new SampleClient();
+        final SampleClient sampleClient = new SampleClient(OPTIONS);
         final List<Patient> patients = sampleClient.cacheLoadPatients("");
         Assertions.assertThat(patients).isEmpty();
     }
 
     @Test
     public void testCacheLoadPatients04() {
-        final SampleClient sampleClient = new SampleClient();
+        final SampleClient sampleClient = new SampleClient(OPTIONS);
         final List<Patient> patients = sampleClient.cacheLoadPatients("Smith");
         final List<Patient> cachedPatients = sampleClient.cacheLoadPatients("Smith");
         Assertions.assertThat(cachedPatients).isNotEmpty();
@@ -40,28 +85,129 @@ public class SampleClientTest {
 
     @Test
     public void testCacheLoadPatientsFromFile01() {
-        final SampleClient sampleClient = new SampleClient();
+        final SampleClient sampleClient = new SampleClient(OPTIONS);
         final List<Patient> patients = sampleClient.cacheLoadPatientsFromFile("names.txt");
         Assertions.assertThat(patients).isNotEmpty();
     }
 
     @Test
     public void testCacheLoadPatientsFromFile02() {
-        final SampleClient sampleClient = new SampleClient();
+        final SampleClient sampleClient = new SampleClient(OPTIONS);
         final List<Patient> patients = sampleClient.cacheLoadPatientsFromFile("names1.txt");
         Assertions.assertThat(patients).isEmpty();
     }
 
     @Test
     public void testCacheLoadPatientsFromFile03() {
-        final SampleClient sampleClient = new SampleClient();
+        final SampleClient sampleClient = new SampleClient(OPTIONS);
+        final List<Patient> patients = sampleClient.cacheLoadPatientsFromFile(null);
+        Assertions.assertThat(patients).isEmpty();
+    }
+
+    @Test
+    public void testCacheLoadPatientsFromFile04() {
+        final SampleClient sampleClient = new SampleClient(OPTIONS);
+        final SampleClient parallelClient = new SampleClient(OPTIONS.toBuilder().concurrency(4).build());
+        final List<String> ids = sampleClient.cacheLoadPatientsFromFile("names.txt").stream().map(p -> p.getIdElement().getIdPart()).collect(Collectors.toList());
+        final List<String> parallelIds = parallelClient.cacheLoadPatientsFromFile("names.txt").stream().map(p -> p.getIdElement().getIdPart()).collect(Collectors.toList());
+        parallelClient.close();
+        Assertions.assertThat(parallelIds).isEqualTo(ids);
+    }
+
+    @Test
+    public void testCacheLoadPatientsFromFile05() {
+        final SampleClient sampleClient = new SampleClient(OPTIONS.toBuilder().concurrency(4).build());
         final List<Patient> patients = sampleClient.cacheLoadPatientsFromFile(null);
+        sampleClient.close();
+        Assertions.assertThat(patients).isEmpty();
+    }
+
+    @Test
+    public void testCacheLoadPatientsFromFile06() {
+        final SampleClient sampleClient = new SampleClient(OPTIONS);
+        final SampleClient batchClient = new SampleClient(OPTIONS.toBuilder().batchSize(5).build());
+        final List<String> ids = sampleClient.cacheLoadPatientsFromFile("names.txt").stream().map(p -> p.getIdElement().getIdPart()).collect(Collectors.toList());
+        final List<String> batchIds = batchClient.cacheLoadPatientsFromFile("names.txt").stream().map(p -> p.getIdElement().getIdPart()).collect(Collectors.toList());
+        Assertions.assertThat(batchIds).containsExactlyInAnyOrderElementsOf(ids);
+    }
+
+    @Test
+    public void testCacheLoadPatientsFromFile09() throws Exception {
+        // a line that is not UTF-8 fails the whole file, as reading it all up front did
+        final File file = temporaryFolder.newFile("names.txt");
+        Files.write(file.toPath(), new byte[]{'S', 'm', 'i', 't', 'h', '\n', (byte) 0xC3, '(', '\n'});
+        final SampleClient sampleClient = new SampleClient(OPTIONS);
+        Assertions.assertThat(sampleClient.cacheLoadPatientsFromFile(file.getPath())).isEmpty();
+        Assertions.assertThatThrownBy(() -> sampleClient.cacheStreamPatientsFromFile(file.getPath())).isInstanceOf(UncheckedIOException.class);
+        sampleClient.close();
+    }
+
+    @Test
+    public void testCacheLoadPatientsAsync01() {
+        final SampleClient sampleClient = new SampleClient(OPTIONS);
+        final List<Patient> patients = sampleClient.cacheLoadPatientsAsync(null).join();
+        Assertions.assertThat(patients).isEmpty();
+    }
+
+    @Test
+    public void testCacheLoadPatientsAsync02() {
+        final SampleClient sampleClient = new SampleClient(OPTIONS);
+        final CompletableFuture<List<Patient>> first = sampleClient.cacheLoadPatientsAsync("Smith", Duration.ofSeconds(30L));
+        final CompletableFuture<List<Patient>> second = sampleClient.cacheLoadPatientsAsync("Smith");
+        final List<String> ids = first.exceptionally(t -> ImmutableList.of()).join().stream().map(p -> p.getIdElement().getIdPart()).collect(Collectors.toList());
+        final List<String> sharedIds = second.exceptionally(t -> ImmutableList.of()).join().stream().map(p -> p.getIdElement().getIdPart()).collect(Collectors.toList());
+        Assertions.assertThat(sharedIds).isEqualTo(ids);
+        Assertions.assertThat(sampleClient.cacheLoadPatients("Smith")).hasSameSizeAs(ids);
+    }
+
+    @Test
+    public void testCacheLoadPatientsAsync03() throws Exception {
+        final List<String> names = IntStream.range(0, 6).mapToObj(i -> String.format("Asyncname%d", i)).collect(Collectors.toList());
+        try (final FhirStubServer stub = new FhirStubServer(FhirStubServer.generate(7L, names, 2), 7L).start()) {
+            stub.setLatency(FhirStubServer.Latency.fixed(400L));
+            // concurrency 1 keeps the sync lookups sequential, the async misses still load side by side
+            final SampleClient sampleClient = new SampleClient(OPTIONS.toBuilder().serverBase(stub.getBaseUrl()).build());
+            final long start = System.nanoTime();
+            final List<CompletableFuture<List<Patient>>> futures = names.stream().map(sampleClient::cacheLoadPatientsAsync).collect(Collectors.toList());
+            futures.forEach(future -> Assertions.assertThat(future.join()).hasSize(2));
+            Assertions.assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(names.size() * 400L);
+            sampleClient.close();
+        }
+    }
+
+    @Test
+    public void testCacheLoadPatientsAsync04() {
+        final SampleClient sampleClient = new SampleClient(OPTIONS);
+        sampleClient.close();
+        final CompletableFuture<List<Patient>> future = sampleClient.cacheLoadPatientsAsync("Smith");
+        Assertions.assertThat(future).isCompletedExceptionally();
+        Assertions.assertThatThrownBy(future::join).hasCauseInstanceOf(RejectedExecutionException.class);
+        // the failed load is not left in flight for later lookups to wait on
+        Assertions.assertThat(sampleClient.cacheLoadPatientsAsync("Smith")).isCompletedExceptionally();
+    }
+
+    @Test
+    public void testCacheLoadPatientsFromFileAsync01() {
+        final SampleClient sampleClient = new SampleClient(OPTIONS);
+        final List<Patient> patients = sampleClient.cacheLoadPatientsFromFileAsync(null).join();
         Assertions.assertThat(patients).isEmpty();
     }
 
+    @Test
+    public void testGroupByFamily01() {
+        final Patient smith = UtilTest.mkPatient("John", "Smith", "2000-01-01");
+        final Patient smithson = UtilTest.mkPatient("Adam", "Smithson", "2000-01-01");
+        final Patient jones = UtilTest.mkPatient("Mary", "Jones", "2000-01-01");
+        final Map<String, List<Patient>> byFamily = SampleClient.groupByFamily(ImmutableList.of("Smith", "Smithson", "Jones", "Brown"), ImmutableList.of(smith, smithson, jones));
+        Assertions.assertThat(byFamily.get("Smith")).containsExactly(smithson, smith);
+        Assertions.assertThat(byFamily.get("Smithson")).containsExactly(smithson);
+        Assertions.assertThat(byFamily.get("Jones")).containsExactly(jones);
+        Assertions.assertThat(byFamily.get("Brown")).isEmpty();
+    }
+
     @Test
     public void testGetAverageTimeCost01() {
-        final SampleClient sampleClient = new SampleClient();
+        final SampleClient sampleClient = new SampleClient(OPTIONS);
         final List<Patient> patients = sampleClient.cacheLoadPatients("Smith");
         final Double avgTimeCost = sampleClient.getAverageTimeCost();
         Assertions.assertThat(avgTimeCost).isGreaterThan(0d);
@@ -69,7 +215,7 @@ public class SampleClientTest {
 
     @Test
     public void testGetAverageTimeCost02() {
-        final SampleClient sampleClient = new SampleClient();
+        final SampleClient sampleClient = new SampleClient(OPTIONS);
         final List<Patient> patients = sampleClient.cacheLoadPatientsFromFile("names.txt");
         final Double avgTimeCost = sampleClient.getAverageTimeCost();
         Assertions.assertThat(avgTimeCost).isGreaterThan(0d);
@@ -77,7 +223,7 @@ public class SampleClientTest {
 
     @Test
     public void testGetAverageTimeCost03() {
-        final SampleClient sampleClient = new SampleClient();
+        final SampleClient sampleClient = new SampleClient(OPTIONS);
         final List<Patient> patients = sampleClient.cacheLoadPatients(null);
         final Double avgTimeCost = sampleClient.getAverageTimeCost();
         Assertions.assertThat(avgTimeCost).isEqualTo(0d);
@@ -85,9 +231,445 @@ public class SampleClientTest {
 
     @Test
     public void testGetAverageTimeCost04() {
-        final SampleClient sampleClient = new SampleClient();
+        final SampleClient sampleClient = new SampleClient(OPTIONS);
         final List<Patient> patients = sampleClient.cacheLoadPatientsFromFile(null);
         final Double avgTimeCost = sampleClient.getAverageTimeCost();
         Assertions.assertThat(avgTimeCost).isEqualTo(0d);
     }
+
+    @Test
+    public void testGetTimeToFirstSearch01() {
+        final SampleClient sampleClient = new SampleClient(OPTIONS);
+        final List<Patient> patients = sampleClient.cacheLoadPatients(null);
+        Assertions.assertThat(sampleClient.getTimeToFirstSearch()).isEmpty();
+    }
+
+    @Test
+    public void testPrefetchPages01() {
+        final SampleClient sampleClient = new SampleClient(OPTIONS);
+        final SampleClient pagedClient = new SampleClient(OPTIONS.toBuilder().pageSize(1).prefetchPages(2).build());
+        final long pages = server.getPageCount();
+        Assertions.assertThat(ids(pagedClient.cacheLoadPatientsFromFile("names.txt"))).isEqualTo(ids(sampleClient.cacheLoadPatientsFromFile("names.txt")));
+        Assertions.assertThat(server.getPageCount() - pages).isGreaterThanOrEqualTo(20L);
+        pagedClient.close();
+        sampleClient.close();
+    }
+
+    @Test
+    public void testFetchMode01() {
+        final SampleClient sampleClient = new SampleClient(OPTIONS);
+        final SampleClient leanClient = new SampleClient(OPTIONS.toBuilder().fetchMode(FetchMode.LEAN).build());
+        final SampleClient elementsClient = new SampleClient(OPTIONS.toBuilder().fetchMode(FetchMode.ELEMENTS).batchSize(5).build());
+        final List<String> ids = ids(sampleClient.cacheLoadPatientsFromFile("names.txt"));
+        Assertions.assertThat(ids(leanClient.cacheLoadPatientsFromFile("names.txt"))).isEqualTo(ids);
+        Assertions.assertThat(ids(elementsClient.cacheLoadPatientsFromFile("names.txt"))).isEqualTo(ids);
+        leanClient.close();
+        elementsClient.close();
+        sampleClient.close();
+    }
+
+    @Test
+    public void testLeanBatch01() throws Exception {
+        final List<Patient> patients = FhirStubServer.generate(3L, ImmutableList.of("Smith", "Jones", "Brown"), 2);
+        // found by family=jones on its second name only
+        patients.get(0).addName().setFamily("Jones").addGiven("Married");
+        try (final FhirStubServer stub = new FhirStubServer(patients, 3L).start()) {
+            final SampleClient sampleClient = new SampleClient(OPTIONS.toBuilder().serverBase(stub.getBaseUrl()).build());
+            final SampleClient leanClient = new SampleClient(OPTIONS.toBuilder().serverBase(stub.getBaseUrl()).fetchMode(FetchMode.LEAN).batchSize(3).build());
+            final Map<String, List<Patient>> expected = sampleClient.cacheLoadAllPatients(ImmutableList.of("Smith", "Jones", "Brown"));
+            final Map<String, List<Patient>> lean = leanClient.cacheLoadAllPatients(ImmutableList.of("Smith", "Jones", "Brown"));
+            Assertions.assertThat(ids(lean.get("Jones"))).hasSize(3).containsExactlyElementsOf(ids(expected.get("Jones")));
+            Assertions.assertThat(ids(lean.get("Smith"))).containsExactlyElementsOf(ids(expected.get("Smith")));
+            Assertions.assertThat(stub.getSearchCount()).isEqualTo(4L);
+            leanClient.close();
+            sampleClient.close();
+        }
+    }
+
+    @Test
+    public void testRefreshNotModified01() throws Exception {
+        final SampleClient sampleClient = new SampleClient(OPTIONS.toBuilder().refreshAfterWrite(Duration.ofMillis(50L)).build());
+        final List<String> ids = ids(sampleClient.cacheLoadPatients("Jones"));
+        TimeUnit.MILLISECONDS.sleep(100L);
+        Assertions.assertThat(ids(sampleClient.cacheLoadPatients("Jones"))).isEqualTo(ids);
+        for (int i = 0; i < 100 && sampleClient.getNotModifiedCount() == 0L; i++) {
+            TimeUnit.MILLISECONDS.sleep(20L);
+        }
+        Assertions.assertThat(sampleClient.getRefreshCount()).isEqualTo(1L);
+        Assertions.assertThat(sampleClient.getNotModifiedCount()).isEqualTo(1L);
+        Assertions.assertThat(sampleClient.getFullReloadCount()).isEqualTo(0L);
+        sampleClient.close();
+    }
+
+    @Test
+    public void testLimiterOverload01() throws Exception {
+        try (final FhirStubServer failing = new FhirStubServer(FhirStubServer.generate(1L, ImmutableList.of("Smith"), 2), 1L).start()) {
+            final AdaptiveLimiter limiter = new AdaptiveLimiter(4, 8, 16, Duration.ofSeconds(1L));
+            final SampleClient sampleClient = new SampleClient(SampleClientOptions.builder().serverBase(failing.getBaseUrl()).limiter(limiter).build());
+            failing.failNext(503, 1);
+            Assertions.assertThat(sampleClient.cacheLoadPatients("Smith")).isEmpty();
+            Assertions.assertThat(sampleClient.cacheLoadPatients("Smith")).hasSize(2);
+            Assertions.assertThat(limiter.getOverloadCount()).isGreaterThanOrEqualTo(1L);
+            Assertions.assertThat(failing.getErrorCount()).isEqualTo(1L);
+            sampleClient.close();
+        }
+    }
+
+    @Test
+    public void testReadPatient01() {
+        final SampleClient sampleClient = new SampleClient(OPTIONS.toBuilder().projection(true).build());
+        final List<PatientSummary> summaries = sampleClient.cacheLoadPatientSummaries("Smith");
+        Assertions.assertThat(summaries).hasSize(2);
+        Assertions.assertThat(sampleClient.readPatient(summaries.get(0).getId()).map(p -> p.getIdElement().getIdPart())).contains(summaries.get(0).getId());
+        Assertions.assertThat(sampleClient.getTimeToFirstSearch()).isPresent();
+        sampleClient.close();
+    }
+
+    @Test
+    public void testCacheLoadPatientsFromFile07() {
+        final SampleClient sampleClient = new SampleClient(OPTIONS);
+        final List<Patient> patients = sampleClient.cacheLoadPatientsFromFile("names.txt");
+        Assertions.assertThat(patients).hasSize(42);
+        Assertions.assertThat(ids(patients)).isEqualTo(ids(PatientSortKey.sortByLastName(patients)));
+        Assertions.assertThat(ids(sampleClient.cacheLoadPatientsFromFile("names.txt", 5))).isEqualTo(ids(patients.subList(0, 5)));
+        Assertions.assertThat(sampleClient.cacheLoadPatientsFromFile("names.txt", 0)).isEmpty();
+        Assertions.assertThat(ids(sampleClient.cacheStreamPatientsFromFile("names.txt").collect(Collectors.toList()))).isEqualTo(ids(patients));
+        sampleClient.close();
+    }
+
+    @Test
+    public void testCacheLoadPatientsFromFile10() throws Exception {
+        // in projection mode, the summaries are merged and only the patients read rebuilt, in the order of the full patients
+        final SampleClient sampleClient = new SampleClient(OPTIONS);
+        final SampleClient projectionClient = new SampleClient(OPTIONS.toBuilder().projection(true).build());
+        final List<Patient> patients = sampleClient.cacheLoadPatientsFromFile("names.txt");
+        Assertions.assertThat(ids(projectionClient.cacheLoadPatientsFromFile("names.txt"))).isEqualTo(ids(patients));
+        Assertions.assertThat(ids(projectionClient.cacheLoadPatientsFromFileAsync("names.txt").get())).isEqualTo(ids(patients));
+        Assertions.assertThat(projectionClient.cacheStreamPatientSummariesFromFile("names.txt").collect(Collectors.toList()))
+                .containsExactlyElementsOf(patients.stream().map(PatientSummary::of).collect(Collectors.toList()));
+        Assertions.assertThat(sampleClient.cacheStreamPatientSummariesFromFile("names.txt").map(PatientSummary::getId).collect(Collectors.toList()))
+                .isEqualTo(ids(patients));
+        sampleClient.close();
+        projectionClient.close();
+    }
+
+    @Test
+    public void testCacheVisitPatientsFromFile01() throws Exception {
+        final File file = temporaryFolder.newFile("names.txt");
+        final List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            lines.add(i % 10 == 0 ? " " : "Name" + i);
+        }
+        lines.add(1, "Smith");
+        lines.add(" smith ");
+        Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+        final List<String> expected = lines.stream().map(String::trim).filter(l -> !l.isEmpty() && !"smith".equals(l)).collect(Collectors.toList());
+
+        for (final SampleClientOptions options : ImmutableList.of(OPTIONS, OPTIONS.toBuilder().concurrency(4).build(), OPTIONS.toBuilder().concurrency(4).batchSize(7).build())) {
+            final SampleClient sampleClient = new SampleClient(options);
+            final List<String> visited = new ArrayList<>();
+            final List<Integer> sizes = new ArrayList<>();
+            final long count = sampleClient.cacheVisitPatientsFromFile(file.getAbsolutePath(), (name, patients) -> {
+                visited.add(name);
+                sizes.add(patients.size());
+            });
+            sampleClient.close();
+            Assertions.assertThat(count).isEqualTo(expected.size());
+            Assertions.assertThat(visited).isEqualTo(expected);
+            Assertions.assertThat(sizes.get(visited.indexOf("Smith"))).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void testCacheLoadPatientsFromFile08() throws Exception {
+        final File file = temporaryFolder.newFile("names.txt");
+        Files.write(file.toPath(), ImmutableList.of("Jones", "", "Smith", "jones"), StandardCharsets.UTF_8);
+        final SampleClient sampleClient = new SampleClient(OPTIONS);
+        final List<Patient> patients = sampleClient.cacheLoadPatientsFromFile(file.getAbsolutePath());
+        sampleClient.close();
+        Assertions.assertThat(patients).hasSize(4);
+        Assertions.assertThat(patients.stream().map(Util::extractLastName).collect(Collectors.toList())).containsExactly("Jones", "Jones", "Smith", "Smith");
+    }
+
+    @Test
+    public void testCacheKey01() {
+        final SampleClient sampleClient = new SampleClient(OPTIONS);
+        final long searches = server.getSearchCount();
+        final List<String> ids = ids(sampleClient.cacheLoadPatients("Smith"));
+        Assertions.assertThat(ids(sampleClient.cacheLoadPatients("SMITH"))).isEqualTo(ids);
+        Assertions.assertThat(ids(sampleClient.cacheLoadPatients("  smith "))).isEqualTo(ids);
+        Assertions.assertThat(ids).hasSize(2);
+        Assertions.assertThat(server.getSearchCount() - searches).isEqualTo(1L);
+        Assertions.assertThat(sampleClient.getCacheStats().missCount()).isEqualTo(1L);
+        Assertions.assertThat(sampleClient.getCacheStats().hitCount()).isEqualTo(2L);
+        sampleClient.close();
+    }
+
+    @Test
+    public void testCacheLoadAllPatients01() {
+        final SampleClient sampleClient = new SampleClient(OPTIONS.toBuilder().batchSize(5).build());
+        final long searches = server.getSearchCount();
+        final Map<String, List<Patient>> byName = sampleClient.cacheLoadAllPatients(ImmutableList.of("Smith", "Jones", "SMITH", " jones", "Nobody"));
+        Assertions.assertThat(byName.keySet()).containsExactly("Smith", "Jones", "SMITH", " jones", "Nobody");
+        Assertions.assertThat(ids(byName.get("SMITH"))).isEqualTo(ids(byName.get("Smith"))).hasSize(2);
+        Assertions.assertThat(ids(byName.get(" jones"))).isEqualTo(ids(byName.get("Jones"))).hasSize(2);
+        Assertions.assertThat(byName.get("Nobody")).isEmpty();
+        Assertions.assertThat(sampleClient.getCoalescedCount()).isEqualTo(2L);
+        Assertions.assertThat(server.getSearchCount() - searches).isEqualTo(1L);
+        sampleClient.close();
+    }
+
+    @Test
+    public void testNegativeCache01() throws Exception {
+        final SampleClient sampleClient = new SampleClient(OPTIONS.toBuilder().negativeTimeToLive(Duration.ofMillis(100L)).build());
+        final long searches = server.getSearchCount();
+        Assertions.assertThat(sampleClient.cacheLoadPatients("Nobody")).isEmpty();
+        Assertions.assertThat(sampleClient.cacheLoadPatients("nobody")).isEmpty();
+        Assertions.assertThat(sampleClient.cacheLoadPatientsAsync("NOBODY").join()).isEmpty();
+        Assertions.assertThat(server.getSearchCount() - searches).isEqualTo(1L);
+        Assertions.assertThat(sampleClient.getNegativeCacheStats().hitCount()).isEqualTo(2L);
+        TimeUnit.MILLISECONDS.sleep(200L);
+        Assertions.assertThat(sampleClient.cacheLoadPatients("Nobody")).isEmpty();
+        Assertions.assertThat(server.getSearchCount() - searches).isEqualTo(2L);
+        // non empty results keep the ttl of the main cache
+        Assertions.assertThat(sampleClient.cacheLoadPatients("Smith")).hasSize(2);
+        TimeUnit.MILLISECONDS.sleep(200L);
+        Assertions.assertThat(sampleClient.cacheLoadPatients("Smith")).hasSize(2);
+        Assertions.assertThat(server.getSearchCount() - searches).isEqualTo(3L);
+        sampleClient.close();
+    }
+
+    @Test
+    public void testNegativeCache03() throws Exception {
+        // an empty result expires from the disk cache with the negative cache, not after the disk ttl
+        final SampleClient sampleClient = new SampleClient(OPTIONS.toBuilder().negativeTimeToLive(Duration.ofMillis(100L))
+                .diskCachePath(temporaryFolder.newFolder().toPath().resolve("patients.cache")).build());
+        final long searches = server.getSearchCount();
+        Assertions.assertThat(sampleClient.cacheLoadPatients("Nobody")).isEmpty();
+        TimeUnit.MILLISECONDS.sleep(200L);
+        Assertions.assertThat(sampleClient.cacheLoadPatients("Nobody")).isEmpty();
+        Assertions.assertThat(server.getSearchCount() - searches).isEqualTo(2L);
+        sampleClient.close();
+    }
+
+    @Test
+    public void testNegativeCache02() {
+        // off unless configured
+        final SampleClient sampleClient = new SampleClient(OPTIONS);
+        Assertions.assertThat(sampleClient.cacheLoadPatients("Nobody")).isEmpty();
+        Assertions.assertThat(sampleClient.cacheLoadPatients("Nobody")).isEmpty();
+        Assertions.assertThat(sampleClient.getCacheStats().hitCount()).isEqualTo(1L);
+        Assertions.assertThat(sampleClient.getNegativeCacheStats().requestCount()).isEqualTo(0L);
+        sampleClient.close();
+    }
+
+    @Test
+    public void testCacheMaxBytes01() throws Exception {
+        final List<String> names = IntStream.range(0, 100).mapToObj(i -> String.format("Rarename%03d", i)).collect(Collectors.toList());
+        try (final FhirStubServer stub = new FhirStubServer(FhirStubServer.generate(7L, names, 2), 7L).start()) {
+            final SampleClient sampleClient = new SampleClient(OPTIONS.toBuilder().serverBase(stub.getBaseUrl()).cacheMaxBytes(50_000L).build());
+            // looked up twice, every name is admitted
+            names.forEach(name -> {
+                Assertions.assertThat(sampleClient.cacheLoadPatients(name)).hasSize(2);
+                Assertions.assertThat(sampleClient.cacheLoadPatients(name)).hasSize(2);
+            });
+            Assertions.assertThat(sampleClient.getCacheWeight()).isPositive().isLessThanOrEqualTo(50_000L);
+            Assertions.assertThat(sampleClient.getSizeEvictionCount()).isPositive();
+            Assertions.assertThat(sampleClient.getCacheStats().evictionCount()).isGreaterThanOrEqualTo(sampleClient.getSizeEvictionCount());
+            sampleClient.close();
+        }
+    }
+
+    @Test
+    public void testCacheMaxBytes02() throws Exception {
+        final List<String> hot = IntStream.range(0, 5).mapToObj(i -> String.format("Hotname%d", i)).collect(Collectors.toList());
+        final List<String> rare = IntStream.range(0, 100).mapToObj(i -> String.format("Rarename%03d", i)).collect(Collectors.toList());
+        try (final FhirStubServer stub = new FhirStubServer(FhirStubServer.generate(7L, ImmutableList.<String>builder().addAll(hot).addAll(rare).build(), 2), 7L).start()) {
+            final SampleClient sampleClient = new SampleClient(OPTIONS.toBuilder().serverBase(stub.getBaseUrl()).cacheMaxBytes(100_000L).build());
+            IntStream.range(0, 3).forEach(i -> hot.forEach(sampleClient::cacheLoadPatients));
+            // a scan of names looked up once, loaded without being cached once the cache is half full
+            Assertions.assertThat(sampleClient.cacheLoadAllPatients(rare.subList(0, 50)).values()).allSatisfy(patients -> Assertions.assertThat(patients).hasSize(2));
+            rare.subList(50, 100).forEach(name -> Assertions.assertThat(sampleClient.cacheLoadPatients(name)).hasSize(2));
+            Assertions.assertThat(sampleClient.getAdmissionRejectedCount()).isPositive();
+            Assertions.assertThat(sampleClient.getCacheWeight()).isLessThanOrEqualTo(100_000L);
+
+            final long searches = stub.getSearchCount();
+            hot.forEach(name -> Assertions.assertThat(sampleClient.cacheLoadPatients(name)).hasSize(2));
+            Assertions.assertThat(stub.getSearchCount()).isEqualTo(searches);
+            sampleClient.close();
+        }
+    }
+
+    @Test
+    public void testCacheMaxBytes04() throws Exception {
+        final List<String> names = IntStream.range(0, 100).mapToObj(i -> String.format("Rarename%03d", i)).collect(Collectors.toList());
+        try (final FhirStubServer stub = new FhirStubServer(FhirStubServer.generate(7L, ImmutableList.<String>builder().addAll(names).add("Coldname").build(), 2), 7L).start()) {
+            final SampleClient sampleClient = new SampleClient(OPTIONS.toBuilder().serverBase(stub.getBaseUrl()).cacheMaxBytes(50_000L).build());
+            names.forEach(name -> {
+                sampleClient.cacheLoadPatients(name);
+                sampleClient.cacheLoadPatients(name);
+            });
+            stub.setLatency(FhirStubServer.Latency.fixed(300L));
+            final long searches = stub.getSearchCount();
+            final long rejected = sampleClient.getAdmissionRejectedCount();
+            // concurrent cold misses share one search, whether admitted, rejected or async
+            final ExecutorService executor = Executors.newFixedThreadPool(4);
+            try {
+                final List<Callable<List<Patient>>> lookups = Collections.nCopies(4, () -> sampleClient.cacheLoadPatients("Coldname"));
+                final List<Future<List<Patient>>> found = lookups.stream().map(executor::submit).collect(Collectors.toList());
+                Assertions.assertThat(sampleClient.cacheLoadPatientsAsync("Coldname").get()).hasSize(2);
+                for (final Future<List<Patient>> patients : found) {
+                    Assertions.assertThat(patients.get()).hasSize(2);
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+            Assertions.assertThat(sampleClient.getAdmissionRejectedCount()).isGreaterThan(rejected);
+            Assertions.assertThat(stub.getSearchCount()).isEqualTo(searches + 1L);
+            sampleClient.close();
+        }
+    }
+
+    @Test
+    public void testCacheMaxBytes05() throws Exception {
+        final List<String> names = IntStream.range(0, 100).mapToObj(i -> String.format("Rarename%03d", i)).collect(Collectors.toList());
+        try (final FhirStubServer stub = new FhirStubServer(FhirStubServer.generate(7L, names, 2), 7L).start()) {
+            final SampleClient sampleClient = new SampleClient(OPTIONS.toBuilder().serverBase(stub.getBaseUrl()).cacheMaxBytes(50_000L).build());
+            names.subList(0, 60).forEach(name -> {
+                sampleClient.cacheLoadPatients(name);
+                sampleClient.cacheLoadPatients(name);
+            });
+            // misses loaded without being admitted, one by one then by batch, count as misses and loads of the cache
+            final CacheStats before = sampleClient.getCacheStats();
+            final long rejected = sampleClient.getAdmissionRejectedCount();
+            names.subList(60, 80).forEach(name -> Assertions.assertThat(sampleClient.cacheLoadPatients(name)).hasSize(2));
+            Assertions.assertThat(sampleClient.getAdmissionRejectedCount() - rejected).isEqualTo(20L);
+            CacheStats interval = sampleClient.getCacheStats().minus(before);
+            Assertions.assertThat(interval.hitCount()).isZero();
+            Assertions.assertThat(interval.missCount()).isEqualTo(20L);
+            Assertions.assertThat(interval.loadSuccessCount()).isEqualTo(20L);
+            Assertions.assertThat(interval.totalLoadTime()).isPositive();
+
+            Assertions.assertThat(sampleClient.cacheLoadAllPatients(names.subList(80, 100))).hasSize(20);
+            interval = sampleClient.getCacheStats().minus(before);
+            Assertions.assertThat(interval.hitCount()).isZero();
+            Assertions.assertThat(interval.missCount()).isEqualTo(40L);
+            Assertions.assertThat(interval.loadSuccessCount()).isEqualTo(21L);
+            Assertions.assertThat(interval.hitRate()).isZero();
+            sampleClient.close();
+        }
+    }
+
+    @Test
+    public void testCacheMaxBytes06() throws Exception {
+        final List<String> names = IntStream.range(0, 100).mapToObj(i -> String.format("Rarename%03d", i)).collect(Collectors.toList());
+        try (final FhirStubServer stub = new FhirStubServer(FhirStubServer.generate(7L, names, 2), 7L).start()) {
+            final SampleClient sampleClient = new SampleClient(OPTIONS.toBuilder().serverBase(stub.getBaseUrl()).cacheMaxBytes(50_000L).build());
+            names.forEach(name -> {
+                sampleClient.cacheLoadPatients(name);
+                sampleClient.cacheLoadPatients(name);
+            });
+            Assertions.assertThat(sampleClient.getSizeEvictionCount()).isPositive();
+            // the segments of the evicted results left the index, and the index is in the weight
+            Assertions.assertThat(sampleClient.getIndexSegmentCount()).isEqualTo(sampleClient.getCacheSize());
+            Assertions.assertThat(sampleClient.findCachedByLastName("rarename")).hasSize(2 * (int) sampleClient.getCacheSize());
+            Assertions.assertThat(sampleClient.getCacheWeight()).isLessThanOrEqualTo(50_000L);
+            sampleClient.close();
+        }
+    }
+
+    @Test
+    public void testCacheMaxBytes03() {
+        final SampleClient sampleClient = new SampleClient(OPTIONS);
+        Assertions.assertThat(sampleClient.getCacheWeight()).isEqualTo(0L);
+        Assertions.assertThat(sampleClient.cacheLoadPatients("Smith")).hasSize(2);
+        Assertions.assertThat(sampleClient.getCacheWeight()).isGreaterThan(2L * PatientSearchResult.PATIENT_BYTES);
+        Assertions.assertThat(sampleClient.getAdmissionRejectedCount()).isEqualTo(0L);
+        sampleClient.close();
+    }
+
+    @Test
+    public void testFindCached01() throws Exception {
+        final SampleClient sampleClient = new SampleClient(OPTIONS.toBuilder().expireAfterWrite(Duration.ofMillis(300L)).build());
+        Assertions.assertThat(sampleClient.findCachedByLastName("")).isEmpty();
+        final List<Patient> smiths = sampleClient.cacheLoadPatients("Smith");
+        sampleClient.cacheLoadAllPatients(ImmutableList.of("Jones", "Brown"));
+        final long searches = server.getSearchCount();
+        Assertions.assertThat(ids(sampleClient.findCachedByLastName("SMITH"))).containsExactlyElementsOf(ids(smiths));
+        Assertions.assertThat(sampleClient.findCachedByLastName("")).hasSize(6);
+        final String firstName = Util.extractFirstName(smiths.get(0));
+        Assertions.assertThat(sampleClient.findCachedByFirstName(firstName)).extracting(Util::extractFirstName).allMatch(name -> name.startsWith(firstName));
+        final List<Patient> born = sampleClient.findCachedBornBetween(LocalDate.of(1900, 1, 1), LocalDate.of(2100, 1, 1));
+        Assertions.assertThat(born).allMatch(p -> p.hasBirthDate());
+        born.forEach(p -> Assertions.assertThat(sampleClient.findCachedBornIn(Util.dateToLocalDate(p.getBirthDate()).getYear())).extracting(Patient::getIdElement).isNotEmpty());
+        Assertions.assertThat(server.getSearchCount()).isEqualTo(searches);
+        // expired results leave the index with the cache
+        TimeUnit.MILLISECONDS.sleep(400L);
+        Assertions.assertThat(sampleClient.findCachedByLastName("")).isEmpty();
+        sampleClient.close();
+    }
+
+    @Test
+    public void testBulkLoad01() throws Exception {
+        final List<Patient> patients = FhirStubServer.generate(3L, ImmutableList.of("Smith", "Smithson", "Jones"), 3);
+        final File file = temporaryFolder.newFile("patients.ndjson");
+        Files.write(file.toPath(), patients.stream().map(FhirClients.context().newJsonParser()::encodeResourceToString).collect(Collectors.toList()), StandardCharsets.UTF_8);
+        try (final FhirStubServer stub = new FhirStubServer(patients, 3L).start()) {
+            final SampleClient sampleClient = new SampleClient(OPTIONS.toBuilder().serverBase(stub.getBaseUrl()).build());
+            Assertions.assertThat(sampleClient.cacheBulkLoadFromFiles(ImmutableList.of(file.getPath()))).isEqualTo(3L);
+            Assertions.assertThat(sampleClient.getCacheSize()).isEqualTo(3L);
+            // cached as the searches would find them, without any search
+            final List<Patient> smiths = sampleClient.cacheLoadPatients("SMITH");
+            Assertions.assertThat(smiths).hasSize(6);
+            Assertions.assertThat(ids(smiths)).isEqualTo(ids(PatientSortKey.sortByFirstName(patients.subList(0, 6))));
+            Assertions.assertThat(sampleClient.cacheLoadPatients("Jones")).hasSize(3);
+            Assertions.assertThat(sampleClient.findCachedByLastName("smiths")).hasSize(3);
+            Assertions.assertThat(stub.getRequestCount()).isEqualTo(0L);
+            Assertions.assertThat(sampleClient.cacheBulkLoadFromFiles(ImmutableList.of("missing.ndjson"))).isEqualTo(0L);
+            sampleClient.close();
+        }
+    }
+
+    @Test
+    public void testBulkLoad02() throws Exception {
+        final List<String> names = IntStream.range(0, 30).mapToObj(i -> String.format("Bulkname%02d", i)).collect(Collectors.toList());
+        try (final FhirStubServer stub = new FhirStubServer(FhirStubServer.generate(3L, names, 40), 3L).start()) {
+            stub.setExportFilePatients(500);
+            final SampleClient sampleClient = new SampleClient(OPTIONS.toBuilder().serverBase(stub.getBaseUrl())
+                    .concurrency(4).projection(true).bulkExportPollInterval(Duration.ofMillis(10L)).build());
+            Assertions.assertThat(sampleClient.cacheBulkLoadFromExport()).isEqualTo(30L);
+            Assertions.assertThat(stub.getExportCount()).isEqualTo(1L);
+            Assertions.assertThat(stub.getSearchCount()).isEqualTo(0L);
+            final List<PatientSummary> summaries = sampleClient.cacheLoadPatientSummaries("Bulkname07");
+            Assertions.assertThat(summaries).hasSize(40);
+            Assertions.assertThat(summaries).allMatch(summary -> summary.getLastName().equals("Bulkname07"));
+            Assertions.assertThat(stub.getSearchCount()).isEqualTo(0L);
+            sampleClient.close();
+        }
+        // no server to export from
+        final SampleClient offline = new SampleClient(OPTIONS.toBuilder().serverBase("http://127.0.0.1:1/baseR4").build());
+        Assertions.assertThat(offline.cacheBulkLoadFromExport()).isEqualTo(0L);
+        offline.close();
+    }
+
+    @Test
+    public void testFindCached02() throws Exception {
+        final List<String> names = IntStream.range(0, 40).mapToObj(i -> String.format("Rarename%03d", i)).collect(Collectors.toList());
+        try (final FhirStubServer stub = new FhirStubServer(FhirStubServer.generate(7L, names, 2), 7L).start()) {
+            final SampleClient sampleClient = new SampleClient(OPTIONS.toBuilder().serverBase(stub.getBaseUrl()).cacheMaxBytes(50_000L).build());
+            names.forEach(name -> {
+                sampleClient.cacheLoadPatients(name);
+                sampleClient.cacheLoadPatients(name);
+            });
+            Assertions.assertThat(sampleClient.getSizeEvictionCount()).isPositive();
+            // evicted results leave the index, the cached ones are all in it
+            final List<Patient> indexed = sampleClient.findCachedByLastName("rarename");
+            Assertions.assertThat(indexed).isNotEmpty();
+            Assertions.assertThat(indexed.size()).isLessThan(2 * names.size());
+            final long searches = stub.getSearchCount();
+            indexed.stream().map(Util::extractLastName).distinct().forEach(sampleClient::cacheLoadPatients);
+            Assertions.assertThat(stub.getSearchCount()).isEqualTo(searches);
+            sampleClient.close();
+        }
+    }
 }
@@ -2,18 +2,27 @@ import com.google.common.collect.ImmutableList;
 import io.vavr.control.Try;
 import lombok.extern.slf4j.Slf4j;
 import org.assertj.core.api.Assertions;
+import org.hl7.fhir.r4.model.DateType;
 import org.hl7.fhir.r4.model.HumanName;
 import org.hl7.fhir.r4.model.Patient;
 import org.hl7.fhir.r4.model.StringType;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.time.LocalDate;
 import java.util.Date;
 import java.util.List;
 import java.util.Objects;
+import java.util.stream.Stream;
 
 @Slf4j
 public class UtilTest {
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
 
 
     @Test
@@ -119,4 +128,102 @@ public class UtilTest {
         final String dob = Util.extractDob(patient);
         Assertions.assertThat(dob).isEmpty();
     }
+
+    @Test
+    public void testMatchesFamily01() {
+        final Patient patient = mkPatient("John", "Smithson", "2024-01-01");
+        Assertions.assertThat(Util.matchesFamily(patient, "smith")).isTrue();
+        Assertions.assertThat(Util.matchesFamily(patient, "Smithson")).isTrue();
+        Assertions.assertThat(Util.matchesFamily(patient, "Jones")).isFalse();
+    }
+
+    @Test
+    public void testMatchesFamily02() {
+        final Patient patient = mkPatient("Jos\u00e9", "N\u00fa\u00f1ez", "2024-01-01");
+        Assertions.assertThat(Util.matchesFamily(patient, "NUNEZ")).isTrue();
+    }
+
+    @Test
+    public void testMatchesFamily03() {
+        Assertions.assertThat(Util.matchesFamily(mkPatient("John", null, "2024-01-01"), "Smith")).isFalse();
+        Assertions.assertThat(Util.matchesFamily(null, "Smith")).isFalse();
+    }
+
+    @Test
+    public void testExtractBirthEpochDay01() {
+        final Patient patient = mkPatient("John", "Doe", "1985-03-15");
+        Assertions.assertThat(Util.extractBirthEpochDay(patient)).isEqualTo(LocalDate.of(1985, 3, 15).toEpochDay());
+        Assertions.assertThat(Util.extractBirthEpochDay(patient)).isEqualTo(Util.dateToLocalDate(patient.getBirthDate()).toEpochDay());
+    }
+
+    @Test
+    public void testExtractBirthEpochDay02() {
+        Assertions.assertThat(Util.extractBirthEpochDay(null)).isEqualTo(PatientSummary.NO_BIRTH_DATE);
+        Assertions.assertThat(Util.extractBirthEpochDay(mkPatient("John", "Doe", null))).isEqualTo(PatientSummary.NO_BIRTH_DATE);
+        final Patient patient = new Patient();
+        patient.setBirthDateElement(new DateType("1965"));
+        Assertions.assertThat(Util.extractDob(patient)).isEqualTo("1965-01-01");
+    }
+
+    @Test
+    public void testFormatEpochDay01() {
+        final int epochDay = (int) LocalDate.of(1985, 3, 15).toEpochDay();
+        Assertions.assertThat(Util.formatEpochDay(epochDay)).isEqualTo("1985-03-15");
+        Assertions.assertThat(Util.formatEpochDay(epochDay)).isSameAs(Util.formatEpochDay(epochDay));
+        Assertions.assertThat(Util.formatEpochDay((int) LocalDate.of(1850, 12, 31).toEpochDay())).isEqualTo("1850-12-31");
+        Assertions.assertThat(Util.formatEpochDay(PatientSummary.NO_BIRTH_DATE)).isEmpty();
+    }
+
+    @Test
+    public void testStreamLines01() throws Exception {
+        final File file = temporaryFolder.newFile("lines.txt");
+        Files.write(file.toPath(), ImmutableList.of("Smith", "", "Jones"), StandardCharsets.UTF_8);
+        try (final Stream<String> lines = Util.streamLines(file.getAbsolutePath())) {
+            Assertions.assertThat(lines).containsExactly("Smith", "", "Jones");
+        }
+        Assertions.assertThat(Util.readLines(file.getAbsolutePath())).containsExactly("Smith", "", "Jones");
+        try (final Stream<String> lines = Util.streamLines("names.txt")) {
+            Assertions.assertThat(lines.count()).isEqualTo(20L);
+        }
+        try (final Stream<String> lines = Util.streamLines("names1.txt")) {
+            Assertions.assertThat(lines).isEmpty();
+        }
+    }
+
+    @Test
+    public void testStreamLastNames01() throws Exception {
+        final File file = temporaryFolder.newFile("names.txt");
+        Files.write(file.toPath(), ImmutableList.of("\uFEFFSmith", "  Jones ", "", "   ", "SMITH", "Van   Buren", "Jos\u00e9", "jose", "Jones"), StandardCharsets.UTF_8);
+        try (final Stream<String> names = Util.streamLastNames(file.getAbsolutePath())) {
+            Assertions.assertThat(names).containsExactly("Smith", "Jones", "Van Buren", "Jos\u00e9");
+        }
+        try (final Stream<String> names = Util.streamLastNames(null)) {
+            Assertions.assertThat(names).isEmpty();
+        }
+    }
+
+    @Test
+    public void testStreamLastNames02() throws Exception {
+        final File file = temporaryFolder.newFile("names.txt");
+        Files.write(file.toPath(), ImmutableList.of("A", "B", "a", "C", "D", "A"), StandardCharsets.UTF_8);
+        // only the last 2 distinct names are remembered, A is forgotten once C and D are seen
+        try (final Stream<String> names = Util.streamLastNames(file.getAbsolutePath(), 2)) {
+            Assertions.assertThat(names).containsExactly("A", "B", "C", "D", "A");
+        }
+    }
+
+    @Test
+    public void testNormalizeLastName01() {
+        Assertions.assertThat(Util.normalizeLastName(null)).isEmpty();
+        Assertions.assertThat(Util.normalizeLastName(" \t ")).isEmpty();
+        Assertions.assertThat(Util.normalizeLastName(" de  la\tCruz ")).isEqualTo("de la Cruz");
+    }
+
+    @Test
+    public void testLastNameKey01() {
+        Assertions.assertThat(Util.lastNameKey(" SMITH ")).isEqualTo("smith");
+        Assertions.assertThat(Util.lastNameKey("Jos\u00e9")).isEqualTo(Util.lastNameKey("jose"));
+        Assertions.assertThat(Util.lastNameKey("Van  Buren")).isEqualTo("van buren");
+        Assertions.assertThat(Util.lastNameKey(null)).isEmpty();
+    }
 }